@@ -0,0 +1,148 @@
+package com.cardmanager.app;
+
+import android.content.Context;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Set;
+
+// Content-addressed file store for card images and media. Each blob is saved once
+// under its SHA-256 hash (blobs/ab/cdef...), so identical content is deduplicated
+// and database rows only need to keep the hash.
+public class BlobStore {
+    
+    private static final String DIRECTORY = "blobs";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int HASH_LENGTH = 64;
+    
+    private static BlobStore instance;
+    
+    private final File root;
+    private final File tempDir;
+    
+    public static synchronized BlobStore getInstance(Context context) {
+        if (instance == null) {
+            instance = new BlobStore(new File(context.getApplicationContext().getFilesDir(), DIRECTORY));
+        }
+        return instance;
+    }
+    
+    BlobStore(File root) {
+        this.root = root;
+        this.tempDir = new File(root, "tmp");
+    }
+    
+    // Streams the content into the store and returns its hash. The input is not closed.
+    public String put(InputStream in) throws IOException {
+        if (!tempDir.isDirectory() && !tempDir.mkdirs()) {
+            throw new IOException("Could not create " + tempDir);
+        }
+        
+        MessageDigest digest = newDigest();
+        File temp = File.createTempFile("blob", ".tmp", tempDir);
+        try {
+            try (OutputStream out = new FileOutputStream(temp)) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    digest.update(buffer, 0, read);
+                    out.write(buffer, 0, read);
+                }
+            }
+            
+            String hash = toHex(digest.digest());
+            File target = file(hash);
+            if (target.exists()) {
+                // Same content is already stored; it counts as new for collectGarbage()
+                target.setLastModified(System.currentTimeMillis());
+                return hash;
+            }
+            File parent = target.getParentFile();
+            if (!parent.isDirectory() && !parent.mkdirs()) {
+                throw new IOException("Could not create " + parent);
+            }
+            if (!temp.renameTo(target) && !target.exists()) {
+                throw new IOException("Could not store blob " + hash);
+            }
+            return hash;
+        } finally {
+            temp.delete();
+        }
+    }
+    
+    public InputStream open(String hash) throws FileNotFoundException {
+        return new BufferedInputStream(new FileInputStream(file(hash)), BUFFER_SIZE);
+    }
+    
+    public boolean contains(String hash) {
+        return file(hash).exists();
+    }
+    
+    public File file(String hash) {
+        if (!isHash(hash)) {
+            throw new IllegalArgumentException("Not a blob hash: " + hash);
+        }
+        return new File(new File(root, hash.substring(0, 2)), hash.substring(2));
+    }
+    
+    // Deletes every blob whose hash is not in the live set and returns how many were
+    // removed. Blobs stored at or after storedBefore are kept, since a put() is
+    // followed by the write of the row that refers to it.
+    public int collectGarbage(Set<String> liveHashes, long storedBefore) {
+        int removed = 0;
+        File[] shards = root.listFiles();
+        if (shards == null) {
+            return 0;
+        }
+        for (File shard : shards) {
+            File[] blobs = shard.equals(tempDir) ? null : shard.listFiles();
+            if (blobs == null) {
+                continue;
+            }
+            for (File blob : blobs) {
+                String hash = shard.getName() + blob.getName();
+                if (!liveHashes.contains(hash) && blob.lastModified() < storedBefore && blob.delete()) {
+                    removed++;
+                }
+            }
+        }
+        return removed;
+    }
+    
+    private static boolean isHash(String value) {
+        if (value == null || value.length() != HASH_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    private static String toHex(byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = Character.forDigit((bytes[i] >> 4) & 0xF, 16);
+            hex[i * 2 + 1] = Character.forDigit(bytes[i] & 0xF, 16);
+        }
+        return new String(hex);
+    }
+}
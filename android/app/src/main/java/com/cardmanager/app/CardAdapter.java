@@ -0,0 +1,152 @@
+package com.cardmanager.app;
+
+import android.view.ViewGroup;
+import android.widget.Button;
+import android.widget.LinearLayout;
+import android.widget.TextView;
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
+import androidx.recyclerview.widget.RecyclerView;
+import java.util.Objects;
+
+public class CardAdapter extends ListAdapter<CardSummary, CardAdapter.CardViewHolder> {
+    
+    public interface OnCardActionListener {
+        void onEdit(CardSummary card);
+        void onDelete(CardSummary card);
+    }
+    
+    // Rows are matched by id and only rebound when a field shown in the row changed
+    private static final DiffUtil.ItemCallback<CardSummary> DIFF_CALLBACK = new DiffUtil.ItemCallback<CardSummary>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull CardSummary oldCard, @NonNull CardSummary newCard) {
+            return oldCard.getId() == newCard.getId();
+        }
+        
+        @Override
+        public boolean areContentsTheSame(@NonNull CardSummary oldCard, @NonNull CardSummary newCard) {
+            return Objects.equals(oldCard.getName(), newCard.getName())
+                    && Objects.equals(oldCard.getCode(), newCard.getCode())
+                    && Objects.equals(oldCard.getGender(), newCard.getGender())
+                    && Objects.equals(oldCard.getPhone(), newCard.getPhone())
+                    && Objects.equals(oldCard.getEmail(), newCard.getEmail());
+        }
+    };
+    
+    private final OnCardActionListener listener;
+    
+    public CardAdapter(OnCardActionListener listener) {
+        super(DIFF_CALLBACK);
+        this.listener = listener;
+        setHasStableIds(true);
+    }
+    
+    @Override
+    public long getItemId(int position) {
+        return getItem(position).getId();
+    }
+    
+    @NonNull
+    @Override
+    public CardViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        LinearLayout cardLayout = new LinearLayout(parent.getContext());
+        cardLayout.setOrientation(LinearLayout.VERTICAL);
+        cardLayout.setPadding(20, 15, 20, 15);
+        
+        RecyclerView.LayoutParams cardParams = new RecyclerView.LayoutParams(
+            RecyclerView.LayoutParams.MATCH_PARENT, RecyclerView.LayoutParams.WRAP_CONTENT
+        );
+        cardParams.setMargins(0, 0, 0, 10);
+        cardLayout.setLayoutParams(cardParams);
+        
+        return new CardViewHolder(cardLayout);
+    }
+    
+    @Override
+    public void onBindViewHolder(@NonNull CardViewHolder holder, int position) {
+        holder.bind(getItem(position));
+    }
+    
+    class CardViewHolder extends RecyclerView.ViewHolder {
+        private final LinearLayout cardLayout;
+        private final TextView nameText;
+        private final TextView phoneText;
+        private final TextView emailText;
+        private CardSummary card;
+        
+        CardViewHolder(LinearLayout cardLayout) {
+            super(cardLayout);
+            this.cardLayout = cardLayout;
+            
+            // Card Header
+            LinearLayout headerLayout = new LinearLayout(cardLayout.getContext());
+            headerLayout.setOrientation(LinearLayout.HORIZONTAL);
+            
+            nameText = new TextView(cardLayout.getContext());
+            nameText.setTextSize(18);
+            nameText.setTextColor(0xFF333333);
+            nameText.setTypeface(null, android.graphics.Typeface.BOLD);
+            
+            LinearLayout.LayoutParams nameParams = new LinearLayout.LayoutParams(
+                0, LinearLayout.LayoutParams.WRAP_CONTENT, 1.0f
+            );
+            nameText.setLayoutParams(nameParams);
+            headerLayout.addView(nameText);
+            
+            // Edit Button
+            Button editBtn = new Button(cardLayout.getContext());
+            editBtn.setText("Edit");
+            editBtn.setTextSize(12);
+            editBtn.setTextColor(0xFF333333);
+            editBtn.setBackgroundColor(0xFFFFFFFF);
+            editBtn.setPadding(15, 5, 15, 5);
+            editBtn.setOnClickListener(v -> listener.onEdit(card));
+            headerLayout.addView(editBtn);
+            
+            // Delete Button
+            Button deleteBtn = new Button(cardLayout.getContext());
+            deleteBtn.setText("Delete");
+            deleteBtn.setTextSize(12);
+            deleteBtn.setTextColor(0xFFFFFFFF);
+            deleteBtn.setBackgroundColor(0xFFFF6B6B);
+            deleteBtn.setPadding(15, 5, 15, 5);
+            deleteBtn.setOnClickListener(v -> listener.onDelete(card));
+            headerLayout.addView(deleteBtn);
+            
+            cardLayout.addView(headerLayout);
+            
+            // Card Details
+            phoneText = createDetailText();
+            cardLayout.addView(phoneText);
+            
+            emailText = createDetailText();
+            cardLayout.addView(emailText);
+        }
+        
+        private TextView createDetailText() {
+            TextView detailText = new TextView(cardLayout.getContext());
+            detailText.setTextSize(14);
+            detailText.setTextColor(0xFF333333);
+            detailText.setPadding(0, 5, 0, 0);
+            return detailText;
+        }
+        
+        void bind(CardSummary card) {
+            this.card = card;
+            cardLayout.setBackgroundColor("male".equals(card.getGender()) ? 0xFFADD8E6 : 0xFFFFB6C1);
+            nameText.setText(card.getName() + " (" + card.getCode() + ")");
+            bindDetail(phoneText, "📞 ", card.getPhone());
+            bindDetail(emailText, "✉️ ", card.getEmail());
+        }
+        
+        private void bindDetail(TextView view, String icon, String value) {
+            if (value != null && !value.isEmpty()) {
+                view.setText(icon + value);
+                view.setVisibility(android.view.View.VISIBLE);
+            } else {
+                view.setVisibility(android.view.View.GONE);
+            }
+        }
+    }
+}
@@ -9,23 +9,70 @@ import android.widget.EditText;
 import android.widget.LinearLayout;
 import android.widget.ScrollView;
 import android.widget.TextView;
+import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Random;
+import java.util.Set;
 
 public class CardsActivity extends AppCompatActivity {
     
-    private DatabaseHelper dbHelper;
-    private LinearLayout cardsContainer;
+    private static final int PAGE_SIZE = 50;
+    private static final int SEARCH_LIMIT = 100;
+    private static final long SEARCH_DEBOUNCE_MS = 250;
+    
+    private DataRepository repository;
+    private CardAdapter cardAdapter;
+    private TextView emptyMsg;
     private EditText searchInput;
     
+    // Loaded cards in (name, id) order; the adapter receives a copy on every change
+    private final List<CardSummary> cards = new ArrayList<>();
+    
+    // Keyset position of the last loaded card
+    private String lastName;
+    private int lastId;
+    private boolean hasMoreCards;
+    private boolean loadingPage;
+    
+    // Bumped whenever the list is reset so pages still in flight are dropped
+    private int listGeneration;
+    
+    // Current search text, or null while browsing the full list
+    private String activeQuery;
+    private SearchPipeline<List<CardSummary>> searchPipeline;
+    private final DataRepository.ChangeListener changeListener = this::onDataChanged;
+    
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         
-        dbHelper = new DatabaseHelper(this);
+        repository = DataRepository.getInstance(this);
+        DatabaseHelper dbHelper = DatabaseHelper.getInstance(this);
+        searchPipeline = new SearchPipeline<>(repository.getReadExecutor(), SEARCH_DEBOUNCE_MS,
+            (query, signal) -> dbHelper.searchCards(query, SEARCH_LIMIT, signal),
+            new SearchPipeline.Listener<List<CardSummary>>() {
+                public void onResults(String query, List<CardSummary> results) {
+                    showSearchResults(query, results);
+                }
+                public void onError(String query, Exception e) {
+                    showSearchResults(query, new ArrayList<>());
+                    android.widget.Toast.makeText(CardsActivity.this, "Search failed",
+                        android.widget.Toast.LENGTH_SHORT).show();
+                }
+            });
         setupCardsLayout();
         loadCards();
+        repository.addChangeListener(changeListener);
+    }
+    
+    @Override
+    protected void onDestroy() {
+        repository.removeChangeListener(changeListener);
+        searchPipeline.cancel();
+        super.onDestroy();
     }
     
     private void setupCardsLayout() {
@@ -98,119 +145,165 @@ public class CardsActivity extends AppCompatActivity {
         addBtn.setLayoutParams(addBtnParams);
         mainLayout.addView(addBtn);
         
-        // Cards Container (Scrollable)
-        ScrollView scrollView = new ScrollView(this);
-        cardsContainer = new LinearLayout(this);
-        cardsContainer.setOrientation(LinearLayout.VERTICAL);
-        scrollView.addView(cardsContainer);
+        // Empty State
+        emptyMsg = new TextView(this);
+        emptyMsg.setText("No cards found. Add your first card!");
+        emptyMsg.setTextSize(16);
+        emptyMsg.setTextColor(0xFF666666);
+        emptyMsg.setGravity(android.view.Gravity.CENTER);
+        emptyMsg.setPadding(20, 40, 20, 40);
+        emptyMsg.setVisibility(View.GONE);
+        mainLayout.addView(emptyMsg);
+        
+        // Cards List (Recycled)
+        RecyclerView cardsList = new RecyclerView(this);
+        LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        cardsList.setLayoutManager(layoutManager);
+        cardAdapter = new CardAdapter(new CardAdapter.OnCardActionListener() {
+            public void onEdit(CardSummary card) {
+                showEditCardDialog(card);
+            }
+            public void onDelete(CardSummary card) {
+                confirmDelete(card);
+            }
+        });
+        cardsList.setAdapter(cardAdapter);
+        
+        // Load the next page once the user scrolls within half a page of the end
+        cardsList.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                int lastVisible = layoutManager.findLastVisibleItemPosition();
+                if (lastVisible >= cards.size() - PAGE_SIZE / 2) {
+                    loadNextPage();
+                }
+            }
+        });
         
-        LinearLayout.LayoutParams scrollParams = new LinearLayout.LayoutParams(
+        LinearLayout.LayoutParams listParams = new LinearLayout.LayoutParams(
             LinearLayout.LayoutParams.MATCH_PARENT, 0, 1.0f
         );
-        scrollView.setLayoutParams(scrollParams);
-        mainLayout.addView(scrollView);
+        cardsList.setLayoutParams(listParams);
+        mainLayout.addView(cardsList);
         
         setContentView(mainLayout);
     }
     
     private void loadCards() {
-        cardsContainer.removeAllViews();
-        List<Card> cards = dbHelper.getAllCards();
-        
-        if (cards.isEmpty()) {
-            TextView emptyMsg = new TextView(this);
-            emptyMsg.setText("No cards found. Add your first card!");
-            emptyMsg.setTextSize(16);
-            emptyMsg.setTextColor(0xFF666666);
-            emptyMsg.setGravity(android.view.Gravity.CENTER);
-            emptyMsg.setPadding(20, 40, 20, 40);
-            cardsContainer.addView(emptyMsg);
+        activeQuery = null;
+        listGeneration++;
+        requestPage(true);
+    }
+    
+    private void loadNextPage() {
+        if (!hasMoreCards || loadingPage) {
             return;
         }
+        requestPage(false);
+    }
+    
+    private void requestPage(boolean reset) {
+        int generation = listGeneration;
+        loadingPage = true;
+        repository.getCardsPage(reset ? null : lastName, reset ? 0 : lastId, PAGE_SIZE, page -> {
+            if (generation != listGeneration) {
+                return;
+            }
+            loadingPage = false;
+            if (reset) {
+                cards.clear();
+            }
+            appendPage(page);
+        });
+    }
+    
+    private void appendPage(List<CardSummary> page) {
+        cards.addAll(page);
         
-        for (Card card : cards) {
-            addCardView(card);
+        if (!page.isEmpty()) {
+            CardSummary last = page.get(page.size() - 1);
+            lastName = last.getName();
+            lastId = last.getId();
         }
+        hasMoreCards = page.size() == PAGE_SIZE;
+        showCards();
     }
     
-    private void addCardView(Card card) {
-        LinearLayout cardLayout = new LinearLayout(this);
-        cardLayout.setOrientation(LinearLayout.VERTICAL);
-        cardLayout.setPadding(20, 15, 20, 15);
-        cardLayout.setBackgroundColor(card.getGender().equals("male") ? 0xFFADD8E6 : 0xFFFFB6C1);
-        
-        LinearLayout.LayoutParams cardParams = new LinearLayout.LayoutParams(
-            LinearLayout.LayoutParams.MATCH_PARENT, LinearLayout.LayoutParams.WRAP_CONTENT
-        );
-        cardParams.setMargins(0, 0, 0, 10);
-        cardLayout.setLayoutParams(cardParams);
-        
-        // Card Header
-        LinearLayout headerLayout = new LinearLayout(this);
-        headerLayout.setOrientation(LinearLayout.HORIZONTAL);
-        
-        TextView nameText = new TextView(this);
-        nameText.setText(card.getName() + " (" + card.getCode() + ")");
-        nameText.setTextSize(18);
-        nameText.setTextColor(0xFF333333);
-        nameText.setTypeface(null, android.graphics.Typeface.BOLD);
-        
-        LinearLayout.LayoutParams nameParams = new LinearLayout.LayoutParams(
-            0, LinearLayout.LayoutParams.WRAP_CONTENT, 1.0f
-        );
-        nameText.setLayoutParams(nameParams);
-        headerLayout.addView(nameText);
-        
-        // Edit Button
-        Button editBtn = new Button(this);
-        editBtn.setText("Edit");
-        editBtn.setTextSize(12);
-        editBtn.setTextColor(0xFF333333);
-        editBtn.setBackgroundColor(0xFFFFFFFF);
-        editBtn.setPadding(15, 5, 15, 5);
-        editBtn.setOnClickListener(v -> showEditCardDialog(card));
-        headerLayout.addView(editBtn);
-        
-        // Delete Button
-        Button deleteBtn = new Button(this);
-        deleteBtn.setText("Delete");
-        deleteBtn.setTextSize(12);
-        deleteBtn.setTextColor(0xFFFFFFFF);
-        deleteBtn.setBackgroundColor(0xFFFF6B6B);
-        deleteBtn.setPadding(15, 5, 15, 5);
-        deleteBtn.setOnClickListener(v -> confirmDelete(card));
-        headerLayout.addView(deleteBtn);
+    private void showCards() {
+        emptyMsg.setText(activeQuery == null ? "No cards found. Add your first card!" : "No cards match your search.");
+        emptyMsg.setVisibility(cards.isEmpty() ? View.VISIBLE : View.GONE);
+        cardAdapter.submitList(new ArrayList<>(cards));
+    }
+    
+    // Moves a saved card to its sorted position so only that row is rebound.
+    // Cards that sort past the loaded pages are left for paging to pick up.
+    private void placeCard(CardSummary card) {
+        if (activeQuery != null) {
+            // Search results are in rank order; only refresh a card already shown
+            for (int i = 0; i < cards.size(); i++) {
+                if (cards.get(i).getId() == card.getId()) {
+                    cards.set(i, card);
+                    return;
+                }
+            }
+            return;
+        }
         
-        cardLayout.addView(headerLayout);
+        removeCard(card.getId());
         
-        // Card Details
-        if (card.getPhone() != null && !card.getPhone().isEmpty()) {
-            TextView phoneText = new TextView(this);
-            phoneText.setText("📞 " + card.getPhone());
-            phoneText.setTextSize(14);
-            phoneText.setTextColor(0xFF333333);
-            phoneText.setPadding(0, 5, 0, 0);
-            cardLayout.addView(phoneText);
+        int index = 0;
+        while (index < cards.size() && CardSummary.compareByName(cards.get(index), card) < 0) {
+            index++;
         }
-        
-        if (card.getEmail() != null && !card.getEmail().isEmpty()) {
-            TextView emailText = new TextView(this);
-            emailText.setText("✉️ " + card.getEmail());
-            emailText.setTextSize(14);
-            emailText.setTextColor(0xFF333333);
-            emailText.setPadding(0, 5, 0, 0);
-            cardLayout.addView(emailText);
+        if (index < cards.size() || !hasMoreCards) {
+            cards.add(index, card);
+        }
+    }
+    
+    // Patches the rows of the cards that were saved or deleted, here or on another
+    // screen. A change too large to patch row by row reloads the list instead.
+    private void onDataChanged(DataChange change) {
+        Set<Integer> ids = change.getIds(DataChange.CARDS);
+        if (ids == null || ids.size() > PAGE_SIZE) {
+            if (activeQuery != null) {
+                searchPipeline.submit(activeQuery);
+            } else {
+                loadCards();
+            }
+            return;
+        }
+        for (int id : ids) {
+            repository.getCard(id, card -> {
+                if (card != null) {
+                    placeCard(new CardSummary(card));
+                } else {
+                    removeCard(id);
+                }
+                showCards();
+            });
+        }
+    }
+    
+    private void removeCard(int id) {
+        for (int i = 0; i < cards.size(); i++) {
+            if (cards.get(i).getId() == id) {
+                cards.remove(i);
+                return;
+            }
         }
-        
-        cardsContainer.addView(cardLayout);
     }
     
     private void showAddCardDialog() {
         showCardDialog(null);
     }
     
-    private void showEditCardDialog(Card card) {
-        showCardDialog(card);
+    // The list only holds summaries, so load the full card before editing
+    private void showEditCardDialog(CardSummary summary) {
+        repository.getCard(summary.getId(), card -> {
+            if (card != null && !isFinishing()) {
+                showCardDialog(card);
+            }
+        });
     }
     
     private void showCardDialog(Card existingCard) {
@@ -235,7 +328,7 @@ public class CardsActivity extends AppCompatActivity {
         );
         genderAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
         genderSpinner.setAdapter(genderAdapter);
-        if (existingCard != null && existingCard.getGender().equals("female")) {
+        if (existingCard != null && "female".equals(existingCard.getGender())) {
             genderSpinner.setSelection(1);
         }
         layout.addView(genderSpinner);
@@ -283,11 +376,8 @@ public class CardsActivity extends AppCompatActivity {
                 return;
             }
             
+            // New cards get their code from the database when they are inserted
             Card card = existingCard != null ? existingCard : new Card();
-            if (existingCard == null) {
-                card.setCode(generateCardCode());
-            }
-            
             card.setName(name);
             card.setGender(genderSpinner.getSelectedItem().toString());
             card.setPhone(phoneInput.getText().toString().trim());
@@ -297,42 +387,55 @@ public class CardsActivity extends AppCompatActivity {
             card.setNotes(notesInput.getText().toString().trim());
             
             if (existingCard == null) {
-                dbHelper.addCard(card);
+                // The list is patched by onDataChanged once the card is stored
+                repository.addCard(card, id -> {
+                    if (id == -1) {
+                        android.widget.Toast.makeText(this, "Could not save card", android.widget.Toast.LENGTH_SHORT).show();
+                    }
+                });
             } else {
-                dbHelper.updateCard(card);
+                repository.updateCard(card, rows -> {
+                    if (rows == 0) {
+                        android.widget.Toast.makeText(this, "Could not save card", android.widget.Toast.LENGTH_SHORT).show();
+                    }
+                });
             }
-            
-            loadCards();
         });
         
         builder.setNegativeButton("Cancel", null);
         builder.show();
     }
     
-    private void confirmDelete(Card card) {
+    private void confirmDelete(CardSummary card) {
         new AlertDialog.Builder(this)
             .setTitle("Delete Card")
             .setMessage("Are you sure you want to delete " + card.getName() + "?")
             .setPositiveButton("Delete", (dialog, which) -> {
-                dbHelper.deleteCard(card);
-                loadCards();
+                repository.deleteCard(card.getId(), null);
             })
             .setNegativeButton("Cancel", null)
             .show();
     }
     
-    private String generateCardCode() {
-        String chars = "ABCDEFGHIJKLMNOPQRSTUVWXYZ";
-        Random random = new Random();
-        StringBuilder code = new StringBuilder();
-        for (int i = 0; i < 3; i++) {
-            code.append(chars.charAt(random.nextInt(chars.length())));
+    private void filterCards(String query) {
+        if (query.trim().isEmpty()) {
+            searchPipeline.cancel();
+            if (activeQuery != null) {
+                loadCards();
+            }
+            return;
         }
-        return code.toString();
+        
+        searchPipeline.submit(query);
     }
     
-    private void filterCards(String query) {
-        // Simple filter implementation - in real app you'd query database
-        loadCards();
+    private void showSearchResults(String query, List<CardSummary> results) {
+        activeQuery = query;
+        listGeneration++;
+        loadingPage = false;
+        hasMoreCards = false;
+        cards.clear();
+        cards.addAll(results);
+        showCards();
     }
 }
\ No newline at end of file
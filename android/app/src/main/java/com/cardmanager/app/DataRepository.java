@@ -0,0 +1,498 @@
+package com.cardmanager.app;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Runs every DatabaseHelper call off the main thread. Writes are serialized on a
+// single writer thread, reads share a small fixed pool, and callbacks are
+// delivered on the main thread. Each method also returns the Future of its task.
+// Change listeners hear which rows the writes touched.
+public class DataRepository {
+    
+    public interface StreamSource {
+        InputStream open() throws IOException;
+    }
+    
+    public interface StreamTarget {
+        OutputStream open() throws IOException;
+    }
+    
+    public interface Callback<T> {
+        void onResult(T result);
+        
+        // Failures are already logged; override to tell the user
+        default void onError(Exception e) {
+        }
+    }
+    
+    public interface ChangeListener {
+        void onChange(DataChange change);
+    }
+    
+    private static final String TAG = "DataRepository";
+    private static final int READER_THREADS = 3;
+    private static final int EXPORT_CHUNKS_PER_READ = 8;
+    private static final int CARD_CACHE_SIZE = 256;
+    
+    private static DataRepository instance;
+    
+    private final DatabaseHelper dbHelper;
+    private final BlobStore blobStore;
+    private final CardCache cardCache = new CardCache(CARD_CACHE_SIZE);
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(new NamedThreadFactory("db-writer"));
+    private final ExecutorService readers = Executors.newFixedThreadPool(READER_THREADS, new NamedThreadFactory("db-reader"));
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    
+    // Only touched on the main thread
+    private final List<ChangeListener> changeListeners = new ArrayList<>();
+    // Rows changed by the current writer task; only touched on the writer thread
+    private DataChange writeChange = new DataChange();
+    // Changes waiting for the main thread to deliver them; guarded by this
+    private DataChange unsentChange;
+    
+    public static synchronized DataRepository getInstance(Context context) {
+        if (instance == null) {
+            instance = new DataRepository(DatabaseHelper.getInstance(context), BlobStore.getInstance(context));
+            instance.runBackfills();
+        }
+        return instance;
+    }
+    
+    DataRepository(DatabaseHelper dbHelper, BlobStore blobStore) {
+        this.dbHelper = dbHelper;
+        this.blobStore = blobStore;
+    }
+    
+    public BlobStore getBlobStore() {
+        return blobStore;
+    }
+    
+    // Pool that read-only work such as search may share with the repository
+    public ExecutorService getReadExecutor() {
+        return readers;
+    }
+    
+    // Hit and miss counts show whether the cache is worth its size
+    CardCache getCardCache() {
+        return cardCache;
+    }
+    
+    // Call on the main thread, and remove the listener again in onDestroy
+    public void addChangeListener(ChangeListener listener) {
+        changeListeners.add(listener);
+    }
+    
+    public void removeChangeListener(ChangeListener listener) {
+        changeListeners.remove(listener);
+    }
+    
+    void shutdown() {
+        writer.shutdown();
+        readers.shutdown();
+    }
+    
+    // Cards
+    public Future<List<Card>> getAllCards(Callback<List<Card>> callback) {
+        return read(() -> dbHelper.getAllCards(), callback);
+    }
+    
+    public Future<List<CardSummary>> getCardsPage(String afterName, int afterId, int limit,
+                                                  Callback<List<CardSummary>> callback) {
+        return read(() -> dbHelper.getCardsPage(afterName, afterId, limit), callback);
+    }
+    
+    public Future<List<CardSummary>> searchCards(String query, int limit, Callback<List<CardSummary>> callback) {
+        return read(() -> dbHelper.searchCards(query, limit), callback);
+    }
+    
+    public Future<Card> getCard(int id, Callback<Card> callback) {
+        return read(() -> {
+            Card card = cardCache.get(id);
+            if (card == null) {
+                long version = cardCache.getVersion();
+                card = dbHelper.getCard(id);
+                cardCache.putIfUnchanged(card, version);
+            }
+            return card;
+        }, callback);
+    }
+    
+    public Future<List<CardSummary>> getCardSummaries(Collection<Integer> ids, Callback<List<CardSummary>> callback) {
+        return read(() -> dbHelper.getCardSummaries(ids), callback);
+    }
+    
+    // Writes go through to the card cache once the database has taken them
+    public Future<Long> addCard(Card card, Callback<Long> callback) {
+        return write(() -> {
+            long id = dbHelper.addCard(card);
+            if (id != -1) {
+                card.setId((int) id);
+                cardCache.put(card);
+                writeChange.add(DataChange.CARDS, (int) id);
+            }
+            return id;
+        }, callback);
+    }
+    
+    public Future<BatchResult> addCards(List<Card> cards, Callback<BatchResult> callback) {
+        return write(() -> cacheBatch(cards, dbHelper.addCards(cards)), callback);
+    }
+    
+    public Future<BatchResult> upsertCards(List<Card> cards, Callback<BatchResult> callback) {
+        return write(() -> cacheBatch(cards, dbHelper.upsertCards(cards)), callback);
+    }
+    
+    public Future<Integer> updateCard(Card card, Callback<Integer> callback) {
+        return write(() -> {
+            int rows = dbHelper.updateCard(card);
+            if (rows > 0) {
+                cardCache.put(card);
+                writeChange.add(DataChange.CARDS, card.getId());
+            } else {
+                cardCache.remove(card.getId());
+            }
+            return rows;
+        }, callback);
+    }
+    
+    public Future<Void> deleteCard(int id, Callback<Void> callback) {
+        return write(() -> {
+            List<MediaItem> media = dbHelper.getMediaForCards(Collections.singletonList(id)).get(id);
+            dbHelper.deleteCard(id);
+            cardCache.remove(id);
+            writeChange.add(DataChange.CARDS, id);
+            if (media != null) {
+                for (MediaItem item : media) {
+                    writeChange.add(DataChange.MEDIA, item.getId());
+                }
+            }
+            return null;
+        }, callback);
+    }
+    
+    private BatchResult cacheBatch(List<Card> cards, BatchResult result) {
+        boolean[] rejected = new boolean[cards.size()];
+        for (BatchResult.Conflict conflict : result.getConflicts()) {
+            rejected[conflict.getIndex()] = true;
+        }
+        for (int i = 0; i < cards.size(); i++) {
+            if (!rejected[i]) {
+                cardCache.put(cards.get(i));
+                writeChange.add(DataChange.CARDS, cards.get(i).getId());
+            }
+        }
+        return result;
+    }
+    
+    // Spreadsheets
+    public Future<List<SpreadsheetSummary>> getSpreadsheetSummaries(Callback<List<SpreadsheetSummary>> callback) {
+        return read(() -> dbHelper.getSpreadsheetSummaries(), callback);
+    }
+    
+    public Future<List<SpreadsheetSummary>> getSpreadsheetSummaries(Collection<Integer> ids,
+                                                                    Callback<List<SpreadsheetSummary>> callback) {
+        return read(() -> dbHelper.getSpreadsheetSummaries(ids), callback);
+    }
+    
+    public Future<Long> addExcelFile(String name, int rowCount, int columnCount, Callback<Long> callback) {
+        return write(() -> {
+            long id = dbHelper.addExcelFile(name, rowCount, columnCount);
+            if (id != -1) {
+                writeChange.add(DataChange.SPREADSHEETS, (int) id);
+            }
+            return id;
+        }, callback);
+    }
+    
+    // Runs on the writer so a sheet still waiting for its CSV import is converted first
+    public Future<Sheet> getSheet(int fileId, Callback<Sheet> callback) {
+        return write(() -> {
+            dbHelper.importCsvSheet(fileId);
+            return dbHelper.getSheet(fileId);
+        }, callback);
+    }
+    
+    // Like getSheet, but without cells: the caller streams them in with getSheetChunks
+    public Future<Sheet> getSheetHeader(int fileId, Callback<Sheet> callback) {
+        return write(() -> {
+            dbHelper.importCsvSheet(fileId);
+            return dbHelper.getSheetHeader(fileId);
+        }, callback);
+    }
+    
+    public Future<List<SheetChunk>> getSheetChunks(int fileId, int firstChunk, int lastChunk,
+                                                   Callback<List<SheetChunk>> callback) {
+        return read(() -> dbHelper.getSheetChunks(fileId, firstChunk, lastChunk), callback);
+    }
+    
+    public Future<Void> writeSheetChunks(int fileId, Collection<SheetChunk> chunks, int rowCount, int columnCount,
+                                         Callback<Void> callback) {
+        return write(() -> {
+            dbHelper.writeSheetChunks(fileId, chunks, rowCount, columnCount);
+            writeChange.add(DataChange.SPREADSHEETS, fileId);
+            return null;
+        }, callback);
+    }
+    
+    // Changes come from Sheet.takeChanges() on the main thread, which copies the edited chunks
+    public Future<Void> updateExcelFile(Sheet.Changes changes, Callback<Void> callback) {
+        return write(() -> {
+            dbHelper.updateExcelFile(changes);
+            writeChange.add(DataChange.SPREADSHEETS, changes.fileId);
+            return null;
+        }, callback);
+    }
+    
+    // Copies the workbook to a temporary file on a reader thread, since ZipFile needs
+    // random access, then imports it on the writer straight into sheet chunks
+    public void importXlsx(String name, StreamSource source, File tempDir, Callback<Long> callback) {
+        readers.execute(() -> {
+            File copy;
+            try {
+                copy = File.createTempFile("import", ".xlsx", tempDir);
+                try (InputStream in = source.open(); OutputStream out = new FileOutputStream(copy)) {
+                    byte[] buffer = new byte[64 * 1024];
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        out.write(buffer, 0, read);
+                    }
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Could not copy workbook", e);
+                if (callback != null) {
+                    mainHandler.post(() -> callback.onError(e));
+                }
+                return;
+            }
+            write(() -> {
+                try (XlsxReader reader = new XlsxReader(copy, tempDir)) {
+                    long id = dbHelper.importSheet(name, builder -> reader.read(builder::set));
+                    writeChange.add(DataChange.SPREADSHEETS, (int) id);
+                    return id;
+                } finally {
+                    copy.delete();
+                }
+            }, callback);
+        });
+    }
+    
+    // Converts a sheet still waiting for its CSV import on the writer first, like
+    // getSheetHeader, then streams it out a few chunks at a time, so only those are
+    // ever in memory
+    public Future<Void> exportXlsx(int fileId, String name, StreamTarget target, Callback<Void> callback) {
+        Future<Void> converted = write(() -> {
+            dbHelper.importCsvSheet(fileId);
+            return null;
+        }, null);
+        return read(() -> {
+            try {
+                converted.get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof Exception ? (Exception) cause : e;
+            }
+            // One transaction for the header and every batch, so a save cannot leave
+            // the workbook with a row count that disagrees with its chunks
+            boolean found = dbHelper.readSheet(fileId, header -> {
+                int lastChunk = Sheet.chunkOf(Math.max(header.getRowCount() - 1, 0));
+                // The stream is closed here too in case the writer fails before it owns it
+                try (OutputStream out = target.open()) {
+                    if (out == null) {
+                        throw new IOException("Could not open export target");
+                    }
+                    try (XlsxWriter writer = new XlsxWriter(out, name)) {
+                        for (int first = 0; first <= lastChunk; first += EXPORT_CHUNKS_PER_READ) {
+                            int last = first + EXPORT_CHUNKS_PER_READ - 1;
+                            for (SheetChunk chunk : dbHelper.getSheetChunks(fileId, first, last)) {
+                                for (int offset = 0; offset < Sheet.CHUNK_ROWS; offset++) {
+                                    String[] cells = chunk.getRow(offset);
+                                    if (cells.length > 0) {
+                                        writer.writeRow(chunk.getFirstRow() + offset, cells);
+                                    }
+                                }
+                            }
+                        }
+                    }
+                }
+            });
+            if (!found) {
+                throw new IOException("No spreadsheet " + fileId);
+            }
+            return null;
+        }, callback);
+    }
+    
+    // Media
+    public Future<List<CardSummary>> getGalleryCards(Callback<List<CardSummary>> callback) {
+        return read(() -> dbHelper.getAllCardSummaries(), callback);
+    }
+    
+    public Future<Map<Integer, List<MediaItem>>> getMediaForCards(List<Integer> cardIds,
+                                                                  Callback<Map<Integer, List<MediaItem>>> callback) {
+        return read(() -> dbHelper.getMediaForCards(cardIds), callback);
+    }
+    
+    // Copies the file into the blob store on a reader thread, then queues only the
+    // row insert on the writer so large videos never hold up other writes
+    public void addMedia(MediaItem item, StreamSource source, Callback<Long> callback) {
+        readers.execute(() -> {
+            try (InputStream in = source.open()) {
+                item.setHash(blobStore.put(in));
+            } catch (IOException e) {
+                Log.e(TAG, "Could not store media file", e);
+                if (callback != null) {
+                    mainHandler.post(() -> callback.onError(e));
+                }
+                return;
+            }
+            write(() -> {
+                long id = dbHelper.addMedia(item);
+                if (id != -1) {
+                    writeChange.add(DataChange.MEDIA, (int) id);
+                }
+                return id;
+            }, callback);
+        });
+    }
+    
+    public Future<Void> deleteMedia(int id, Callback<Void> callback) {
+        return write(() -> {
+            dbHelper.deleteMedia(id);
+            writeChange.add(DataChange.MEDIA, id);
+            return null;
+        }, callback);
+    }
+    
+    // Starts the pending backfills. Each batch is its own writer task, so user writes
+    // queue behind at most one batch instead of the whole migration, and reads run
+    // alongside it on their own connections.
+    void runBackfills() {
+        for (Backfill backfill : dbHelper.getBackfills(blobStore)) {
+            runBackfill(backfill);
+        }
+    }
+    
+    private void runBackfill(Backfill backfill) {
+        writer.execute(() -> {
+            try {
+                int position = dbHelper.getBackfillPosition(backfill.name);
+                if (position == -1) {
+                    return;
+                }
+                int lastId = backfill.batch.run(position);
+                if (backfill.table != null) {
+                    // Backfills rewrite rows behind the cache's back
+                    cardCache.clear();
+                    writeChange.addTable(backfill.table);
+                }
+                dbHelper.setBackfillPosition(backfill.name, lastId);
+                if (lastId != -1) {
+                    runBackfill(backfill);
+                }
+            } catch (Exception e) {
+                // Left where it stopped; the next start tries again
+                Log.e(TAG, "Backfill " + backfill.name + " stopped", e);
+            } finally {
+                publishChanges();
+            }
+        });
+    }
+    
+    private <T> Future<T> read(Callable<T> task, Callback<T> callback) {
+        return submit(readers, task, callback);
+    }
+    
+    private <T> Future<T> write(Callable<T> task, Callback<T> callback) {
+        return submit(writer, () -> {
+            try {
+                return task.call();
+            } finally {
+                publishChanges();
+            }
+        }, callback);
+    }
+    
+    // Every writer task commits before it returns, so its changes are published
+    // after its transaction. Tasks that finish before the main thread gets to the
+    // last batch are merged into it, so a burst of writes is delivered once.
+    private void publishChanges() {
+        if (writeChange.isEmpty()) {
+            return;
+        }
+        DataChange change = writeChange;
+        writeChange = new DataChange();
+        synchronized (this) {
+            if (unsentChange != null) {
+                unsentChange.addAll(change);
+                return;
+            }
+            unsentChange = change;
+        }
+        mainHandler.post(this::deliverChanges);
+    }
+    
+    private void deliverChanges() {
+        DataChange change;
+        synchronized (this) {
+            change = unsentChange;
+            unsentChange = null;
+        }
+        for (ChangeListener listener : new ArrayList<>(changeListeners)) {
+            listener.onChange(change);
+        }
+    }
+    
+    private <T> Future<T> submit(ExecutorService executor, Callable<T> task, Callback<T> callback) {
+        return executor.submit(() -> {
+            try {
+                T result = task.call();
+                if (callback != null) {
+                    mainHandler.post(() -> callback.onResult(result));
+                }
+                return result;
+            } catch (Exception e) {
+                Log.e(TAG, "Database task failed", e);
+                if (callback != null) {
+                    mainHandler.post(() -> callback.onError(e));
+                }
+                throw e;
+            }
+        });
+    }
+    
+    static class NamedThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger();
+        
+        NamedThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+        
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return new Thread(() -> {
+                android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_BACKGROUND);
+                runnable.run();
+            }, prefix + "-" + count.incrementAndGet());
+        }
+    }
+}
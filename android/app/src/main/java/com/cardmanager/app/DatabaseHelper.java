@@ -3,37 +3,49 @@ package com.cardmanager.app;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteConstraintException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.CancellationSignal;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
 
 public class DatabaseHelper extends SQLiteOpenHelper {
     
     private static final String DATABASE_NAME = "CardManager.db";
-    private static final int DATABASE_VERSION = 1;
-    
-    // Cards Table
-    private static final String TABLE_CARDS = "cards";
-    private static final String CARD_ID = "id";
-    private static final String CARD_CODE = "code";
-    private static final String CARD_NAME = "name";
-    private static final String CARD_GENDER = "gender";
-    private static final String CARD_PHONE = "phone";
-    private static final String CARD_EMAIL = "email";
-    private static final String CARD_ADDRESS = "address";
-    private static final String CARD_PHOTO = "photo";
-    private static final String CARD_ID_FRONT = "id_front";
-    private static final String CARD_ID_BACK = "id_back";
-    private static final String CARD_NOTES = "notes";
-    private static final String CARD_BIRTHDAY = "birthday";
+    private static final int DATABASE_VERSION = 7;
     
     // Excel Files Table
     private static final String TABLE_EXCEL = "excel_files";
     private static final String EXCEL_ID = "id";
     private static final String EXCEL_NAME = "name";
+    // Legacy CSV text of the whole sheet, emptied by importCsvSheets()
     private static final String EXCEL_DATA = "data";
     private static final String EXCEL_CREATED = "created_date";
+    private static final String EXCEL_ROW_COUNT = "row_count";
+    private static final String EXCEL_COLUMN_COUNT = "column_count";
+    
+    // Sheet Chunks Table: the cells of Sheet.CHUNK_ROWS rows per row, encoded by SheetChunk
+    private static final String TABLE_SHEET_CHUNKS = "sheet_chunks";
+    private static final String CHUNK_FILE_ID = "file_id";
+    private static final String CHUNK_INDEX = "chunk";
+    private static final String CHUNK_CELLS = "cells";
     
     // Media Table
     private static final String TABLE_MEDIA = "media";
@@ -41,40 +53,107 @@ public class DatabaseHelper extends SQLiteOpenHelper {
     private static final String MEDIA_CARD_ID = "card_id";
     private static final String MEDIA_NAME = "name";
     private static final String MEDIA_TYPE = "type";
+    // Holds the BlobStore hash of the file
     private static final String MEDIA_DATA = "data";
     private static final String MEDIA_CREATED = "created_date";
+    private static final int MEDIA_CARD_BATCH = 500;
+    
+    private static final String SQL_DELETE_CARD_MEDIA = "DELETE FROM " + TABLE_MEDIA
+            + " WHERE " + MEDIA_CARD_ID + " = ?";
+    private static final String SQL_CREATE_MEDIA_CARD_INDEX = "CREATE INDEX IF NOT EXISTS idx_media_card_id ON "
+            + TABLE_MEDIA + "(" + MEDIA_CARD_ID + ")";
+    
+    private static final String SQL_CREATE_SHEET_CHUNKS = "CREATE TABLE IF NOT EXISTS " + TABLE_SHEET_CHUNKS + "("
+            + CHUNK_FILE_ID + " INTEGER NOT NULL,"
+            + CHUNK_INDEX + " INTEGER NOT NULL,"
+            + CHUNK_CELLS + " BLOB NOT NULL,"
+            + "PRIMARY KEY(" + CHUNK_FILE_ID + ", " + CHUNK_INDEX + ")"
+            + ") WITHOUT ROWID";
+    private static final String SQL_REPLACE_SHEET_CHUNK = "INSERT OR REPLACE INTO " + TABLE_SHEET_CHUNKS + "("
+            + CHUNK_FILE_ID + "," + CHUNK_INDEX + "," + CHUNK_CELLS + ") VALUES (?,?,?)";
+    private static final String SQL_DELETE_SHEET_CHUNK = "DELETE FROM " + TABLE_SHEET_CHUNKS
+            + " WHERE " + CHUNK_FILE_ID + " = ? AND " + CHUNK_INDEX + " = ?";
+    private static final String SQL_DELETE_SHEET_CHUNKS = "DELETE FROM " + TABLE_SHEET_CHUNKS
+            + " WHERE " + CHUNK_FILE_ID + " = ?";
+    private static final String SQL_UPDATE_SHEET_SIZE = "UPDATE " + TABLE_EXCEL + " SET "
+            + EXCEL_ROW_COUNT + " = ?," + EXCEL_COLUMN_COUNT + " = ?"
+            + " WHERE " + EXCEL_ID + " = ?";
+    
+    // Backfills Table: how far each Backfill has got; -1 once it is done
+    private static final String TABLE_BACKFILLS = "backfills";
+    private static final String BACKFILL_NAME = "name";
+    private static final String BACKFILL_POSITION = "position";
+    
+    static final String BACKFILL_INLINE_IMAGES = "inline_images";
+    static final String BACKFILL_CSV_SHEETS = "csv_sheets";
+    private static final String[] BACKFILLS = {BACKFILL_INLINE_IMAGES, BACKFILL_CSV_SHEETS};
+    // Legacy CSV text is read in pieces this size, well inside a CursorWindow
+    private static final int CSV_PIECE_BYTES = 256 * 1024;
+    private static final String SQL_SELECT_CSV_PIECE = "SELECT substr(CAST(" + EXCEL_DATA + " AS BLOB), ?, "
+            + CSV_PIECE_BYTES + ") FROM " + TABLE_EXCEL + " WHERE " + EXCEL_ID + " = ?";
+    private static final int IMAGE_BACKFILL_BATCH = 20;
+    // Not a migration: rows that may have dropped the last reference to a blob set
+    // it back to 0, and the next start deletes the blobs nothing refers to
+    static final String BACKFILL_BLOB_GARBAGE = "blob_garbage";
+    // Blobs stored this recently are kept, as their row may still be queued behind the collection
+    private static final long BLOB_GARBAGE_GRACE_MS = 60 * 60 * 1000;
+    
+    private static final String SQL_CREATE_BACKFILLS = "CREATE TABLE IF NOT EXISTS " + TABLE_BACKFILLS + "("
+            + BACKFILL_NAME + " TEXT PRIMARY KEY,"
+            + BACKFILL_POSITION + " INTEGER NOT NULL"
+            + ") WITHOUT ROWID";
+    private static final String SQL_SELECT_BACKFILL_POSITION = "SELECT " + BACKFILL_POSITION
+            + " FROM " + TABLE_BACKFILLS + " WHERE " + BACKFILL_NAME + " = ?";
+    private static final String SQL_REPLACE_BACKFILL_POSITION = "INSERT OR REPLACE INTO " + TABLE_BACKFILLS + "("
+            + BACKFILL_NAME + "," + BACKFILL_POSITION + ") VALUES (?,?)";
+    
+    private static DatabaseHelper instance;
     
-    public DatabaseHelper(Context context) {
+    // Statements stay compiled for as long as the connection is open
+    private final Map<String, SQLiteStatement> statementCache = new HashMap<>();
+    // Loaded from the cards table on the first insert
+    private CardCodeAllocator codeAllocator;
+    private final QueryMetrics metrics = new QueryMetrics();
+    
+    public static synchronized DatabaseHelper getInstance(Context context) {
+        if (instance == null) {
+            instance = new DatabaseHelper(context.getApplicationContext());
+        }
+        return instance;
+    }
+    
+    // Drops the shared helper so tests can start from a fresh context
+    static synchronized void resetInstance() {
+        if (instance != null) {
+            instance.close();
+            instance = null;
+        }
+    }
+    
+    private DatabaseHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        // Readers get their own connections and no longer wait for the writer
+        setWriteAheadLoggingEnabled(true);
     }
     
     @Override
     public void onCreate(SQLiteDatabase db) {
         // Create Cards Table
-        String createCardsTable = "CREATE TABLE " + TABLE_CARDS + "("
-                + CARD_ID + " INTEGER PRIMARY KEY AUTOINCREMENT,"
-                + CARD_CODE + " TEXT UNIQUE,"
-                + CARD_NAME + " TEXT,"
-                + CARD_GENDER + " TEXT,"
-                + CARD_PHONE + " TEXT,"
-                + CARD_EMAIL + " TEXT,"
-                + CARD_ADDRESS + " TEXT,"
-                + CARD_PHOTO + " TEXT,"
-                + CARD_ID_FRONT + " TEXT,"
-                + CARD_ID_BACK + " TEXT,"
-                + CARD_NOTES + " TEXT,"
-                + CARD_BIRTHDAY + " TEXT"
-                + ")";
-        db.execSQL(createCardsTable);
+        db.execSQL(CardSchema.SQL_CREATE_CARDS);
+        db.execSQL(CardSchema.SQL_CREATE_CARD_NAME_INDEX);
+        createCardSearchIndex(db);
         
         // Create Excel Files Table
         String createExcelTable = "CREATE TABLE " + TABLE_EXCEL + "("
                 + EXCEL_ID + " INTEGER PRIMARY KEY AUTOINCREMENT,"
                 + EXCEL_NAME + " TEXT,"
                 + EXCEL_DATA + " TEXT,"
-                + EXCEL_CREATED + " INTEGER"
+                + EXCEL_CREATED + " INTEGER,"
+                + EXCEL_ROW_COUNT + " INTEGER NOT NULL DEFAULT 0,"
+                + EXCEL_COLUMN_COUNT + " INTEGER NOT NULL DEFAULT 0"
                 + ")";
         db.execSQL(createExcelTable);
+        db.execSQL(SQL_CREATE_SHEET_CHUNKS);
         
         // Create Media Table
         String createMediaTable = "CREATE TABLE " + TABLE_MEDIA + "("
@@ -84,137 +163,955 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                 + MEDIA_TYPE + " TEXT,"
                 + MEDIA_DATA + " TEXT,"
                 + MEDIA_CREATED + " INTEGER,"
-                + "FOREIGN KEY(" + MEDIA_CARD_ID + ") REFERENCES " + TABLE_CARDS + "(" + CARD_ID + ")"
+                + "FOREIGN KEY(" + MEDIA_CARD_ID + ") REFERENCES "
+                + CardSchema.TABLE_CARDS + "(" + CardSchema.CARD_ID + ")"
                 + ")";
         db.execSQL(createMediaTable);
+        db.execSQL(SQL_CREATE_MEDIA_CARD_INDEX);
+        
+        // A new database has no legacy data to backfill
+        db.execSQL(SQL_CREATE_BACKFILLS);
+        for (String backfill : BACKFILLS) {
+            db.execSQL(SQL_REPLACE_BACKFILL_POSITION, new Object[]{backfill, -1});
+        }
     }
     
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE_CARDS);
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE_EXCEL);
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE_MEDIA);
-        onCreate(db);
+        // Upgrade step by step so existing cards and spreadsheets are kept
+        if (oldVersion < 2) {
+            db.execSQL(CardSchema.SQL_CREATE_CARD_NAME_INDEX);
+        }
+        if (oldVersion < 3) {
+            createCardSearchIndex(db);
+            db.execSQL(CardSchema.SQL_REBUILD_CARDS_FTS);
+        }
+        if (oldVersion < 4) {
+            // Existing inline images are moved out later by migrateInlineImages()
+            for (String column : CardSchema.IMAGE_HASH_COLUMNS) {
+                db.execSQL("ALTER TABLE " + CardSchema.TABLE_CARDS + " ADD COLUMN " + column + " TEXT");
+            }
+        }
+        if (oldVersion < 5) {
+            db.execSQL(SQL_CREATE_MEDIA_CARD_INDEX);
+        }
+        if (oldVersion < 6) {
+            // Existing CSV text is converted to chunks later by importCsvSheets()
+            db.execSQL("ALTER TABLE " + TABLE_EXCEL + " ADD COLUMN " + EXCEL_ROW_COUNT + " INTEGER NOT NULL DEFAULT 0");
+            db.execSQL("ALTER TABLE " + TABLE_EXCEL + " ADD COLUMN " + EXCEL_COLUMN_COUNT + " INTEGER NOT NULL DEFAULT 0");
+            db.execSQL(SQL_CREATE_SHEET_CHUNKS);
+        }
+        if (oldVersion < 7) {
+            // Without rows here, the image and CSV backfills start from the beginning
+            db.execSQL(SQL_CREATE_BACKFILLS);
+        }
+    }
+    
+    private static void createCardSearchIndex(SQLiteDatabase db) {
+        db.execSQL(CardSchema.SQL_CREATE_CARDS_FTS);
+        for (String trigger : CardSchema.SQL_CREATE_CARDS_FTS_TRIGGERS) {
+            db.execSQL(trigger);
+        }
+    }
+    
+    @Override
+    public synchronized void close() {
+        for (SQLiteStatement statement : statementCache.values()) {
+            statement.close();
+        }
+        statementCache.clear();
+        super.close();
+    }
+    
+    // Returns a cached compiled statement with its bindings cleared. Callers must
+    // hold the helper's lock since SQLiteStatement is not thread-safe.
+    private SQLiteStatement getStatement(String sql) {
+        SQLiteStatement statement = statementCache.get(sql);
+        if (statement == null) {
+            statement = getWritableDatabase().compileStatement(sql);
+            statementCache.put(sql, statement);
+        }
+        statement.clearBindings();
+        return statement;
+    }
+    
+    // Timing, rows and bytes of every operation, for the debug screen
+    QueryMetrics getQueryMetrics() {
+        return metrics;
+    }
+    
+    // Runs a query whose cursor reports to the metrics when it is closed
+    private Cursor query(String operation, SQLiteDatabase db, String sql, String[] args) {
+        return query(operation, db, sql, args, null);
+    }
+    
+    private Cursor query(String operation, SQLiteDatabase db, String sql, String[] args, CancellationSignal signal) {
+        long start = System.nanoTime();
+        return new TimedCursor(db.rawQuery(sql, args, signal), metrics, db, operation, sql, args, start);
+    }
+    
+    // Records a write or a single-value lookup that began at start
+    private void record(String operation, long start, int rows) {
+        metrics.record(operation, null, System.nanoTime() - start, rows, 0, null);
+    }
+    
+    private static void bindText(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+    
+    private static void bindCard(SQLiteStatement statement, Card card) {
+        bindText(statement, 1, card.getCode());
+        bindText(statement, 2, card.getName());
+        bindText(statement, 3, card.getGender());
+        bindText(statement, 4, card.getPhone());
+        bindText(statement, 5, card.getEmail());
+        bindText(statement, 6, card.getAddress());
+        bindText(statement, 7, card.getPhoto());
+        bindText(statement, 8, card.getIdFront());
+        bindText(statement, 9, card.getIdBack());
+        bindText(statement, 10, card.getNotes());
+        bindText(statement, 11, card.getBirthday());
     }
     
     // Card CRUD Operations
-    public long addCard(Card card) {
-        SQLiteDatabase db = this.getWritableDatabase();
-        ContentValues values = new ContentValues();
-        
-        values.put(CARD_CODE, card.getCode());
-        values.put(CARD_NAME, card.getName());
-        values.put(CARD_GENDER, card.getGender());
-        values.put(CARD_PHONE, card.getPhone());
-        values.put(CARD_EMAIL, card.getEmail());
-        values.put(CARD_ADDRESS, card.getAddress());
-        values.put(CARD_PHOTO, card.getPhoto());
-        values.put(CARD_ID_FRONT, card.getIdFront());
-        values.put(CARD_ID_BACK, card.getIdBack());
-        values.put(CARD_NOTES, card.getNotes());
-        values.put(CARD_BIRTHDAY, card.getBirthday());
-        
-        long id = db.insert(TABLE_CARDS, null, values);
-        db.close();
-        return id;
+    // A card without a code is given a free one
+    public synchronized long addCard(Card card) {
+        long start = System.nanoTime();
+        assignCode(card);
+        SQLiteStatement statement = getStatement(CardSchema.SQL_INSERT_CARD);
+        bindCard(statement, card);
+        try {
+            return statement.executeInsert();
+        } catch (SQLiteConstraintException e) {
+            return -1;
+        } finally {
+            record("addCard", start, 1);
+        }
     }
     
     public List<Card> getAllCards() {
         List<Card> cardList = new ArrayList<>();
-        String selectQuery = "SELECT * FROM " + TABLE_CARDS + " ORDER BY " + CARD_NAME;
+        SQLiteDatabase db = this.getReadableDatabase();
+        Cursor cursor = query("getAllCards", db, CardSchema.SQL_SELECT_ALL_CARDS, null);
         
-        SQLiteDatabase db = this.getWritableDatabase();
-        Cursor cursor = db.rawQuery(selectQuery, null);
-        
-        if (cursor.moveToFirst()) {
-            do {
-                Card card = new Card();
-                card.setId(cursor.getInt(0));
-                card.setCode(cursor.getString(1));
-                card.setName(cursor.getString(2));
-                card.setGender(cursor.getString(3));
-                card.setPhone(cursor.getString(4));
-                card.setEmail(cursor.getString(5));
-                card.setAddress(cursor.getString(6));
-                card.setPhoto(cursor.getString(7));
-                card.setIdFront(cursor.getString(8));
-                card.setIdBack(cursor.getString(9));
-                card.setNotes(cursor.getString(10));
-                card.setBirthday(cursor.getString(11));
-                
-                cardList.add(card);
-            } while (cursor.moveToNext());
+        try {
+            while (cursor.moveToNext()) {
+                cardList.add(readCard(cursor));
+            }
+        } finally {
+            cursor.close();
+        }
+        return cardList;
+    }
+    
+    // Returns up to limit card summaries ordered by (name, id), starting after the given
+    // position. Pass afterName = null and afterId = 0 for the first page; each following
+    // page continues from the name and id of the last card returned.
+    public List<CardSummary> getCardsPage(String afterName, int afterId, int limit) {
+        String selectQuery;
+        String[] args;
+        
+        if (afterName != null) {
+            selectQuery = CardSchema.SQL_SELECT_PAGE_AFTER_NAME;
+            args = new String[]{afterName, afterName, String.valueOf(afterId), String.valueOf(limit)};
+        } else if (afterId > 0) {
+            selectQuery = CardSchema.SQL_SELECT_PAGE_AFTER_UNNAMED;
+            args = new String[]{String.valueOf(afterId), String.valueOf(limit)};
+        } else {
+            selectQuery = CardSchema.SQL_SELECT_FIRST_PAGE;
+            args = new String[]{String.valueOf(limit)};
+        }
+        return querySummaries("getCardsPage", selectQuery, args);
+    }
+    
+    public List<CardSummary> getAllCardSummaries() {
+        return querySummaries("getAllCardSummaries", CardSchema.SQL_SELECT_ALL_SUMMARIES, null);
+    }
+    
+    // The summaries of the given cards in no particular order; deleted cards are left out
+    public List<CardSummary> getCardSummaries(Collection<Integer> ids) {
+        return querySummaries("getCardSummaries", CardSchema.SQL_SELECT_SUMMARIES_BY_ID + "(" + joinIds(ids) + ")",
+                null);
+    }
+    
+    // Loads every column of one card, for the edit dialog and other detail views
+    public Card getCard(int id) {
+        SQLiteDatabase db = this.getReadableDatabase();
+        Cursor cursor = query("getCard", db, CardSchema.SQL_SELECT_CARD, new String[]{String.valueOf(id)});
+        try {
+            return cursor.moveToFirst() ? readCard(cursor) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+    
+    private List<CardSummary> querySummaries(String operation, String selectQuery, String[] args) {
+        List<CardSummary> summaries = new ArrayList<>();
+        SQLiteDatabase db = this.getReadableDatabase();
+        Cursor cursor = query(operation, db, selectQuery, args);
+        
+        try {
+            while (cursor.moveToNext()) {
+                summaries.add(readSummary(cursor));
+            }
+        } finally {
+            cursor.close();
+        }
+        return summaries;
+    }
+    
+    // Ranked prefix search over name, code, phone, email, address and notes.
+    // Accents and case are ignored, so "jose" finds "José".
+    public List<CardSummary> searchCards(String query, int limit) {
+        return searchCards(query, limit, null);
+    }
+    
+    // Throws OperationCanceledException once the signal is cancelled
+    public List<CardSummary> searchCards(String query, int limit, CancellationSignal signal) {
+        List<CardSummary> cardList = new ArrayList<>();
+        String match = CardSchema.buildMatchExpression(query);
+        if (match == null || limit <= 0) {
+            return cardList;
+        }
+        
+        SQLiteDatabase db = this.getReadableDatabase();
+        
+        // Score every match from its hit counts alone, keeping the best `limit` ids
+        PriorityQueue<ScoredId> best = new PriorityQueue<>(limit + 1);
+        Cursor cursor = query("searchCards", db, CardSchema.SQL_SEARCH_MATCHES, new String[]{match}, signal);
+        try {
+            while (cursor.moveToNext()) {
+                best.add(new ScoredId(cursor.getInt(0), CardSchema.score(cursor.getBlob(1))));
+                if (best.size() > limit) {
+                    best.poll();
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        if (best.isEmpty()) {
+            return cardList;
         }
         
-        cursor.close();
-        db.close();
+        // Then load only the winning rows, highest score first
+        ScoredId[] ranked = new ScoredId[best.size()];
+        for (int i = ranked.length - 1; i >= 0; i--) {
+            ranked[i] = best.poll();
+        }
+        Map<Integer, CardSummary> byId = new HashMap<>();
+        cursor = query("searchCards.load", db, CardSchema.SQL_SELECT_SUMMARIES_BY_ID + "(" + joinIds(ranked) + ")",
+                null, signal);
+        try {
+            while (cursor.moveToNext()) {
+                CardSummary card = readSummary(cursor);
+                byId.put(card.getId(), card);
+            }
+        } finally {
+            cursor.close();
+        }
+        for (ScoredId scored : ranked) {
+            CardSummary card = byId.get(scored.id);
+            if (card != null) {
+                cardList.add(card);
+            }
+        }
         return cardList;
     }
     
-    public int updateCard(Card card) {
-        SQLiteDatabase db = this.getWritableDatabase();
+    private static String joinIds(ScoredId[] ids) {
+        StringBuilder joined = new StringBuilder();
+        for (ScoredId scored : ids) {
+            if (joined.length() > 0) joined.append(',');
+            joined.append(scored.id);
+        }
+        return joined.toString();
+    }
+    
+    private static String joinIds(Collection<Integer> ids) {
+        StringBuilder joined = new StringBuilder();
+        for (int id : ids) {
+            if (joined.length() > 0) joined.append(',');
+            joined.append(id);
+        }
+        return joined.toString();
+    }
+    
+    private static class ScoredId implements Comparable<ScoredId> {
+        final int id;
+        final double score;
         
-        ContentValues values = new ContentValues();
-        values.put(CARD_CODE, card.getCode());
-        values.put(CARD_NAME, card.getName());
-        values.put(CARD_GENDER, card.getGender());
-        values.put(CARD_PHONE, card.getPhone());
-        values.put(CARD_EMAIL, card.getEmail());
-        values.put(CARD_ADDRESS, card.getAddress());
-        values.put(CARD_PHOTO, card.getPhoto());
-        values.put(CARD_ID_FRONT, card.getIdFront());
-        values.put(CARD_ID_BACK, card.getIdBack());
-        values.put(CARD_NOTES, card.getNotes());
-        values.put(CARD_BIRTHDAY, card.getBirthday());
-        
-        int rowsAffected = db.update(TABLE_CARDS, values, CARD_ID + " = ?",
-                new String[]{String.valueOf(card.getId())});
-        db.close();
-        return rowsAffected;
+        ScoredId(int id, double score) {
+            this.id = id;
+            this.score = score;
+        }
+        
+        @Override
+        public int compareTo(ScoredId other) {
+            return Double.compare(score, other.score);
+        }
+    }
+    
+    private static CardSummary readSummary(Cursor cursor) {
+        return new CardSummary(cursor.getInt(0), cursor.getString(1), cursor.getString(2),
+                cursor.getString(3), cursor.getString(4), cursor.getString(5),
+                cursor.getString(6), cursor.getString(7), cursor.getString(8));
+    }
+    
+    private static Card readCard(Cursor cursor) {
+        Card card = new Card();
+        card.setId(cursor.getInt(0));
+        card.setCode(cursor.getString(1));
+        card.setName(cursor.getString(2));
+        card.setGender(cursor.getString(3));
+        card.setPhone(cursor.getString(4));
+        card.setEmail(cursor.getString(5));
+        card.setAddress(cursor.getString(6));
+        card.setPhoto(cursor.getString(7));
+        card.setIdFront(cursor.getString(8));
+        card.setIdBack(cursor.getString(9));
+        card.setNotes(cursor.getString(10));
+        card.setBirthday(cursor.getString(11));
+        return card;
+    }
+    
+    public synchronized int updateCard(Card card) {
+        long start = System.nanoTime();
+        codeAllocator().markUsed(card.getCode());
+        SQLiteStatement statement = getStatement(CardSchema.SQL_UPDATE_CARD);
+        bindCard(statement, card);
+        statement.bindLong(12, card.getId());
+        try {
+            int rows = statement.executeUpdateDelete();
+            if (rows > 0) {
+                // The update may have replaced one of the card's images
+                scheduleBlobGarbage();
+            }
+            return rows;
+        } catch (SQLiteConstraintException e) {
+            return 0;
+        } finally {
+            record("updateCard", start, 1);
+        }
     }
     
     public void deleteCard(Card card) {
+        deleteCard(card.getId());
+    }
+    
+    // Also removes the card's media rows; their blobs are left for collectBlobGarbage()
+    public synchronized void deleteCard(int id) {
+        long start = System.nanoTime();
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransactionNonExclusive();
+        try {
+            SQLiteStatement deleteMedia = getStatement(SQL_DELETE_CARD_MEDIA);
+            deleteMedia.bindLong(1, id);
+            deleteMedia.executeUpdateDelete();
+            
+            SQLiteStatement deleteCard = getStatement(CardSchema.SQL_DELETE_CARD);
+            deleteCard.bindLong(1, id);
+            deleteCard.executeUpdateDelete();
+            scheduleBlobGarbage();
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            record("deleteCard", start, 1);
+        }
+    }
+    
+    // Bulk Card Operations
+    public synchronized BatchResult addCards(List<Card> cards) {
+        return writeCards(cards, false);
+    }
+    
+    // Inserts new cards and overwrites existing ones that share the same code
+    public synchronized BatchResult upsertCards(List<Card> cards) {
+        return writeCards(cards, true);
+    }
+    
+    private BatchResult writeCards(List<Card> cards, boolean upsert) {
+        long start = System.nanoTime();
+        BatchResult result = new BatchResult();
+        SQLiteDatabase db = getWritableDatabase();
+        SQLiteStatement insert = getStatement(CardSchema.SQL_INSERT_CARD);
+        SQLiteStatement update = getStatement(CardSchema.SQL_UPDATE_CARD);
+        SQLiteStatement selectId = getStatement(CardSchema.SQL_SELECT_CARD_ID_BY_CODE);
+        
+        db.beginTransactionNonExclusive();
+        try {
+            for (int i = 0; i < cards.size(); i++) {
+                Card card = cards.get(i);
+                assignCode(card);
+                try {
+                    long existingId = upsert ? findCardId(selectId, card.getCode()) : -1;
+                    if (existingId != -1) {
+                        bindCard(update, card);
+                        update.bindLong(12, existingId);
+                        update.executeUpdateDelete();
+                        card.setId((int) existingId);
+                        result.addUpdated();
+                    } else {
+                        bindCard(insert, card);
+                        card.setId((int) insert.executeInsert());
+                        result.addInserted();
+                    }
+                } catch (SQLiteConstraintException e) {
+                    // Only the failing statement is rolled back; the batch carries on
+                    result.addConflict(i, card.getCode(), e.getMessage());
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            record(upsert ? "upsertCards" : "addCards", start, cards.size());
+        }
+        return result;
+    }
+    
+    private void assignCode(Card card) {
+        String code = card.getCode();
+        if (code == null || code.isEmpty()) {
+            card.setCode(codeAllocator().allocate());
+        } else {
+            codeAllocator().markUsed(code);
+        }
+    }
+    
+    private CardCodeAllocator codeAllocator() {
+        if (codeAllocator == null) {
+            CardCodeAllocator allocator = new CardCodeAllocator();
+            // Answered from the code column's unique index alone
+            Cursor cursor = query("loadCardCodes", getWritableDatabase(), CardSchema.SQL_SELECT_CARD_CODES, null);
+            try {
+                while (cursor.moveToNext()) {
+                    allocator.markUsed(cursor.getString(0));
+                }
+            } finally {
+                cursor.close();
+            }
+            codeAllocator = allocator;
+        }
+        return codeAllocator;
+    }
+    
+    private static long findCardId(SQLiteStatement selectId, String code) {
+        if (code == null) {
+            return -1;
+        }
+        selectId.bindString(1, code);
+        try {
+            return selectId.simpleQueryForLong();
+        } catch (SQLiteDoneException e) {
+            return -1;
+        }
+    }
+    
+    // Backfills
+    // Data migrations left by onUpgrade, in the order DataRepository should run them
+    List<Backfill> getBackfills(BlobStore blobStore) {
+        List<Backfill> backfills = new ArrayList<>();
+        backfills.add(new Backfill(BACKFILL_INLINE_IMAGES, DataChange.CARDS,
+                afterId -> migrateInlineImages(blobStore, afterId, IMAGE_BACKFILL_BATCH)));
+        backfills.add(new Backfill(BACKFILL_CSV_SHEETS, DataChange.SPREADSHEETS, this::importCsvSheets));
+        backfills.add(new Backfill(BACKFILL_BLOB_GARBAGE, null, afterId -> collectBlobGarbage(blobStore)));
+        return backfills;
+    }
+    
+    // The id the backfill stopped after: 0 if it never ran, -1 once it is done
+    public synchronized int getBackfillPosition(String name) {
+        long start = System.nanoTime();
+        SQLiteStatement statement = getStatement(SQL_SELECT_BACKFILL_POSITION);
+        statement.bindString(1, name);
+        try {
+            return (int) statement.simpleQueryForLong();
+        } catch (SQLiteDoneException e) {
+            return 0;
+        } finally {
+            record("getBackfillPosition", start, 1);
+        }
+    }
+    
+    public synchronized void setBackfillPosition(String name, int position) {
+        long start = System.nanoTime();
+        SQLiteStatement statement = getStatement(SQL_REPLACE_BACKFILL_POSITION);
+        statement.bindString(1, name);
+        statement.bindLong(2, position);
+        statement.executeInsert();
+        record("setBackfillPosition", start, 1);
+    }
+    
+    // Blob Garbage
+    // Deletes the blobs no card or media row refers to. Returns -1, as one pass is complete.
+    int collectBlobGarbage(BlobStore blobStore) {
+        StringBuilder sql = new StringBuilder();
+        for (String column : CardSchema.IMAGE_HASH_COLUMNS) {
+            sql.append("SELECT ").append(column).append(" FROM ").append(CardSchema.TABLE_CARDS).append(" UNION ");
+        }
+        sql.append("SELECT ").append(MEDIA_DATA).append(" FROM ").append(TABLE_MEDIA);
+        
+        Set<String> live = new HashSet<>();
+        Cursor cursor = query("findLiveBlobs", getReadableDatabase(), sql.toString(), null);
+        try {
+            while (cursor.moveToNext()) {
+                if (!cursor.isNull(0)) {
+                    live.add(cursor.getString(0));
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        blobStore.collectGarbage(live, System.currentTimeMillis() - BLOB_GARBAGE_GRACE_MS);
+        return -1;
+    }
+    
+    // Called by every write that can drop the last reference to a blob
+    private synchronized void scheduleBlobGarbage() {
+        setBackfillPosition(BACKFILL_BLOB_GARBAGE, 0);
+    }
+    
+    // Inline Image Migration
+    // Moves the inline images of up to batchSize cards with an id above afterId into the
+    // blob store. Returns the last card id handled, or -1 when no inline images are left.
+    // Each batch is read, copied and updated in one transaction under the helper's lock,
+    // so no card write can land between reading a card and clearing its inline images.
+    // Batches commit on their own, so other writes can run between them.
+    public synchronized int migrateInlineImages(BlobStore blobStore, int afterId, int batchSize)
+            throws IOException {
+        long start = System.nanoTime();
+        SQLiteDatabase db = getWritableDatabase();
+        String[] inlineColumns = CardSchema.INLINE_IMAGE_COLUMNS;
+        String[] hashColumns = CardSchema.IMAGE_HASH_COLUMNS;
+        List<int[]> rows = new ArrayList<>();
+        
+        db.beginTransactionNonExclusive();
+        try {
+            Cursor cursor = query("findInlineImages", db, CardSchema.SQL_SELECT_INLINE_IMAGES,
+                    new String[]{String.valueOf(afterId), String.valueOf(batchSize)});
+            try {
+                while (cursor.moveToNext()) {
+                    rows.add(new int[]{cursor.getInt(0), cursor.getInt(1), cursor.getInt(2), cursor.getInt(3)});
+                }
+            } finally {
+                cursor.close();
+            }
+            if (rows.isEmpty()) {
+                return -1;
+            }
+            
+            // A batch rolled back after its images were copied just finds the blobs stored on retry
+            for (int[] row : rows) {
+                ContentValues values = new ContentValues();
+                for (int i = 0; i < inlineColumns.length; i++) {
+                    if (row[i + 1] == 1) {
+                        try (InputStream in = InlineImageStream.open(db, CardSchema.TABLE_CARDS, inlineColumns[i],
+                                CardSchema.CARD_ID, row[0])) {
+                            values.put(hashColumns[i], blobStore.put(in));
+                        }
+                    }
+                    values.putNull(inlineColumns[i]);
+                }
+                db.update(CardSchema.TABLE_CARDS, values, CardSchema.CARD_ID + " = ?",
+                        new String[]{String.valueOf(row[0])});
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            record("migrateInlineImages", start, rows.size());
+        }
+        return rows.get(rows.size() - 1)[0];
+    }
+    
+    // Media CRUD Operations
+    public long addMedia(MediaItem item) {
+        long start = System.nanoTime();
+        SQLiteDatabase db = this.getWritableDatabase();
+        ContentValues values = new ContentValues();
+        
+        values.put(MEDIA_CARD_ID, item.getCardId());
+        values.put(MEDIA_NAME, item.getName());
+        values.put(MEDIA_TYPE, item.getType());
+        values.put(MEDIA_DATA, item.getHash());
+        values.put(MEDIA_CREATED, item.getCreatedDate());
+        
+        try {
+            return db.insert(TABLE_MEDIA, null, values);
+        } finally {
+            record("addMedia", start, 1);
+        }
+    }
+    
+    public void deleteMedia(int id) {
+        long start = System.nanoTime();
         SQLiteDatabase db = this.getWritableDatabase();
-        db.delete(TABLE_CARDS, CARD_ID + " = ?",
-                new String[]{String.valueOf(card.getId())});
-        db.close();
+        int rows = db.delete(TABLE_MEDIA, MEDIA_ID + " = ?", new String[]{String.valueOf(id)});
+        if (rows > 0) {
+            scheduleBlobGarbage();
+        }
+        record("deleteMedia", start, rows);
+    }
+    
+    // Media metadata for many cards, grouped by card id in creation order. Ids are bound
+    // MEDIA_CARD_BATCH at a time, which stays under SQLite's limit on bound parameters
+    // (999 before 3.32) and keeps each statement short whatever the number of cards.
+    public Map<Integer, List<MediaItem>> getMediaForCards(List<Integer> cardIds) {
+        Map<Integer, List<MediaItem>> mediaByCard = new HashMap<>();
+        SQLiteDatabase db = this.getReadableDatabase();
+        for (int from = 0; from < cardIds.size(); from += MEDIA_CARD_BATCH) {
+            List<Integer> batch = cardIds.subList(from, Math.min(from + MEDIA_CARD_BATCH, cardIds.size()));
+            StringBuilder placeholders = new StringBuilder();
+            String[] args = new String[batch.size()];
+            for (int i = 0; i < args.length; i++) {
+                placeholders.append(i > 0 ? ",?" : "?");
+                args[i] = String.valueOf(batch.get(i));
+            }
+            String selectQuery = "SELECT " + MEDIA_ID + ", " + MEDIA_CARD_ID + ", " + MEDIA_NAME + ", "
+                    + MEDIA_TYPE + ", " + MEDIA_DATA + ", " + MEDIA_CREATED + " FROM " + TABLE_MEDIA
+                    + " WHERE " + MEDIA_CARD_ID + " IN (" + placeholders + ")"
+                    + " ORDER BY " + MEDIA_CARD_ID + ", " + MEDIA_CREATED + ", " + MEDIA_ID;
+            
+            Cursor cursor = query("getMediaForCards", db, selectQuery, args);
+            try {
+                while (cursor.moveToNext()) {
+                    MediaItem item = new MediaItem();
+                    item.setId(cursor.getInt(0));
+                    item.setCardId(cursor.getInt(1));
+                    item.setName(cursor.getString(2));
+                    item.setType(cursor.getString(3));
+                    item.setHash(cursor.getString(4));
+                    item.setCreatedDate(cursor.getLong(5));
+                    
+                    List<MediaItem> items = mediaByCard.get(item.getCardId());
+                    if (items == null) {
+                        items = new ArrayList<>();
+                        mediaByCard.put(item.getCardId(), items);
+                    }
+                    items.add(item);
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return mediaByCard;
     }
     
     // Excel CRUD Operations
-    public long addExcelFile(String name, String data) {
+    // Creates an empty sheet; empty cells take no storage, so only the size is saved
+    public long addExcelFile(String name, int rowCount, int columnCount) {
+        long start = System.nanoTime();
         SQLiteDatabase db = this.getWritableDatabase();
         ContentValues values = new ContentValues();
         
         values.put(EXCEL_NAME, name);
-        values.put(EXCEL_DATA, data);
         values.put(EXCEL_CREATED, System.currentTimeMillis());
+        values.put(EXCEL_ROW_COUNT, rowCount);
+        values.put(EXCEL_COLUMN_COUNT, columnCount);
         
-        long id = db.insert(TABLE_EXCEL, null, values);
-        db.close();
-        return id;
+        try {
+            return db.insert(TABLE_EXCEL, null, values);
+        } finally {
+            record("addExcelFile", start, 1);
+        }
+    }
+    
+    // Lists the spreadsheets without reading any cell data. The size comes from the
+    // lengths of the stored chunks, which SQLite reads without loading the blobs;
+    // a sheet still waiting for its CSV import counts its legacy text instead.
+    public List<SpreadsheetSummary> getSpreadsheetSummaries() {
+        return querySpreadsheetSummaries("getSpreadsheetSummaries", "");
+    }
+    
+    // The summaries of the given sheets in no particular order; deleted sheets are left out
+    public List<SpreadsheetSummary> getSpreadsheetSummaries(Collection<Integer> ids) {
+        return querySpreadsheetSummaries("getSpreadsheetSummariesById",
+                " WHERE e." + EXCEL_ID + " IN (" + joinIds(ids) + ")");
     }
     
-    public List<ExcelFile> getAllExcelFiles() {
-        List<ExcelFile> fileList = new ArrayList<>();
-        String selectQuery = "SELECT * FROM " + TABLE_EXCEL + " ORDER BY " + EXCEL_CREATED + " DESC";
+    private List<SpreadsheetSummary> querySpreadsheetSummaries(String operation, String where) {
+        List<SpreadsheetSummary> summaries = new ArrayList<>();
+        String selectQuery = "SELECT e." + EXCEL_ID + ", e." + EXCEL_NAME + ", e." + EXCEL_CREATED + ", e."
+                + EXCEL_ROW_COUNT + ", e." + EXCEL_COLUMN_COUNT + ","
+                + " IFNULL(length(e." + EXCEL_DATA + "), 0) + (SELECT IFNULL(SUM(length(" + CHUNK_CELLS + ")), 0)"
+                + " FROM " + TABLE_SHEET_CHUNKS + " WHERE " + CHUNK_FILE_ID + " = e." + EXCEL_ID + ")"
+                + " FROM " + TABLE_EXCEL + " e" + where
+                + " ORDER BY e." + EXCEL_CREATED + " DESC, e." + EXCEL_ID + " DESC";
         
-        SQLiteDatabase db = this.getWritableDatabase();
-        Cursor cursor = db.rawQuery(selectQuery, null);
+        SQLiteDatabase db = this.getReadableDatabase();
+        Cursor cursor = query(operation, db, selectQuery, null);
         
-        if (cursor.moveToFirst()) {
-            do {
-                ExcelFile file = new ExcelFile();
-                file.setId(cursor.getInt(0));
-                file.setName(cursor.getString(1));
-                file.setData(cursor.getString(2));
-                file.setCreatedDate(cursor.getLong(3));
-                
-                fileList.add(file);
-            } while (cursor.moveToNext());
+        try {
+            while (cursor.moveToNext()) {
+                summaries.add(new SpreadsheetSummary(cursor.getInt(0), cursor.getString(1), cursor.getLong(2),
+                        cursor.getInt(3), cursor.getInt(4), cursor.getLong(5)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return summaries;
+    }
+    
+    // Sheet Cell Operations
+    // Loads the size of a sheet and all of its stored chunks, or null if it does not exist
+    public Sheet getSheet(int fileId) {
+        Sheet sheet = getSheetHeader(fileId);
+        if (sheet == null) {
+            return null;
+        }
+        for (SheetChunk chunk : getSheetChunks(fileId, 0, Integer.MAX_VALUE)) {
+            sheet.addChunk(chunk);
+        }
+        sheet.setLoadedChunks(Integer.MAX_VALUE);
+        return sheet;
+    }
+    
+    // The sheet with its size only; its chunks are loaded with getSheetChunks
+    public Sheet getSheetHeader(int fileId) {
+        SQLiteDatabase db = this.getReadableDatabase();
+        Sheet sheet;
+        Cursor cursor = query("getSheetHeader", db, "SELECT " + EXCEL_ROW_COUNT + ", " + EXCEL_COLUMN_COUNT
+                + " FROM " + TABLE_EXCEL + " WHERE " + EXCEL_ID + " = ?", new String[]{String.valueOf(fileId)});
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            sheet = new Sheet(fileId, cursor.getInt(0), cursor.getInt(1));
+        } finally {
+            cursor.close();
+        }
+        sheet.setLoadedChunks(0);
+        return sheet;
+    }
+    
+    // The stored chunks with an index in [firstChunk, lastChunk]; chunks without cells are not stored
+    public List<SheetChunk> getSheetChunks(int fileId, int firstChunk, int lastChunk) {
+        List<SheetChunk> chunks = new ArrayList<>();
+        SQLiteDatabase db = this.getReadableDatabase();
+        Cursor cursor = query("getSheetChunks", db, "SELECT " + CHUNK_INDEX + ", " + CHUNK_CELLS
+                + " FROM " + TABLE_SHEET_CHUNKS + " WHERE " + CHUNK_FILE_ID + " = ? AND " + CHUNK_INDEX + " BETWEEN ? AND ?"
+                + " ORDER BY " + CHUNK_INDEX,
+                new String[]{String.valueOf(fileId), String.valueOf(firstChunk), String.valueOf(lastChunk)});
+        try {
+            while (cursor.moveToNext()) {
+                chunks.add(SheetChunk.decode(cursor.getInt(0), cursor.getBlob(1)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return chunks;
+    }
+    
+    interface SheetReader {
+        // Called with the sheet size; reads the chunks it needs with getSheetChunks
+        void read(Sheet header) throws IOException;
+    }
+    
+    // Runs the reader in one transaction, so the header and every getSheetChunks call
+    // it makes see the same save. The transaction holds the primary connection, so
+    // writes wait until it ends. Returns false if there is no such sheet.
+    public boolean readSheet(int fileId, SheetReader reader) throws IOException {
+        SQLiteDatabase db = getReadableDatabase();
+        db.beginTransactionNonExclusive();
+        try {
+            Sheet header = getSheetHeader(fileId);
+            if (header == null) {
+                return false;
+            }
+            reader.read(header);
+            db.setTransactionSuccessful();
+            return true;
+        } finally {
+            db.endTransaction();
+        }
+    }
+    
+    // Replaces the given chunks and the sheet size in one transaction; other chunks are untouched
+    public synchronized void writeSheetChunks(int fileId, Collection<SheetChunk> chunks, int rowCount, int columnCount) {
+        long start = System.nanoTime();
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransactionNonExclusive();
+        try {
+            for (SheetChunk chunk : chunks) {
+                storeChunk(fileId, chunk);
+            }
+            updateSheetSize(fileId, rowCount, columnCount);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            record("writeSheetChunks", start, chunks.size());
+        }
+    }
+    
+    // Saves the edits of an open sheet in one transaction. Only the chunks holding
+    // changed rows are rewritten, so a one-cell edit costs the same on any sheet.
+    public synchronized void updateExcelFile(Sheet.Changes changes) {
+        long start = System.nanoTime();
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransactionNonExclusive();
+        try {
+            if (changes.replaceAll) {
+                SQLiteStatement deleteChunks = getStatement(SQL_DELETE_SHEET_CHUNKS);
+                deleteChunks.bindLong(1, changes.fileId);
+                deleteChunks.executeUpdateDelete();
+            }
+            writeSheetChunks(changes.fileId, changes.chunks, changes.rowCount, changes.columnCount);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            record("updateExcelFile", start, changes.chunks.size());
+        }
+    }
+    
+    private void updateSheetSize(int fileId, int rowCount, int columnCount) {
+        SQLiteStatement updateSize = getStatement(SQL_UPDATE_SHEET_SIZE);
+        updateSize.bindLong(1, rowCount);
+        updateSize.bindLong(2, columnCount);
+        updateSize.bindLong(3, fileId);
+        updateSize.executeUpdateDelete();
+    }
+    
+    private void storeChunk(int fileId, SheetChunk chunk) {
+        SQLiteStatement statement = getStatement(chunk.isEmpty() ? SQL_DELETE_SHEET_CHUNK : SQL_REPLACE_SHEET_CHUNK);
+        statement.bindLong(1, fileId);
+        statement.bindLong(2, chunk.getIndex());
+        if (!chunk.isEmpty()) {
+            statement.bindBlob(3, chunk.encode());
+        }
+        statement.execute();
+    }
+    
+    // Spreadsheet CSV Import
+    // Converts the CSV text of the first sheet with an id above afterId into chunks.
+    // Returns the id of that sheet, or -1 when no CSV text is left.
+    public synchronized int importCsvSheets(int afterId) throws IOException {
+        SQLiteDatabase db = getWritableDatabase();
+        int fileId;
+        Cursor cursor = query("findCsvSheet", db, "SELECT " + EXCEL_ID + " FROM " + TABLE_EXCEL
+                + " WHERE " + EXCEL_ID + " > ? AND " + EXCEL_DATA + " IS NOT NULL"
+                + " ORDER BY " + EXCEL_ID + " LIMIT 1", new String[]{String.valueOf(afterId)});
+        try {
+            if (!cursor.moveToFirst()) {
+                return -1;
+            }
+            fileId = cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+        importCsvSheet(fileId);
+        return fileId;
+    }
+    
+    // Converts one sheet if it still has CSV text. The sheet is imported in its own
+    // transaction and its text is cleared in the same one.
+    public synchronized void importCsvSheet(int fileId) throws IOException {
+        long start = System.nanoTime();
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransactionNonExclusive();
+        try {
+            if (DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM " + TABLE_EXCEL + " WHERE " + EXCEL_ID
+                    + " = ? AND " + EXCEL_DATA + " IS NOT NULL", new String[]{String.valueOf(fileId)}) == 0) {
+                return;
+            }
+            convertCsvSheet(db, fileId);
+            ContentValues values = new ContentValues();
+            values.putNull(EXCEL_DATA);
+            db.update(TABLE_EXCEL, values, EXCEL_ID + " = ?", new String[]{String.valueOf(fileId)});
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            record("importCsvSheet", start, 1);
+        }
+    }
+    
+    // Legacy only: sheets saved before chunked storage kept their whole CSV text in
+    // one column, and each is converted once. Large sheets hold more text than a
+    // CursorWindow, so it is read as bytes in CSV_PIECE_BYTES pieces; a UTF-8 sequence
+    // or a row cut by a piece boundary is carried into the next one. Rows are passed
+    // on as they complete and chunks are stored as soon as they fill. The old editor
+    // split rows on '\n' and cells on ',' with no quoting, so the text is split the
+    // same way rather than by CsvTokenizer.
+    private void convertCsvSheet(SQLiteDatabase db, int fileId) throws IOException {
+        SheetBuilder builder = new SheetBuilder(chunk -> storeChunk(fileId, chunk));
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        // Room for a piece plus the few bytes of a sequence carried from the last one
+        ByteBuffer bytes = ByteBuffer.allocate(CSV_PIECE_BYTES + 4);
+        CharBuffer chars = CharBuffer.allocate(CSV_PIECE_BYTES + 4);
+        StringBuilder line = new StringBuilder();
+        int row = 0;
+        long offset = 1;
+        boolean finished = false;
+        while (!finished) {
+            byte[] piece = null;
+            Cursor cursor = query("readCsvSheet", db, SQL_SELECT_CSV_PIECE,
+                    new String[]{String.valueOf(offset), String.valueOf(fileId)});
+            try {
+                if (cursor.moveToFirst()) {
+                    piece = cursor.getBlob(0);
+                }
+            } finally {
+                cursor.close();
+            }
+            finished = piece == null || piece.length == 0;
+            if (!finished) {
+                offset += piece.length;
+                bytes.put(piece);
+            }
+            
+            bytes.flip();
+            decoder.decode(bytes, chars, finished);
+            if (finished) {
+                decoder.flush(chars);
+            }
+            bytes.compact();
+            chars.flip();
+            while (chars.hasRemaining()) {
+                char c = chars.get();
+                if (c == '\n') {
+                    builder.setRow(row++, line.toString().split(",", -1));
+                    line.setLength(0);
+                } else {
+                    line.append(c);
+                }
+            }
+            chars.clear();
+        }
+        // Text ending in '\n' has no empty row after it
+        if (line.length() > 0) {
+            builder.setRow(row, line.toString().split(",", -1));
+        }
+        builder.finish();
+        updateSheetSize(fileId, builder.getRowCount(), builder.getColumnCount());
+    }
+    
+    // Spreadsheet Import
+    interface SheetSource {
+        // Passes every cell to the builder in row order
+        void read(SheetBuilder builder) throws IOException;
+    }
+    
+    // Creates a sheet from an imported file. Chunks are stored as the source fills
+    // them, all in one transaction, so a failed import leaves no partial sheet.
+    public synchronized long importSheet(String name, SheetSource source) throws IOException {
+        long start = System.nanoTime();
+        int rows = 0;
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransactionNonExclusive();
+        try {
+            int fileId = (int) addExcelFile(name, 0, 0);
+            SheetBuilder builder = new SheetBuilder(chunk -> storeChunk(fileId, chunk));
+            source.read(builder);
+            builder.finish();
+            rows = builder.getRowCount();
+            updateSheetSize(fileId, rows, builder.getColumnCount());
+            db.setTransactionSuccessful();
+            return fileId;
+        } finally {
+            db.endTransaction();
+            record("importSheet", start, rows);
         }
-        
-        cursor.close();
-        db.close();
-        return fileList;
     }
-}
\ No newline at end of file
+}
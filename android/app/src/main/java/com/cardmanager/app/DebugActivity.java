@@ -0,0 +1,128 @@
+package com.cardmanager.app;
+
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.graphics.Typeface;
+import android.os.Bundle;
+import android.text.InputType;
+import android.widget.Button;
+import android.widget.EditText;
+import android.widget.LinearLayout;
+import android.widget.ScrollView;
+import android.widget.TextView;
+import android.widget.Toast;
+import androidx.appcompat.app.AppCompatActivity;
+
+// Hidden screen, opened by long-pressing the title on the main screen. Shows the
+// timing of every database operation and the slow-query log, and sends both as
+// JSON so a user can attach them to a report.
+public class DebugActivity extends AppCompatActivity {
+    
+    private static final String PREFS_NAME = "CardManagerPrefs";
+    static final String KEY_SLOW_QUERY_MS = "slow_query_ms";
+    
+    private QueryMetrics metrics;
+    private CardCache cardCache;
+    private TextView reportView;
+    
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        
+        metrics = DatabaseHelper.getInstance(this).getQueryMetrics();
+        cardCache = DataRepository.getInstance(this).getCardCache();
+        setupLayout();
+        showReport();
+    }
+    
+    private void setupLayout() {
+        LinearLayout mainLayout = new LinearLayout(this);
+        mainLayout.setOrientation(LinearLayout.VERTICAL);
+        mainLayout.setPadding(20, 20, 20, 20);
+        mainLayout.setBackgroundColor(0xFFFFFFFF);
+        
+        TextView title = new TextView(this);
+        title.setText("Database Diagnostics");
+        title.setTextSize(22);
+        title.setTextColor(0xFF333333);
+        title.setTypeface(null, Typeface.BOLD);
+        title.setPadding(0, 0, 0, 20);
+        mainLayout.addView(title);
+        
+        // Slow threshold
+        LinearLayout thresholdRow = new LinearLayout(this);
+        thresholdRow.setOrientation(LinearLayout.HORIZONTAL);
+        TextView thresholdLabel = new TextView(this);
+        thresholdLabel.setText("Slow query threshold (ms): ");
+        thresholdRow.addView(thresholdLabel);
+        EditText thresholdInput = new EditText(this);
+        thresholdInput.setInputType(InputType.TYPE_CLASS_NUMBER);
+        thresholdInput.setText(String.valueOf(metrics.getSlowThresholdMillis()));
+        thresholdRow.addView(thresholdInput, new LinearLayout.LayoutParams(0,
+                LinearLayout.LayoutParams.WRAP_CONTENT, 1.0f));
+        Button applyBtn = new Button(this);
+        applyBtn.setText("Set");
+        applyBtn.setOnClickListener(v -> setThreshold(thresholdInput.getText().toString()));
+        thresholdRow.addView(applyBtn);
+        mainLayout.addView(thresholdRow);
+        
+        // Actions
+        LinearLayout buttonRow = new LinearLayout(this);
+        buttonRow.setOrientation(LinearLayout.HORIZONTAL);
+        Button refreshBtn = new Button(this);
+        refreshBtn.setText("Refresh");
+        refreshBtn.setOnClickListener(v -> showReport());
+        buttonRow.addView(refreshBtn);
+        Button exportBtn = new Button(this);
+        exportBtn.setText("Export JSON");
+        exportBtn.setOnClickListener(v -> exportJson());
+        buttonRow.addView(exportBtn);
+        Button resetBtn = new Button(this);
+        resetBtn.setText("Reset");
+        resetBtn.setOnClickListener(v -> {
+            metrics.reset();
+            showReport();
+        });
+        buttonRow.addView(resetBtn);
+        mainLayout.addView(buttonRow);
+        
+        ScrollView scrollView = new ScrollView(this);
+        reportView = new TextView(this);
+        reportView.setTypeface(Typeface.MONOSPACE);
+        reportView.setTextSize(11);
+        reportView.setTextColor(0xFF333333);
+        reportView.setTextIsSelectable(true);
+        scrollView.addView(reportView);
+        mainLayout.addView(scrollView, new LinearLayout.LayoutParams(
+                LinearLayout.LayoutParams.MATCH_PARENT, 0, 1.0f));
+        
+        setContentView(mainLayout);
+    }
+    
+    private void showReport() {
+        reportView.setText("Card cache: " + cardCache.getHitCount() + " hits, " + cardCache.getMissCount()
+                + " misses, " + cardCache.size() + " cached\n\n" + metrics.report());
+    }
+    
+    private void setThreshold(String text) {
+        long millis;
+        try {
+            millis = Long.parseLong(text.trim());
+        } catch (NumberFormatException e) {
+            Toast.makeText(this, "Enter a number of milliseconds", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        metrics.setSlowThresholdMillis(millis);
+        SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
+        prefs.edit().putLong(KEY_SLOW_QUERY_MS, millis).apply();
+        showReport();
+    }
+    
+    private void exportJson() {
+        Intent send = new Intent(Intent.ACTION_SEND);
+        send.setType("application/json");
+        send.putExtra(Intent.EXTRA_SUBJECT, "Card Manager database metrics");
+        send.putExtra(Intent.EXTRA_TEXT, metrics.toJson());
+        startActivity(Intent.createChooser(send, "Export metrics"));
+    }
+}
@@ -1,7 +1,12 @@
 package com.cardmanager.app;
 
 import android.app.AlertDialog;
+import android.content.ContentResolver;
+import android.content.Intent;
+import android.database.Cursor;
+import android.net.Uri;
 import android.os.Bundle;
+import android.provider.OpenableColumns;
 import android.view.View;
 import android.widget.Button;
 import android.widget.EditText;
@@ -9,20 +14,43 @@ import android.widget.LinearLayout;
 import android.widget.ScrollView;
 import android.widget.TextView;
 import androidx.appcompat.app.AppCompatActivity;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 public class ExcelActivity extends AppCompatActivity {
     
-    private DatabaseHelper dbHelper;
+    // Chunks requested per read while a sheet streams into the editor
+    private static final int CHUNKS_PER_LOAD = 8;
+    private static final int REQUEST_IMPORT_XLSX = 300;
+    private static final int REQUEST_EXPORT_XLSX = 301;
+    private static final String XLSX_TYPE = "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet";
+    // Changes to more sheets than this reload the list instead of patching it
+    private static final int PATCH_LIMIT = 50;
+    
+    private DataRepository repository;
     private LinearLayout filesContainer;
+    // The sheets shown, newest first; while there are any, child i of filesContainer shows sheet i
+    private final List<SpreadsheetSummary> files = new ArrayList<>();
+    // The sheet waiting for the user to pick where its export goes
+    private SpreadsheetSummary pendingExport;
+    private final DataRepository.ChangeListener changeListener = this::onDataChanged;
     
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         
-        dbHelper = new DatabaseHelper(this);
+        repository = DataRepository.getInstance(this);
         setupExcelLayout();
         loadExcelFiles();
+        repository.addChangeListener(changeListener);
+    }
+    
+    @Override
+    protected void onDestroy() {
+        repository.removeChangeListener(changeListener);
+        super.onDestroy();
     }
     
     private void setupExcelLayout() {
@@ -75,6 +103,22 @@ public class ExcelActivity extends AppCompatActivity {
         createBtn.setLayoutParams(createBtnParams);
         mainLayout.addView(createBtn);
         
+        // Import Button
+        Button importBtn = new Button(this);
+        importBtn.setText("Import .xlsx");
+        importBtn.setTextSize(16);
+        importBtn.setTextColor(0xFF333333);
+        importBtn.setBackgroundColor(0xFFF0F8FF);
+        importBtn.setPadding(20, 15, 20, 15);
+        importBtn.setOnClickListener(v -> {
+            Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+            intent.addCategory(Intent.CATEGORY_OPENABLE);
+            intent.setType(XLSX_TYPE);
+            startActivityForResult(intent, REQUEST_IMPORT_XLSX);
+        });
+        importBtn.setLayoutParams(new LinearLayout.LayoutParams(createBtnParams));
+        mainLayout.addView(importBtn);
+        
         // Files Container (Scrollable)
         ScrollView scrollView = new ScrollView(this);
         filesContainer = new LinearLayout(this);
@@ -91,8 +135,62 @@ public class ExcelActivity extends AppCompatActivity {
     }
     
     private void loadExcelFiles() {
+        repository.getSpreadsheetSummaries(loaded -> {
+            files.clear();
+            files.addAll(loaded);
+            showExcelFiles();
+        });
+    }
+    
+    // Replaces only the rows of the sheets that were saved, imported or created. A
+    // change without ids, or to many sheets, reloads the list instead.
+    private void onDataChanged(DataChange change) {
+        if (!change.contains(DataChange.SPREADSHEETS)) {
+            return;
+        }
+        Set<Integer> ids = change.getIds(DataChange.SPREADSHEETS);
+        if (ids == null || ids.size() > PATCH_LIMIT) {
+            loadExcelFiles();
+            return;
+        }
+        List<Integer> patched = new ArrayList<>(ids);
+        repository.getSpreadsheetSummaries(patched, changed -> patchExcelFiles(new HashSet<>(patched), changed));
+    }
+    
+    private void patchExcelFiles(Set<Integer> ids, List<SpreadsheetSummary> changed) {
+        // The empty message is the only child while there are no sheets
+        boolean wasEmpty = files.isEmpty();
+        for (int i = files.size() - 1; i >= 0; i--) {
+            if (ids.contains(files.get(i).getId())) {
+                files.remove(i);
+                if (!wasEmpty) {
+                    filesContainer.removeViewAt(i);
+                }
+            }
+        }
+        for (SpreadsheetSummary file : changed) {
+            int index = 0;
+            while (index < files.size() && compareFiles(files.get(index), file) < 0) {
+                index++;
+            }
+            files.add(index, file);
+            if (!wasEmpty) {
+                filesContainer.addView(newFileView(file), index);
+            }
+        }
+        if (wasEmpty || files.isEmpty()) {
+            showExcelFiles();
+        }
+    }
+    
+    // Same order as the list query: newest first, then by id
+    private static int compareFiles(SpreadsheetSummary a, SpreadsheetSummary b) {
+        int byDate = Long.compare(b.getCreatedDate(), a.getCreatedDate());
+        return byDate != 0 ? byDate : Integer.compare(b.getId(), a.getId());
+    }
+    
+    private void showExcelFiles() {
         filesContainer.removeAllViews();
-        List<ExcelFile> files = dbHelper.getAllExcelFiles();
         
         if (files.isEmpty()) {
             TextView emptyMsg = new TextView(this);
@@ -105,12 +203,12 @@ public class ExcelActivity extends AppCompatActivity {
             return;
         }
         
-        for (ExcelFile file : files) {
-            addFileView(file);
+        for (SpreadsheetSummary file : files) {
+            filesContainer.addView(newFileView(file));
         }
     }
     
-    private void addFileView(ExcelFile file) {
+    private View newFileView(SpreadsheetSummary file) {
         LinearLayout fileLayout = new LinearLayout(this);
         fileLayout.setOrientation(LinearLayout.VERTICAL);
         fileLayout.setPadding(20, 15, 20, 15);
@@ -145,20 +243,91 @@ public class ExcelActivity extends AppCompatActivity {
         editBtn.setTextColor(0xFF333333);
         editBtn.setBackgroundColor(0xFFFFFFFF);
         editBtn.setPadding(15, 5, 15, 5);
-        editBtn.setOnClickListener(v -> showSpreadsheetEditor(file));
+        editBtn.setOnClickListener(v -> openSpreadsheet(file));
         headerLayout.addView(editBtn);
         
+        // Export Button
+        Button exportBtn = new Button(this);
+        exportBtn.setText("Export");
+        exportBtn.setTextSize(12);
+        exportBtn.setTextColor(0xFF333333);
+        exportBtn.setBackgroundColor(0xFFFFFFFF);
+        exportBtn.setPadding(15, 5, 15, 5);
+        exportBtn.setOnClickListener(v -> {
+            pendingExport = file;
+            Intent intent = new Intent(Intent.ACTION_CREATE_DOCUMENT);
+            intent.addCategory(Intent.CATEGORY_OPENABLE);
+            intent.setType(XLSX_TYPE);
+            intent.putExtra(Intent.EXTRA_TITLE, file.getName() + ".xlsx");
+            startActivityForResult(intent, REQUEST_EXPORT_XLSX);
+        });
+        headerLayout.addView(exportBtn);
+        
         fileLayout.addView(headerLayout);
         
         // File Date
         TextView dateText = new TextView(this);
-        dateText.setText("Created: " + new java.text.SimpleDateFormat("yyyy-MM-dd HH:mm", java.util.Locale.getDefault()).format(new java.util.Date(file.getCreatedDate())));
+        dateText.setText("Created: " + new java.text.SimpleDateFormat("yyyy-MM-dd HH:mm", java.util.Locale.getDefault()).format(new java.util.Date(file.getCreatedDate()))
+                + " · " + file.getRowCount() + " × " + file.getColumnCount()
+                + " · " + android.text.format.Formatter.formatShortFileSize(this, file.getSize()));
         dateText.setTextSize(12);
         dateText.setTextColor(0xFF666666);
         dateText.setPadding(0, 5, 0, 0);
         fileLayout.addView(dateText);
         
-        filesContainer.addView(fileLayout);
+        return fileLayout;
+    }
+    
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        
+        Uri uri = data != null ? data.getData() : null;
+        if (resultCode != RESULT_OK || uri == null) {
+            return;
+        }
+        ContentResolver resolver = getApplicationContext().getContentResolver();
+        
+        if (requestCode == REQUEST_IMPORT_XLSX) {
+            android.widget.Toast.makeText(this, "Importing…", android.widget.Toast.LENGTH_SHORT).show();
+            repository.importXlsx(displayName(uri), () -> resolver.openInputStream(uri), getCacheDir(),
+                    new DataRepository.Callback<Long>() {
+                public void onResult(Long id) {
+                    // The change listener lists the new sheet
+                }
+                public void onError(Exception e) {
+                    android.widget.Toast.makeText(ExcelActivity.this, "Could not import workbook", android.widget.Toast.LENGTH_SHORT).show();
+                }
+            });
+        } else if (requestCode == REQUEST_EXPORT_XLSX && pendingExport != null) {
+            SpreadsheetSummary file = pendingExport;
+            pendingExport = null;
+            repository.exportXlsx(file.getId(), file.getName(), () -> resolver.openOutputStream(uri),
+                    new DataRepository.Callback<Void>() {
+                public void onResult(Void result) {
+                    android.widget.Toast.makeText(ExcelActivity.this, "Exported " + file.getName(), android.widget.Toast.LENGTH_SHORT).show();
+                }
+                public void onError(Exception e) {
+                    android.widget.Toast.makeText(ExcelActivity.this, "Could not export spreadsheet", android.widget.Toast.LENGTH_SHORT).show();
+                }
+            });
+        }
+    }
+    
+    // The picked file's name without its extension, as the new sheet's name
+    private String displayName(Uri uri) {
+        String name = null;
+        try (Cursor cursor = getContentResolver().query(uri, new String[]{OpenableColumns.DISPLAY_NAME},
+                null, null, null)) {
+            if (cursor != null && cursor.moveToFirst()) {
+                name = cursor.getString(0);
+            }
+        }
+        if (name == null || name.isEmpty()) {
+            return "Imported";
+        }
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
     }
     
     private void showCreateFileDialog() {
@@ -177,25 +346,212 @@ public class ExcelActivity extends AppCompatActivity {
                 return;
             }
             
-            // Create empty spreadsheet data (5x10 grid)
-            StringBuilder data = new StringBuilder();
-            for (int row = 0; row < 10; row++) {
-                for (int col = 0; col < 5; col++) {
-                    data.append("");
-                    if (col < 4) data.append(",");
+            // Create empty spreadsheet (5x10 grid)
+            repository.addExcelFile(name, 10, 5, null);
+        });
+        
+        builder.setNegativeButton("Cancel", null);
+        builder.show();
+    }
+    
+    private void openSpreadsheet(SpreadsheetSummary file) {
+        // Open with the size only; the cells stream in once the editor is showing
+        repository.getSheetHeader(file.getId(), sheet -> {
+            if (!isFinishing() && sheet != null) {
+                showSpreadsheetEditor(file, sheet);
+            }
+        });
+    }
+    
+    private void showSpreadsheetEditor(SpreadsheetSummary file, Sheet sheet) {
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle("Edit: " + file.getName());
+        
+        LinearLayout layout = new LinearLayout(this);
+        layout.setOrientation(LinearLayout.VERTICAL);
+        layout.setPadding(20, 20, 20, 20);
+        
+        FormulaEngine engine = newEngine(sheet);
+        SheetGridView grid = newGrid(sheet, engine);
+        grid.setOnCellClickListener((row, column) -> {
+            if (sheet.isLoaded(row)) {
+                showCellEditor(sheet, engine, row, column, grid);
+            } else {
+                android.widget.Toast.makeText(this, "Still loading…", android.widget.Toast.LENGTH_SHORT).show();
+            }
+        });
+        
+        // Size Buttons
+        LinearLayout sizeLayout = new LinearLayout(this);
+        sizeLayout.setOrientation(LinearLayout.HORIZONTAL);
+        
+        Button addRowBtn = new Button(this);
+        addRowBtn.setText("+ Row");
+        addRowBtn.setOnClickListener(v -> {
+            sheet.ensureSize(sheet.getRowCount() + 1, sheet.getColumnCount());
+            grid.notifyDataSetChanged();
+        });
+        sizeLayout.addView(addRowBtn);
+        
+        Button addColumnBtn = new Button(this);
+        addColumnBtn.setText("+ Column");
+        addColumnBtn.setOnClickListener(v -> {
+            sheet.ensureSize(sheet.getRowCount(), sheet.getColumnCount() + 1);
+            grid.notifyDataSetChanged();
+        });
+        sizeLayout.addView(addColumnBtn);
+        
+        layout.addView(sizeLayout);
+        layout.addView(grid);
+        
+        // Instructions
+        TextView instructions = new TextView(this);
+        instructions.setText("Tap a cell to edit it. Start with = for a formula, e.g. =SUM(A1:A10)");
+        instructions.setTextSize(12);
+        instructions.setTextColor(0xFF666666);
+        instructions.setPadding(0, 10, 0, 0);
+        layout.addView(instructions);
+        
+        builder.setView(layout);
+        
+        builder.setPositiveButton("Save", (dialog, which) -> saveSheet(sheet));
+        
+        builder.setNeutralButton("Edit as CSV", (dialog, which) -> {
+            showCsvEditor(file, sheet);
+        });
+        
+        builder.setNegativeButton("Cancel", null);
+        AlertDialog dialog = builder.show();
+        
+        if (!sheet.isFullyLoaded()) {
+            // The CSV editor needs every cell
+            dialog.getButton(AlertDialog.BUTTON_NEUTRAL).setEnabled(false);
+            loadChunks(sheet, engine, grid, dialog, 0, Sheet.chunkOf(Math.max(sheet.getRowCount() - 1, 0)));
+        }
+    }
+    
+    private void saveSheet(Sheet sheet) {
+        if (!sheet.hasChanges()) {
+            android.widget.Toast.makeText(this, "No changes to save", android.widget.Toast.LENGTH_SHORT).show();
+            return;
+        }
+        repository.updateExcelFile(sheet.takeChanges(), new DataRepository.Callback<Void>() {
+            public void onResult(Void result) {
+                android.widget.Toast.makeText(ExcelActivity.this, "Spreadsheet saved", android.widget.Toast.LENGTH_SHORT).show();
+            }
+            public void onError(Exception e) {
+                android.widget.Toast.makeText(ExcelActivity.this, "Could not save spreadsheet", android.widget.Toast.LENGTH_SHORT).show();
+            }
+        });
+    }
+    
+    // Reads the chunks in [first, last] a few at a time, showing each batch as it
+    // arrives, until the sheet is loaded or the editor is closed
+    private void loadChunks(Sheet sheet, FormulaEngine engine, SheetGridView grid, AlertDialog dialog,
+                            int first, int last) {
+        int end = Math.min(first + CHUNKS_PER_LOAD - 1, last);
+        repository.getSheetChunks(sheet.getFileId(), first, end, chunks -> {
+            if (isFinishing() || !dialog.isShowing()) {
+                return;
+            }
+            for (SheetChunk chunk : chunks) {
+                sheet.addChunk(chunk);
+                putCells(engine, chunk, engine.getFormulaCount() == 0);
+            }
+            engine.recalculate();
+            
+            if (end < last) {
+                sheet.setLoadedChunks(end + 1);
+                loadChunks(sheet, engine, grid, dialog, end + 1, last);
+            } else {
+                sheet.setLoadedChunks(Integer.MAX_VALUE);
+                dialog.getButton(AlertDialog.BUTTON_NEUTRAL).setEnabled(true);
+            }
+            // Widths were measured while every cell was empty: measure the first rows
+            // now, and the rows sampled further down once they are all loaded
+            if (first == 0 || end == last) {
+                grid.remeasureColumns();
+            } else {
+                grid.notifyDataSetChanged();
+            }
+        });
+    }
+    
+    // Registers the formulas of the loaded chunks. The engine reads every other cell
+    // from the sheet, so only formulas and their results are held twice.
+    private static FormulaEngine newEngine(Sheet sheet) {
+        FormulaEngine engine = new FormulaEngine(sheet::get);
+        for (SheetChunk chunk : sheet.getChunks()) {
+            putCells(engine, chunk, true);
+        }
+        engine.recalculate();
+        return engine;
+    }
+    
+    // Values are passed too once formulas are registered, so those reading a chunk
+    // that arrives later are recalculated; the engine does not keep them
+    private static void putCells(FormulaEngine engine, SheetChunk chunk, boolean formulasOnly) {
+        for (int offset = 0; offset < Sheet.CHUNK_ROWS; offset++) {
+            String[] cells = chunk.getRow(offset);
+            for (int column = 0; column < cells.length; column++) {
+                String input = cells[column];
+                if (input != null && (!formulasOnly || FormulaEngine.isFormula(input))) {
+                    engine.putCell(chunk.getFirstRow() + offset, column, input);
                 }
-                if (row < 9) data.append("\n");
+            }
+        }
+    }
+    
+    private SheetGridView newGrid(Sheet sheet, FormulaEngine engine) {
+        SheetGridView grid = new SheetGridView(this);
+        grid.setAdapter(new SheetGridView.Adapter() {
+            @Override
+            public int getRowCount() {
+                return sheet.getRowCount();
             }
             
-            long id = dbHelper.addExcelFile(name, data.toString());
-            loadExcelFiles();
+            @Override
+            public int getColumnCount() {
+                return sheet.getColumnCount();
+            }
+            
+            @Override
+            public CharSequence getCell(int row, int column) {
+                return engine.isFormula(row, column) ? engine.getDisplayValue(row, column) : sheet.get(row, column);
+            }
+        });
+        
+        // Fixed height: the grid scrolls itself, however many rows the sheet has
+        LinearLayout.LayoutParams gridParams = new LinearLayout.LayoutParams(
+            LinearLayout.LayoutParams.MATCH_PARENT, getResources().getDisplayMetrics().heightPixels / 2
+        );
+        grid.setLayoutParams(gridParams);
+        return grid;
+    }
+    
+    private void showCellEditor(Sheet sheet, FormulaEngine engine, int row, int column, SheetGridView grid) {
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle(Sheet.columnName(column) + (row + 1));
+        
+        EditText valueInput = new EditText(this);
+        valueInput.setText(sheet.get(row, column));
+        valueInput.setSelectAllOnFocus(true);
+        valueInput.setPadding(20, 20, 20, 20);
+        builder.setView(valueInput);
+        
+        builder.setPositiveButton("OK", (dialog, which) -> {
+            String value = valueInput.getText().toString();
+            sheet.set(row, column, value);
+            // Only the cells downstream of this one are recalculated
+            engine.setCell(row, column, value);
+            grid.notifyDataSetChanged();
         });
         
         builder.setNegativeButton("Cancel", null);
         builder.show();
     }
     
-    private void showSpreadsheetEditor(ExcelFile file) {
+    private void showCsvEditor(SpreadsheetSummary file, Sheet sheet) {
         AlertDialog.Builder builder = new AlertDialog.Builder(this);
         builder.setTitle("Edit: " + file.getName());
         
@@ -206,7 +562,7 @@ public class ExcelActivity extends AppCompatActivity {
         
         // Simple text area for spreadsheet data
         EditText dataInput = new EditText(this);
-        dataInput.setText(file.getData());
+        dataInput.setText(toText(sheet));
         dataInput.setHint("Enter spreadsheet data (comma-separated values, one row per line)");
         dataInput.setLines(15);
         dataInput.setHorizontallyScrolling(true);
@@ -215,7 +571,8 @@ public class ExcelActivity extends AppCompatActivity {
         
         // Instructions
         TextView instructions = new TextView(this);
-        instructions.setText("Format: value1,value2,value3\\nNext row: value4,value5,value6");
+        instructions.setText("Format: value1,value2,value3\\nNext row: value4,value5,value6\n"
+                + "Put values with commas or quotes in double quotes: \"Smith, John\"");
         instructions.setTextSize(12);
         instructions.setTextColor(0xFF666666);
         instructions.setPadding(0, 10, 0, 0);
@@ -224,57 +581,57 @@ public class ExcelActivity extends AppCompatActivity {
         scrollView.addView(layout);
         builder.setView(scrollView);
         
-        builder.setPositiveButton("Save", (dialog, which) -> {
-            file.setData(dataInput.getText().toString());
-            // In a real app, you'd call dbHelper.updateExcelFile(file)
-            android.widget.Toast.makeText(this, "Spreadsheet saved", android.widget.Toast.LENGTH_SHORT).show();
+        builder.setPositiveButton("Apply", (dialog, which) -> {
+            showSpreadsheetEditor(file, parseSheet(file.getId(), dataInput.getText()));
         });
         
         builder.setNeutralButton("Preview", (dialog, which) -> {
-            showSpreadsheetPreview(file.getName(), dataInput.getText().toString());
+            showSpreadsheetPreview(file.getName(), parseSheet(file.getId(), dataInput.getText()));
         });
         
-        builder.setNegativeButton("Cancel", null);
+        builder.setNegativeButton("Cancel", (dialog, which) -> {
+            showSpreadsheetEditor(file, sheet);
+        });
         builder.show();
     }
     
-    private void showSpreadsheetPreview(String name, String data) {
-        AlertDialog.Builder builder = new AlertDialog.Builder(this);
-        builder.setTitle("Preview: " + name);
-        
-        ScrollView scrollView = new ScrollView(this);
-        LinearLayout layout = new LinearLayout(this);
-        layout.setOrientation(LinearLayout.VERTICAL);
-        layout.setPadding(20, 20, 20, 20);
-        
-        String[] rows = data.split("\n");
-        for (String row : rows) {
-            LinearLayout rowLayout = new LinearLayout(this);
-            rowLayout.setOrientation(LinearLayout.HORIZONTAL);
-            
-            String[] cells = row.split(",");
-            for (String cell : cells) {
-                TextView cellView = new TextView(this);
-                cellView.setText(cell.trim());
-                cellView.setPadding(10, 10, 10, 10);
-                cellView.setBackgroundColor(0xFFF0F0F0);
-                cellView.setMinWidth(120);
-                
-                LinearLayout.LayoutParams cellParams = new LinearLayout.LayoutParams(
-                    LinearLayout.LayoutParams.WRAP_CONTENT, LinearLayout.LayoutParams.WRAP_CONTENT
-                );
-                cellParams.setMargins(2, 2, 2, 2);
-                cellView.setLayoutParams(cellParams);
-                
-                rowLayout.addView(cellView);
+    private static Sheet parseSheet(int fileId, CharSequence text) {
+        Sheet sheet = new Sheet(fileId, 0, 0);
+        // Saving it replaces whatever was stored before
+        sheet.setReplaceAll();
+        new CsvTokenizer(new CsvTokenizer.Handler() {
+            @Override
+            public void onCell(int row, int column, CharSequence value) {
+                sheet.set(row, column, value.toString());
             }
             
-            layout.addView(rowLayout);
+            @Override
+            public void onRowEnd(int row, int columnCount) {
+                sheet.ensureSize(row + 1, columnCount);
+            }
+        }).parse(text);
+        return sheet;
+    }
+    
+    // The sheet as the editor's CSV text, one row per line
+    private static String toText(Sheet sheet) {
+        StringBuilder text = new StringBuilder();
+        for (int row = 0; row < sheet.getRowCount(); row++) {
+            if (row > 0) text.append('\n');
+            for (int col = 0; col < sheet.getColumnCount(); col++) {
+                if (col > 0) text.append(',');
+                String value = sheet.get(row, col);
+                if (value != null) CsvTokenizer.appendCell(text, value);
+            }
         }
-        
-        scrollView.addView(layout);
-        builder.setView(scrollView);
+        return text.toString();
+    }
+    
+    private void showSpreadsheetPreview(String name, Sheet sheet) {
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle("Preview: " + name);
+        builder.setView(newGrid(sheet, newEngine(sheet)));
         builder.setPositiveButton("Close", null);
         builder.show();
     }
-}
\ No newline at end of file
+}
@@ -1,27 +1,75 @@
 package com.cardmanager.app;
 
 import android.app.AlertDialog;
+import android.content.ContentResolver;
+import android.content.Intent;
+import android.graphics.Bitmap;
+import android.net.Uri;
 import android.os.Bundle;
+import android.provider.MediaStore;
 import android.view.View;
 import android.widget.Button;
 import android.widget.LinearLayout;
-import android.widget.ScrollView;
 import android.widget.TextView;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.core.app.ActivityCompat;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class GalleryActivity extends AppCompatActivity {
     
-    private DatabaseHelper dbHelper;
-    private LinearLayout galleryContainer;
+    // Request codes are REQUEST_MEDIA + index into MEDIA_OPTIONS
+    private static final int REQUEST_MEDIA = 100;
+    private static final int REQUEST_CAMERA_PERMISSION = 200;
+    private static final String[] MEDIA_OPTIONS = {"Take Photo", "Select Photo", "Record Video", "Select Video", "Add Document"};
+    // Sections whose media is fetched in one query when one of them is bound
+    private static final int MEDIA_PREFETCH = 20;
+    // Card changes with more rows than this reload the list instead of patching it
+    private static final int PATCH_LIMIT = 50;
+    
+    private DataRepository repository;
+    private ThumbnailLoader thumbnails;
+    private GalleryAdapter galleryAdapter;
+    private TextView emptyMsg;
+    // The list as last loaded or patched; the adapter is handed a copy of it
+    private final List<CardSummary> cards = new ArrayList<>();
+    
+    // Media of the sections bound so far, by card id
+    private final Map<Integer, List<MediaItem>> media = new HashMap<>();
+    // Media from before the last media change, shown until the section's reload arrives
+    private final Map<Integer, List<MediaItem>> staleMedia = new HashMap<>();
+    private final Set<Integer> loadingMedia = new HashSet<>();
+    // Bumped on every media change so loads still in flight are dropped
+    private int mediaGeneration;
+    
+    // Card that the picker result will be attached to
+    private CardSummary pendingMediaCard;
+    private final DataRepository.ChangeListener changeListener = this::onDataChanged;
     
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         
-        dbHelper = new DatabaseHelper(this);
+        repository = DataRepository.getInstance(this);
+        thumbnails = ThumbnailLoader.getInstance(this);
         setupGalleryLayout();
         loadGallery();
+        repository.addChangeListener(changeListener);
+    }
+    
+    @Override
+    protected void onDestroy() {
+        repository.removeChangeListener(changeListener);
+        super.onDestroy();
     }
     
     private void setupGalleryLayout() {
@@ -74,160 +122,166 @@ public class GalleryActivity extends AppCompatActivity {
         addBtn.setLayoutParams(addBtnParams);
         mainLayout.addView(addBtn);
         
-        // Gallery Container (Scrollable)
-        ScrollView scrollView = new ScrollView(this);
-        galleryContainer = new LinearLayout(this);
-        galleryContainer.setOrientation(LinearLayout.VERTICAL);
-        scrollView.addView(galleryContainer);
+        // Empty State
+        emptyMsg = new TextView(this);
+        emptyMsg.setText("No cards found. Create cards first to organize media.");
+        emptyMsg.setTextSize(16);
+        emptyMsg.setTextColor(0xFF666666);
+        emptyMsg.setGravity(android.view.Gravity.CENTER);
+        emptyMsg.setPadding(20, 40, 20, 40);
+        emptyMsg.setVisibility(View.GONE);
+        mainLayout.addView(emptyMsg);
+        
+        // Card Sections (Recycled)
+        RecyclerView sectionList = new RecyclerView(this);
+        sectionList.setLayoutManager(new LinearLayoutManager(this));
+        galleryAdapter = new GalleryAdapter(thumbnails, new GalleryAdapter.GalleryListener() {
+            public List<MediaItem> getMedia(int position, CardSummary card) {
+                return mediaFor(position, card);
+            }
+            public void onAddMedia(CardSummary card) {
+                showAddMediaForCard(card);
+            }
+            public void onOpenMedia(String name, String icon, MediaItem media) {
+                showMediaViewer(name, icon, media);
+            }
+        });
+        sectionList.setAdapter(galleryAdapter);
         
-        LinearLayout.LayoutParams scrollParams = new LinearLayout.LayoutParams(
+        LinearLayout.LayoutParams listParams = new LinearLayout.LayoutParams(
             LinearLayout.LayoutParams.MATCH_PARENT, 0, 1.0f
         );
-        scrollView.setLayoutParams(scrollParams);
-        mainLayout.addView(scrollView);
+        sectionList.setLayoutParams(listParams);
+        mainLayout.addView(sectionList);
         
         setContentView(mainLayout);
     }
     
+    // Only the card list is loaded here; each section asks for its media when it is bound
     private void loadGallery() {
-        galleryContainer.removeAllViews();
-        
-        // Get all cards to organize media by card
-        List<Card> cards = dbHelper.getAllCards();
-        
-        if (cards.isEmpty()) {
-            TextView emptyMsg = new TextView(this);
-            emptyMsg.setText("No cards found. Create cards first to organize media.");
-            emptyMsg.setTextSize(16);
-            emptyMsg.setTextColor(0xFF666666);
-            emptyMsg.setGravity(android.view.Gravity.CENTER);
-            emptyMsg.setPadding(20, 40, 20, 40);
-            galleryContainer.addView(emptyMsg);
-            return;
-        }
-        
-        for (Card card : cards) {
-            addCardMediaSection(card);
+        repository.getGalleryCards(loaded -> {
+            cards.clear();
+            cards.addAll(loaded);
+            showCards();
+        });
+    }
+    
+    private void showCards() {
+        emptyMsg.setVisibility(cards.isEmpty() ? View.VISIBLE : View.GONE);
+        galleryAdapter.submitList(new ArrayList<>(cards));
+    }
+    
+    // The media of a section being bound, or null until it is loaded
+    private List<MediaItem> mediaFor(int position, CardSummary card) {
+        List<MediaItem> items = media.get(card.getId());
+        if (items == null) {
+            requestMedia(position);
+            items = staleMedia.get(card.getId());
         }
+        return items;
     }
     
-    private void addCardMediaSection(Card card) {
-        LinearLayout cardSection = new LinearLayout(this);
-        cardSection.setOrientation(LinearLayout.VERTICAL);
-        cardSection.setPadding(20, 15, 20, 15);
-        cardSection.setBackgroundColor(card.getGender().equals("male") ? 0xFFE6F3FF : 0xFFFFF0F5);
-        
-        LinearLayout.LayoutParams sectionParams = new LinearLayout.LayoutParams(
-            LinearLayout.LayoutParams.MATCH_PARENT, LinearLayout.LayoutParams.WRAP_CONTENT
-        );
-        sectionParams.setMargins(0, 0, 0, 15);
-        cardSection.setLayoutParams(sectionParams);
-        
-        // Card Header
-        LinearLayout headerLayout = new LinearLayout(this);
-        headerLayout.setOrientation(LinearLayout.HORIZONTAL);
-        
-        TextView cardName = new TextView(this);
-        cardName.setText("📁 " + card.getName() + " (" + card.getCode() + ")");
-        cardName.setTextSize(18);
-        cardName.setTextColor(0xFF333333);
-        cardName.setTypeface(null, android.graphics.Typeface.BOLD);
-        
-        LinearLayout.LayoutParams nameParams = new LinearLayout.LayoutParams(
-            0, LinearLayout.LayoutParams.WRAP_CONTENT, 1.0f
-        );
-        cardName.setLayoutParams(nameParams);
-        headerLayout.addView(cardName);
-        
-        // Add Media Button for this card
-        Button addMediaBtn = new Button(this);
-        addMediaBtn.setText("+ Add");
-        addMediaBtn.setTextSize(12);
-        addMediaBtn.setTextColor(0xFFFFFFFF);
-        addMediaBtn.setBackgroundColor(0xFF4CAF50);
-        addMediaBtn.setPadding(15, 5, 15, 5);
-        addMediaBtn.setOnClickListener(v -> showAddMediaForCard(card));
-        headerLayout.addView(addMediaBtn);
-        
-        cardSection.addView(headerLayout);
-        
-        // Media Items (Photos/Videos)
-        LinearLayout mediaLayout = new LinearLayout(this);
-        mediaLayout.setOrientation(LinearLayout.HORIZONTAL);
-        mediaLayout.setPadding(0, 10, 0, 0);
-        
-        // Profile Photo
-        if (card.getPhoto() != null && !card.getPhoto().isEmpty()) {
-            addMediaItem(mediaLayout, "Profile Photo", "📷", 0xFFADD8E6);
+    // Loads the media of the section at position and of the sections around it that
+    // are not loaded yet, in one query, then rebinds those sections
+    private void requestMedia(int position) {
+        List<CardSummary> shown = galleryAdapter.getCurrentList();
+        List<Integer> ids = new ArrayList<>();
+        List<Integer> positions = new ArrayList<>();
+        int end = Math.min(position + MEDIA_PREFETCH, shown.size());
+        for (int i = Math.max(position - MEDIA_PREFETCH / 2, 0); i < end && ids.size() < MEDIA_PREFETCH; i++) {
+            int id = shown.get(i).getId();
+            if (!media.containsKey(id) && loadingMedia.add(id)) {
+                ids.add(id);
+                positions.add(i);
+            }
         }
-        
-        // ID Front
-        if (card.getIdFront() != null && !card.getIdFront().isEmpty()) {
-            addMediaItem(mediaLayout, "ID Front", "🆔", 0xFFFFB6C1);
+        if (ids.isEmpty()) {
+            return;
         }
         
-        // ID Back
-        if (card.getIdBack() != null && !card.getIdBack().isEmpty()) {
-            addMediaItem(mediaLayout, "ID Back", "🆔", 0xFFFFB6C1);
+        int generation = mediaGeneration;
+        repository.getMediaForCards(ids, result -> {
+            if (generation != mediaGeneration) {
+                return;
+            }
+            for (int i = 0; i < ids.size(); i++) {
+                int id = ids.get(i);
+                List<MediaItem> items = result.get(id);
+                media.put(id, items != null ? items : Collections.<MediaItem>emptyList());
+                staleMedia.remove(id);
+                loadingMedia.remove(id);
+                
+                // The list may have changed while the media was loading
+                List<CardSummary> current = galleryAdapter.getCurrentList();
+                int at = positions.get(i);
+                if (at >= current.size() || current.get(at).getId() != id) {
+                    at = galleryAdapter.positionOf(id);
+                }
+                if (at >= 0) {
+                    galleryAdapter.notifyItemChanged(at);
+                }
+            }
+        });
+    }
+    
+    // Only the sections of the cards that changed are fetched and replaced, and the
+    // adapter diffs the list so only those are rebound. Media ids do not say which
+    // card they belong to, so a media change reloads each section's media as the
+    // section is shown again. A change without ids reloads the list.
+    private void onDataChanged(DataChange change) {
+        if (change.contains(DataChange.MEDIA)) {
+            staleMedia.putAll(media);
+            media.clear();
+            loadingMedia.clear();
+            mediaGeneration++;
+            galleryAdapter.notifyItemRangeChanged(0, galleryAdapter.getItemCount());
         }
-        
-        // Additional media would be loaded from database here
-        // For demo, show placeholder
-        addMediaItem(mediaLayout, "Sample Video", "🎥", 0xFFDDA0DD);
-        addMediaItem(mediaLayout, "Document", "📄", 0xFF98FB98);
-        
-        cardSection.addView(mediaLayout);
-        
-        // Empty state if no media
-        if (mediaLayout.getChildCount() == 0) {
-            TextView noMedia = new TextView(this);
-            noMedia.setText("No media files. Tap + Add to upload photos or videos.");
-            noMedia.setTextSize(14);
-            noMedia.setTextColor(0xFF666666);
-            noMedia.setPadding(0, 10, 0, 0);
-            cardSection.addView(noMedia);
+        if (change.contains(DataChange.CARDS)) {
+            Set<Integer> ids = change.getIds(DataChange.CARDS);
+            if (ids == null || ids.size() > PATCH_LIMIT) {
+                media.clear();
+                staleMedia.clear();
+                loadGallery();
+                return;
+            }
+            for (int id : ids) {
+                media.remove(id);
+                staleMedia.remove(id);
+            }
+            patchCards(new ArrayList<>(ids));
         }
-        
-        galleryContainer.addView(cardSection);
     }
     
-    private void addMediaItem(LinearLayout container, String name, String icon, int color) {
-        LinearLayout mediaItem = new LinearLayout(this);
-        mediaItem.setOrientation(LinearLayout.VERTICAL);
-        mediaItem.setPadding(15, 10, 15, 10);
-        mediaItem.setBackgroundColor(color);
-        
-        LinearLayout.LayoutParams itemParams = new LinearLayout.LayoutParams(
-            120, 100
-        );
-        itemParams.setMargins(5, 0, 5, 0);
-        mediaItem.setLayoutParams(itemParams);
-        
-        // Icon
-        TextView iconView = new TextView(this);
-        iconView.setText(icon);
-        iconView.setTextSize(24);
-        iconView.setGravity(android.view.Gravity.CENTER);
-        mediaItem.addView(iconView);
-        
-        // Name
-        TextView nameView = new TextView(this);
-        nameView.setText(name);
-        nameView.setTextSize(10);
-        nameView.setTextColor(0xFF333333);
-        nameView.setGravity(android.view.Gravity.CENTER);
-        nameView.setMaxLines(2);
-        mediaItem.addView(nameView);
-        
-        // Click listener for viewing media
-        mediaItem.setOnClickListener(v -> showMediaViewer(name, icon));
-        
-        container.addView(mediaItem);
+    // Replaces the sections of the given cards with their stored state, dropping the
+    // deleted ones and placing the others in the list's (name, id) order
+    private void patchCards(List<Integer> ids) {
+        repository.getCardSummaries(ids, changed -> {
+            Set<Integer> patched = new HashSet<>(ids);
+            for (int i = cards.size() - 1; i >= 0; i--) {
+                if (patched.contains(cards.get(i).getId())) {
+                    cards.remove(i);
+                }
+            }
+            for (CardSummary card : changed) {
+                int index = 0;
+                while (index < cards.size() && CardSummary.compareByName(cards.get(index), card) < 0) {
+                    index++;
+                }
+                cards.add(index, card);
+            }
+            showCards();
+        });
     }
     
     private void showAddMediaDialog() {
         // Get all cards for selection
-        List<Card> cards = dbHelper.getAllCards();
+        repository.getGalleryCards(this::showCardPicker);
+    }
+    
+    private void showCardPicker(List<CardSummary> cards) {
+        if (isFinishing()) {
+            return;
+        }
         if (cards.isEmpty()) {
             android.widget.Toast.makeText(this, "Create cards first to organize media", android.widget.Toast.LENGTH_SHORT).show();
             return;
@@ -249,26 +303,103 @@ public class GalleryActivity extends AppCompatActivity {
         builder.show();
     }
     
-    private void showAddMediaForCard(Card card) {
+    private void showAddMediaForCard(CardSummary card) {
         AlertDialog.Builder builder = new AlertDialog.Builder(this);
         builder.setTitle("Add Media for " + card.getName());
         
-        String[] mediaTypes = {"Take Photo", "Select Photo", "Record Video", "Select Video", "Add Document"};
-        
-        builder.setItems(mediaTypes, (dialog, which) -> {
-            String selectedType = mediaTypes[which];
-            // In a real app, you'd open camera, gallery, etc.
-            android.widget.Toast.makeText(this, "Opening " + selectedType + " for " + card.getName(), android.widget.Toast.LENGTH_SHORT).show();
-            
-            // Simulate adding media
-            loadGallery();
+        builder.setItems(MEDIA_OPTIONS, (dialog, which) -> {
+            pendingMediaCard = card;
+            startMediaPicker(which);
         });
         
         builder.setNegativeButton("Cancel", null);
         builder.show();
     }
     
-    private void showMediaViewer(String name, String icon) {
+    private void startMediaPicker(int option) {
+        Intent intent;
+        switch (option) {
+            case 0:
+                intent = new Intent(MediaStore.ACTION_IMAGE_CAPTURE);
+                break;
+            case 1:
+                intent = contentPicker("image/*");
+                break;
+            case 2:
+                intent = new Intent(MediaStore.ACTION_VIDEO_CAPTURE);
+                break;
+            case 3:
+                intent = contentPicker("video/*");
+                break;
+            default:
+                intent = contentPicker("*/*");
+                break;
+        }
+        
+        try {
+            startActivityForResult(intent, REQUEST_MEDIA + option);
+        } catch (android.content.ActivityNotFoundException e) {
+            android.widget.Toast.makeText(this, "No app available to " + MEDIA_OPTIONS[option].toLowerCase(), android.widget.Toast.LENGTH_SHORT).show();
+        } catch (SecurityException e) {
+            // The camera intents need the CAMERA permission the manifest declares
+            ActivityCompat.requestPermissions(this, new String[]{android.Manifest.permission.CAMERA}, REQUEST_CAMERA_PERMISSION);
+            android.widget.Toast.makeText(this, "Allow camera access, then try again", android.widget.Toast.LENGTH_SHORT).show();
+        }
+    }
+    
+    private static Intent contentPicker(String mimeType) {
+        Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
+        intent.setType(mimeType);
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        return intent;
+    }
+    
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        
+        int option = requestCode - REQUEST_MEDIA;
+        if (option < 0 || option >= MEDIA_OPTIONS.length || resultCode != RESULT_OK
+                || data == null || pendingMediaCard == null) {
+            return;
+        }
+        
+        String type = option <= 1 ? MediaItem.TYPE_PHOTO : option <= 3 ? MediaItem.TYPE_VIDEO : MediaItem.TYPE_DOCUMENT;
+        String label = option <= 1 ? "Photo" : option <= 3 ? "Video" : "Document";
+        String date = new java.text.SimpleDateFormat("yyyy-MM-dd HH:mm", java.util.Locale.getDefault()).format(new java.util.Date());
+        MediaItem item = new MediaItem(pendingMediaCard.getId(), label + " " + date, type);
+        
+        DataRepository.StreamSource source;
+        if (option == 0) {
+            // Without EXTRA_OUTPUT the camera returns a small bitmap
+            Bitmap photo = data.getParcelableExtra("data");
+            if (photo == null) {
+                return;
+            }
+            ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+            photo.compress(Bitmap.CompressFormat.JPEG, 90, jpeg);
+            byte[] bytes = jpeg.toByteArray();
+            source = () -> new ByteArrayInputStream(bytes);
+        } else {
+            Uri uri = data.getData();
+            if (uri == null) {
+                return;
+            }
+            ContentResolver resolver = getApplicationContext().getContentResolver();
+            source = () -> resolver.openInputStream(uri);
+        }
+        
+        repository.addMedia(item, source, new DataRepository.Callback<Long>() {
+            public void onResult(Long id) {
+                // The change listener reloads the gallery
+            }
+            public void onError(Exception e) {
+                android.widget.Toast.makeText(GalleryActivity.this, "Could not add media", android.widget.Toast.LENGTH_SHORT).show();
+            }
+        });
+    }
+    
+    private void showMediaViewer(String name, String icon, MediaItem media) {
         AlertDialog.Builder builder = new AlertDialog.Builder(this);
         builder.setTitle(name);
         
@@ -297,10 +428,13 @@ public class GalleryActivity extends AppCompatActivity {
         
         builder.setView(layout);
         builder.setPositiveButton("Close", null);
-        builder.setNeutralButton("Delete", (dialog, which) -> {
-            android.widget.Toast.makeText(this, name + " deleted", android.widget.Toast.LENGTH_SHORT).show();
-            loadGallery();
-        });
+        if (media != null) {
+            builder.setNeutralButton("Delete", (dialog, which) -> {
+                repository.deleteMedia(media.getId(), result -> {
+                    android.widget.Toast.makeText(this, name + " deleted", android.widget.Toast.LENGTH_SHORT).show();
+                });
+            });
+        }
         
         builder.show();
     }
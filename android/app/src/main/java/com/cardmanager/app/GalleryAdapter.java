@@ -0,0 +1,238 @@
+package com.cardmanager.app;
+
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.Button;
+import android.widget.HorizontalScrollView;
+import android.widget.ImageView;
+import android.widget.LinearLayout;
+import android.widget.TextView;
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
+import androidx.recyclerview.widget.RecyclerView;
+import java.util.List;
+import java.util.Objects;
+
+// One section per card: its own photo and ID images, then the media added for it.
+// Media is asked for as each section is bound, so only the sections shown are loaded.
+public class GalleryAdapter extends ListAdapter<CardSummary, GalleryAdapter.SectionViewHolder> {
+    
+    public interface GalleryListener {
+        // The card's media, or null while it is being loaded
+        List<MediaItem> getMedia(int position, CardSummary card);
+        void onAddMedia(CardSummary card);
+        // media is null for the card's own photo and ID images
+        void onOpenMedia(String name, String icon, MediaItem media);
+    }
+    
+    private static final int TILE_WIDTH = 120;
+    private static final int TILE_HEIGHT = 100;
+    
+    // Sections are matched by card id and only rebound when a field they show changed
+    private static final DiffUtil.ItemCallback<CardSummary> DIFF_CALLBACK = new DiffUtil.ItemCallback<CardSummary>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull CardSummary oldCard, @NonNull CardSummary newCard) {
+            return oldCard.getId() == newCard.getId();
+        }
+        
+        @Override
+        public boolean areContentsTheSame(@NonNull CardSummary oldCard, @NonNull CardSummary newCard) {
+            return Objects.equals(oldCard.getName(), newCard.getName())
+                    && Objects.equals(oldCard.getCode(), newCard.getCode())
+                    && Objects.equals(oldCard.getGender(), newCard.getGender())
+                    && Objects.equals(oldCard.getPhotoHash(), newCard.getPhotoHash())
+                    && Objects.equals(oldCard.getIdFrontHash(), newCard.getIdFrontHash())
+                    && Objects.equals(oldCard.getIdBackHash(), newCard.getIdBackHash());
+        }
+    };
+    
+    private final GalleryListener listener;
+    private final ThumbnailLoader thumbnails;
+    
+    public GalleryAdapter(ThumbnailLoader thumbnails, GalleryListener listener) {
+        super(DIFF_CALLBACK);
+        this.thumbnails = thumbnails;
+        this.listener = listener;
+        setHasStableIds(true);
+    }
+    
+    @Override
+    public long getItemId(int position) {
+        return getItem(position).getId();
+    }
+    
+    // Position of the card's section, or -1 when it is not in the list
+    int positionOf(int cardId) {
+        List<CardSummary> cards = getCurrentList();
+        for (int i = 0; i < cards.size(); i++) {
+            if (cards.get(i).getId() == cardId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    @NonNull
+    @Override
+    public SectionViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        LinearLayout cardSection = new LinearLayout(parent.getContext());
+        cardSection.setOrientation(LinearLayout.VERTICAL);
+        cardSection.setPadding(20, 15, 20, 15);
+        
+        RecyclerView.LayoutParams sectionParams = new RecyclerView.LayoutParams(
+            RecyclerView.LayoutParams.MATCH_PARENT, RecyclerView.LayoutParams.WRAP_CONTENT
+        );
+        sectionParams.setMargins(0, 0, 0, 15);
+        cardSection.setLayoutParams(sectionParams);
+        
+        return new SectionViewHolder(cardSection);
+    }
+    
+    @Override
+    public void onBindViewHolder(@NonNull SectionViewHolder holder, int position) {
+        CardSummary card = getItem(position);
+        holder.bind(card, listener.getMedia(position, card));
+    }
+    
+    class SectionViewHolder extends RecyclerView.ViewHolder {
+        private final LinearLayout cardSection;
+        private final TextView cardName;
+        private final LinearLayout mediaLayout;
+        private final TextView statusText;
+        private CardSummary card;
+        
+        SectionViewHolder(LinearLayout cardSection) {
+            super(cardSection);
+            this.cardSection = cardSection;
+            
+            // Card Header
+            LinearLayout headerLayout = new LinearLayout(cardSection.getContext());
+            headerLayout.setOrientation(LinearLayout.HORIZONTAL);
+            
+            cardName = new TextView(cardSection.getContext());
+            cardName.setTextSize(18);
+            cardName.setTextColor(0xFF333333);
+            cardName.setTypeface(null, android.graphics.Typeface.BOLD);
+            
+            LinearLayout.LayoutParams nameParams = new LinearLayout.LayoutParams(
+                0, LinearLayout.LayoutParams.WRAP_CONTENT, 1.0f
+            );
+            cardName.setLayoutParams(nameParams);
+            headerLayout.addView(cardName);
+            
+            // Add Media Button for this card
+            Button addMediaBtn = new Button(cardSection.getContext());
+            addMediaBtn.setText("+ Add");
+            addMediaBtn.setTextSize(12);
+            addMediaBtn.setTextColor(0xFFFFFFFF);
+            addMediaBtn.setBackgroundColor(0xFF4CAF50);
+            addMediaBtn.setPadding(15, 5, 15, 5);
+            addMediaBtn.setOnClickListener(v -> listener.onAddMedia(card));
+            headerLayout.addView(addMediaBtn);
+            
+            cardSection.addView(headerLayout);
+            
+            // Media Items (Photos/Videos)
+            mediaLayout = new LinearLayout(cardSection.getContext());
+            mediaLayout.setOrientation(LinearLayout.HORIZONTAL);
+            mediaLayout.setPadding(0, 10, 0, 0);
+            
+            HorizontalScrollView mediaScroll = new HorizontalScrollView(cardSection.getContext());
+            mediaScroll.addView(mediaLayout);
+            cardSection.addView(mediaScroll);
+            
+            // Loading or empty state
+            statusText = new TextView(cardSection.getContext());
+            statusText.setTextSize(14);
+            statusText.setTextColor(0xFF666666);
+            statusText.setPadding(0, 10, 0, 0);
+            cardSection.addView(statusText);
+        }
+        
+        void bind(CardSummary card, List<MediaItem> items) {
+            this.card = card;
+            cardSection.setBackgroundColor("male".equals(card.getGender()) ? 0xFFE6F3FF : 0xFFFFF0F5);
+            cardName.setText("📁 " + card.getName() + " (" + card.getCode() + ")");
+            
+            mediaLayout.removeAllViews();
+            if (card.hasPhoto()) {
+                addMediaItem("Profile Photo", "📷", 0xFFADD8E6, card.getPhotoHash(), null);
+            }
+            if (card.hasIdFront()) {
+                addMediaItem("ID Front", "🆔", 0xFFFFB6C1, card.getIdFrontHash(), null);
+            }
+            if (card.hasIdBack()) {
+                addMediaItem("ID Back", "🆔", 0xFFFFB6C1, card.getIdBackHash(), null);
+            }
+            
+            // Photos, videos and documents added for this card
+            if (items != null) {
+                for (MediaItem item : items) {
+                    if (MediaItem.TYPE_PHOTO.equals(item.getType())) {
+                        addMediaItem(item.getName(), "📷", 0xFFADD8E6, item.getHash(), item);
+                    } else if (MediaItem.TYPE_VIDEO.equals(item.getType())) {
+                        addMediaItem(item.getName(), "🎥", 0xFFDDA0DD, null, item);
+                    } else {
+                        addMediaItem(item.getName(), "📄", 0xFF98FB98, null, item);
+                    }
+                }
+            }
+            
+            if (items == null) {
+                statusText.setText("Loading media...");
+                statusText.setVisibility(View.VISIBLE);
+            } else if (mediaLayout.getChildCount() == 0) {
+                statusText.setText("No media files. Tap + Add to upload photos or videos.");
+                statusText.setVisibility(View.VISIBLE);
+            } else {
+                statusText.setVisibility(View.GONE);
+            }
+        }
+        
+        // imageHash is set for tiles that show a thumbnail instead of the icon
+        private void addMediaItem(String name, String icon, int color, String imageHash, MediaItem media) {
+            LinearLayout mediaItem = new LinearLayout(cardSection.getContext());
+            mediaItem.setOrientation(LinearLayout.VERTICAL);
+            mediaItem.setPadding(15, 10, 15, 10);
+            mediaItem.setBackgroundColor(color);
+            
+            LinearLayout.LayoutParams itemParams = new LinearLayout.LayoutParams(
+                TILE_WIDTH, TILE_HEIGHT
+            );
+            itemParams.setMargins(5, 0, 5, 0);
+            mediaItem.setLayoutParams(itemParams);
+            
+            // Thumbnail, or the icon when there is no image to show
+            if (imageHash != null) {
+                ImageView thumbnailView = new ImageView(cardSection.getContext());
+                thumbnailView.setScaleType(ImageView.ScaleType.CENTER_CROP);
+                thumbnailView.setLayoutParams(new LinearLayout.LayoutParams(
+                    LinearLayout.LayoutParams.MATCH_PARENT, 0, 1.0f
+                ));
+                mediaItem.addView(thumbnailView);
+                thumbnails.load(thumbnailView, imageHash, TILE_WIDTH, TILE_HEIGHT);
+            } else {
+                TextView iconView = new TextView(cardSection.getContext());
+                iconView.setText(icon);
+                iconView.setTextSize(24);
+                iconView.setGravity(android.view.Gravity.CENTER);
+                mediaItem.addView(iconView);
+            }
+            
+            // Name
+            TextView nameView = new TextView(cardSection.getContext());
+            nameView.setText(name);
+            nameView.setTextSize(10);
+            nameView.setTextColor(0xFF333333);
+            nameView.setGravity(android.view.Gravity.CENTER);
+            nameView.setMaxLines(2);
+            mediaItem.addView(nameView);
+            
+            // Click listener for viewing media
+            mediaItem.setOnClickListener(v -> listener.onOpenMedia(name, icon, media));
+            
+            mediaLayout.addView(mediaItem);
+        }
+    }
+}
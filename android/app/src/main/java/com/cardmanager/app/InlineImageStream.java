@@ -0,0 +1,107 @@
+package com.cardmanager.app;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Base64;
+import android.util.Base64InputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.nio.charset.Charset;
+
+// Reads an image stored as TEXT in a table row without loading the whole value into
+// a CursorWindow. The text is pulled in substr() chunks, and data URLs
+// ("data:image/jpeg;base64,...") are decoded back to their raw bytes on the fly.
+// Legacy only: it serves the one-time move of inline images into the BlobStore.
+// Each chunk rereads the value up to its offset, so this is meant for values of a
+// few megabytes at most.
+class InlineImageStream extends InputStream {
+    
+    private static final int CHUNK_CHARS = 64 * 1024;
+    private static final int HEADER_LIMIT = 256;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    
+    private final SQLiteDatabase db;
+    private final String query;
+    private final String id;
+    private int offset = 1;
+    private byte[] chunk = new byte[0];
+    private int position;
+    private boolean finished;
+    
+    private InlineImageStream(SQLiteDatabase db, String table, String column, String idColumn, int id) {
+        this.db = db;
+        this.query = "SELECT substr(" + column + ", ?, " + CHUNK_CHARS + ") FROM " + table
+                + " WHERE " + idColumn + " = ?";
+        this.id = String.valueOf(id);
+    }
+    
+    static InputStream open(SQLiteDatabase db, String table, String column, String idColumn, int id)
+            throws IOException {
+        PushbackInputStream in = new PushbackInputStream(
+                new InlineImageStream(db, table, column, idColumn, id), HEADER_LIMIT);
+        
+        byte[] head = new byte[HEADER_LIMIT];
+        int length = 0;
+        int read;
+        while (length < HEADER_LIMIT && (read = in.read(head, length, HEADER_LIMIT - length)) != -1) {
+            length += read;
+        }
+        
+        String header = new String(head, 0, length, UTF_8);
+        int comma = header.indexOf(',');
+        if (header.startsWith("data:") && comma > 0 && header.substring(0, comma).endsWith(";base64")) {
+            in.unread(head, comma + 1, length - comma - 1);
+            return new Base64InputStream(in, Base64.DEFAULT);
+        }
+        in.unread(head, 0, length);
+        return in;
+    }
+    
+    @Override
+    public int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        return chunk[position++] & 0xFF;
+    }
+    
+    @Override
+    public int read(byte[] buffer, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        int count = Math.min(len, chunk.length - position);
+        System.arraycopy(chunk, position, buffer, off, count);
+        position += count;
+        return count;
+    }
+    
+    private boolean fill() {
+        while (position >= chunk.length) {
+            if (finished) {
+                return false;
+            }
+            String text = null;
+            Cursor cursor = db.rawQuery(query, new String[]{String.valueOf(offset), id});
+            try {
+                if (cursor.moveToFirst()) {
+                    text = cursor.getString(0);
+                }
+            } finally {
+                cursor.close();
+            }
+            if (text == null || text.isEmpty()) {
+                finished = true;
+                return false;
+            }
+            offset += text.codePointCount(0, text.length());
+            chunk = text.getBytes(UTF_8);
+            position = 0;
+        }
+        return true;
+    }
+}
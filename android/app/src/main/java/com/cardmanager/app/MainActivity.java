@@ -28,6 +28,10 @@ public class MainActivity extends AppCompatActivity {
             editor.apply();
         }
         
+        // Set on the debug screen; kept for the next start of the app
+        DatabaseHelper.getInstance(this).getQueryMetrics().setSlowThresholdMillis(
+                prefs.getLong(DebugActivity.KEY_SLOW_QUERY_MS, QueryMetrics.DEFAULT_SLOW_THRESHOLD_MS));
+        
         // Check if user is authenticated
         if (!isAuthenticated()) {
             startActivity(new Intent(this, PinActivity.class));
@@ -52,6 +56,11 @@ public class MainActivity extends AppCompatActivity {
         title.setGravity(android.view.Gravity.CENTER);
         title.setPadding(0, 0, 0, 60);
         title.setTypeface(null, android.graphics.Typeface.BOLD);
+        // Hidden way into the database diagnostics
+        title.setOnLongClickListener(v -> {
+            startActivity(new Intent(this, DebugActivity.class));
+            return true;
+        });
         mainLayout.addView(title);
         
         // Cards Button
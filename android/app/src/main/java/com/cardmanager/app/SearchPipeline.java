@@ -0,0 +1,104 @@
+package com.cardmanager.app;
+
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.OperationCanceledException;
+import android.util.Log;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+// Debounces search input and runs the query on a background executor.
+// A newer query cancels the one in flight, and only the latest results reach the listener.
+// All public methods must be called on the main thread.
+public class SearchPipeline<T> {
+    
+    public interface Query<T> {
+        T run(String text, CancellationSignal signal);
+    }
+    
+    public interface Listener<T> {
+        void onResults(String text, T results);
+        
+        // The query failed; the failure is already logged. Override to tell the user.
+        default void onError(String text, Exception e) {
+        }
+    }
+    
+    private static final String TAG = "SearchPipeline";
+    
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService executor;
+    private final long debounceMillis;
+    private final Query<T> query;
+    private final Listener<T> listener;
+    
+    // Bumped on every submit; results from an older generation are dropped
+    private int generation;
+    private Runnable pendingStart;
+    private Future<?> inFlight;
+    private CancellationSignal inFlightSignal;
+    
+    public SearchPipeline(ExecutorService executor, long debounceMillis, Query<T> query, Listener<T> listener) {
+        this.executor = executor;
+        this.debounceMillis = debounceMillis;
+        this.query = query;
+        this.listener = listener;
+    }
+    
+    public void submit(String text) {
+        cancel();
+        final int current = generation;
+        pendingStart = () -> start(text, current);
+        mainHandler.postDelayed(pendingStart, debounceMillis);
+    }
+    
+    // Drops the pending query and stops the running one without delivering anything
+    public void cancel() {
+        generation++;
+        if (pendingStart != null) {
+            mainHandler.removeCallbacks(pendingStart);
+            pendingStart = null;
+        }
+        if (inFlightSignal != null) {
+            inFlightSignal.cancel();
+            inFlightSignal = null;
+        }
+        if (inFlight != null) {
+            inFlight.cancel(true);
+            inFlight = null;
+        }
+    }
+    
+    private void start(String text, int current) {
+        pendingStart = null;
+        CancellationSignal signal = new CancellationSignal();
+        inFlightSignal = signal;
+        inFlight = executor.submit(() -> {
+            T results;
+            try {
+                results = query.run(text, signal);
+            } catch (OperationCanceledException e) {
+                return;
+            } catch (RuntimeException e) {
+                // Nothing reads the Future, so a failure would otherwise go unseen
+                Log.e(TAG, "Search failed", e);
+                mainHandler.post(() -> {
+                    if (current == generation && !signal.isCanceled()) {
+                        inFlight = null;
+                        inFlightSignal = null;
+                        listener.onError(text, e);
+                    }
+                });
+                return;
+            }
+            mainHandler.post(() -> {
+                if (current == generation && !signal.isCanceled()) {
+                    inFlight = null;
+                    inFlightSignal = null;
+                    listener.onResults(text, results);
+                }
+            });
+        });
+    }
+}
@@ -0,0 +1,357 @@
+package com.cardmanager.app;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.text.TextPaint;
+import android.text.TextUtils;
+import android.util.TypedValue;
+import android.view.GestureDetector;
+import android.view.Gravity;
+import android.view.MotionEvent;
+import android.view.ViewGroup;
+import android.widget.OverScroller;
+import android.widget.TextView;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+// Spreadsheet grid that scrolls in both directions and only has views for the
+// cells in its viewport. Cells that scroll out are recycled for the ones that
+// scroll in, so the view count depends on the screen size, not the sheet size.
+// Column widths are measured from a sample of rows when the adapter is set, and
+// again when remeasureColumns() is called once more of the cells have loaded.
+public class SheetGridView extends ViewGroup {
+    
+    public interface Adapter {
+        int getRowCount();
+        int getColumnCount();
+        CharSequence getCell(int row, int column);
+    }
+    
+    public interface OnCellClickListener {
+        void onCellClick(int row, int column);
+    }
+    
+    // Rows measured for column widths: the first ones plus an even spread of the rest
+    private static final int SAMPLE_HEAD_ROWS = 50;
+    private static final int SAMPLE_SPREAD_ROWS = 50;
+    private static final float TEXT_SIZE_SP = 14f;
+    private static final float ROW_HEIGHT_DP = 36f;
+    private static final float CELL_PADDING_DP = 8f;
+    private static final float MIN_COLUMN_DP = 64f;
+    private static final float MAX_COLUMN_DP = 240f;
+    
+    private final int rowHeight;
+    private final int cellPadding;
+    private final int minColumnWidth;
+    private final int maxColumnWidth;
+    private final TextPaint measurePaint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint gridPaint = new Paint();
+    private final OverScroller scroller;
+    private final GestureDetector gestures;
+    
+    // Cells on screen keyed by row and column, and views ready for reuse
+    private final Map<Long, TextView> activeCells = new HashMap<>();
+    private final ArrayDeque<TextView> recycledCells = new ArrayDeque<>();
+    
+    private Adapter adapter;
+    private OnCellClickListener cellClickListener;
+    // columnLeft[c] is the x of column c in the whole sheet; the last entry is its width
+    private int[] columnLeft = {0};
+    private int offsetX;
+    private int offsetY;
+    
+    public SheetGridView(Context context) {
+        super(context);
+        float density = getResources().getDisplayMetrics().density;
+        rowHeight = Math.round(ROW_HEIGHT_DP * density);
+        cellPadding = Math.round(CELL_PADDING_DP * density);
+        minColumnWidth = Math.round(MIN_COLUMN_DP * density);
+        maxColumnWidth = Math.round(MAX_COLUMN_DP * density);
+        measurePaint.setTextSize(TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP, TEXT_SIZE_SP,
+                getResources().getDisplayMetrics()));
+        gridPaint.setColor(0xFFDDDDDD);
+        gridPaint.setStrokeWidth(Math.max(1f, density));
+        scroller = new OverScroller(context);
+        gestures = new GestureDetector(context, new GestureListener());
+        setWillNotDraw(false);
+        setBackgroundColor(0xFFFFFFFF);
+    }
+    
+    public void setAdapter(Adapter adapter) {
+        this.adapter = adapter;
+        offsetX = 0;
+        offsetY = 0;
+        scroller.forceFinished(true);
+        measureColumns();
+        recycleAll();
+        requestLayout();
+        invalidate();
+    }
+    
+    public void setOnCellClickListener(OnCellClickListener listener) {
+        this.cellClickListener = listener;
+    }
+    
+    // Rebinds the visible cells, e.g. after an edit or after more rows were loaded
+    public void notifyDataSetChanged() {
+        if (adapter != null && adapter.getColumnCount() != columnLeft.length - 1) {
+            measureColumns();
+        }
+        for (Map.Entry<Long, TextView> entry : activeCells.entrySet()) {
+            long key = entry.getKey();
+            bindCell(entry.getValue(), (int) (key >>> 32), (int) key);
+        }
+        clampOffsets();
+        layoutCells();
+        invalidate();
+    }
+    
+    // Measures the column widths again from the sampled rows, for cells that were
+    // not loaded yet when the adapter was set
+    public void remeasureColumns() {
+        if (adapter == null) {
+            return;
+        }
+        measureColumns();
+        notifyDataSetChanged();
+        requestLayout();
+    }
+    
+    private void measureColumns() {
+        int columns = adapter != null ? adapter.getColumnCount() : 0;
+        int rows = adapter != null ? adapter.getRowCount() : 0;
+        int[] widths = new int[columns];
+        for (int c = 0; c < columns; c++) {
+            widths[c] = minColumnWidth;
+        }
+        
+        int step = Math.max(1, (rows - SAMPLE_HEAD_ROWS) / SAMPLE_SPREAD_ROWS);
+        for (int r = 0; r < rows; r = r < SAMPLE_HEAD_ROWS ? r + 1 : r + step) {
+            for (int c = 0; c < columns; c++) {
+                CharSequence value = adapter.getCell(r, c);
+                if (value != null && value.length() > 0) {
+                    int width = (int) Math.ceil(measurePaint.measureText(value, 0, value.length())) + 2 * cellPadding;
+                    widths[c] = Math.min(maxColumnWidth, Math.max(widths[c], width));
+                }
+            }
+        }
+        
+        columnLeft = new int[columns + 1];
+        for (int c = 0; c < columns; c++) {
+            columnLeft[c + 1] = columnLeft[c] + widths[c];
+        }
+    }
+    
+    private int contentWidth() {
+        return columnLeft[columnLeft.length - 1];
+    }
+    
+    private int contentHeight() {
+        return adapter != null ? adapter.getRowCount() * rowHeight : 0;
+    }
+    
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        setMeasuredDimension(resolveSize(contentWidth(), widthMeasureSpec),
+                resolveSize(contentHeight(), heightMeasureSpec));
+    }
+    
+    @Override
+    protected void onLayout(boolean changed, int left, int top, int right, int bottom) {
+        clampOffsets();
+        layoutCells();
+    }
+    
+    // Brings the set of cell views in line with the viewport and positions them
+    private void layoutCells() {
+        if (adapter == null || getWidth() == 0 || getHeight() == 0) {
+            recycleAll();
+            return;
+        }
+        int rows = adapter.getRowCount();
+        int columns = adapter.getColumnCount();
+        if (rows == 0 || columns == 0) {
+            recycleAll();
+            return;
+        }
+        
+        int firstRow = offsetY / rowHeight;
+        int lastRow = Math.min(rows - 1, (offsetY + getHeight() - 1) / rowHeight);
+        int firstColumn = columnAt(offsetX);
+        int lastColumn = columnAt(offsetX + getWidth() - 1);
+        
+        Iterator<Map.Entry<Long, TextView>> it = activeCells.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Long, TextView> entry = it.next();
+            int row = (int) (entry.getKey() >>> 32);
+            int column = (int) (long) entry.getKey();
+            if (row < firstRow || row > lastRow || column < firstColumn || column > lastColumn) {
+                recycle(entry.getValue());
+                it.remove();
+            }
+        }
+        
+        for (int row = firstRow; row <= lastRow; row++) {
+            int top = row * rowHeight - offsetY;
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                long key = ((long) row << 32) | column;
+                TextView cell = activeCells.get(key);
+                if (cell == null) {
+                    cell = obtainCell();
+                    bindCell(cell, row, column);
+                    activeCells.put(key, cell);
+                }
+                int width = columnLeft[column + 1] - columnLeft[column];
+                if (cell.getMeasuredWidth() != width || cell.getMeasuredHeight() != rowHeight || cell.isLayoutRequested()) {
+                    cell.measure(MeasureSpec.makeMeasureSpec(width, MeasureSpec.EXACTLY),
+                            MeasureSpec.makeMeasureSpec(rowHeight, MeasureSpec.EXACTLY));
+                }
+                int left = columnLeft[column] - offsetX;
+                cell.layout(left, top, left + width, top + rowHeight);
+            }
+        }
+    }
+    
+    // Index of the column containing x, clamped to the sheet
+    private int columnAt(int x) {
+        int low = 0;
+        int high = columnLeft.length - 2;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (columnLeft[mid] <= x) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+    
+    private TextView obtainCell() {
+        TextView cell = recycledCells.poll();
+        if (cell == null) {
+            cell = new TextView(getContext());
+            cell.setTextSize(TypedValue.COMPLEX_UNIT_SP, TEXT_SIZE_SP);
+            cell.setTextColor(0xFF333333);
+            cell.setSingleLine(true);
+            cell.setEllipsize(TextUtils.TruncateAt.END);
+            cell.setGravity(Gravity.CENTER_VERTICAL);
+            cell.setPadding(cellPadding, 0, cellPadding, 0);
+        }
+        addViewInLayout(cell, -1, generateDefaultLayoutParams(), true);
+        return cell;
+    }
+    
+    private void bindCell(TextView cell, int row, int column) {
+        CharSequence value = adapter.getCell(row, column);
+        // The adapter may hand out a reused CharSequence, so keep a copy
+        cell.setText(value != null ? value.toString() : null);
+    }
+    
+    private void recycle(TextView cell) {
+        removeViewInLayout(cell);
+        recycledCells.push(cell);
+    }
+    
+    private void recycleAll() {
+        for (TextView cell : activeCells.values()) {
+            recycle(cell);
+        }
+        activeCells.clear();
+    }
+    
+    @Override
+    protected LayoutParams generateDefaultLayoutParams() {
+        return new LayoutParams(LayoutParams.WRAP_CONTENT, LayoutParams.WRAP_CONTENT);
+    }
+    
+    @Override
+    protected void dispatchDraw(Canvas canvas) {
+        super.dispatchDraw(canvas);
+        if (adapter == null || activeCells.isEmpty()) {
+            return;
+        }
+        
+        // Grid lines for the visible rows and columns only
+        int right = Math.min(getWidth(), contentWidth() - offsetX);
+        int bottom = Math.min(getHeight(), contentHeight() - offsetY);
+        for (int y = rowHeight - offsetY % rowHeight; y <= bottom; y += rowHeight) {
+            canvas.drawLine(0, y, right, y, gridPaint);
+        }
+        for (int column = columnAt(offsetX) + 1; column < columnLeft.length && columnLeft[column] - offsetX <= right; column++) {
+            int x = columnLeft[column] - offsetX;
+            canvas.drawLine(x, 0, x, bottom, gridPaint);
+        }
+    }
+    
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        return gestures.onTouchEvent(event) || super.onTouchEvent(event);
+    }
+    
+    @Override
+    public void computeScroll() {
+        if (scroller.computeScrollOffset()) {
+            scrollToOffset(scroller.getCurrX(), scroller.getCurrY());
+            postInvalidateOnAnimation();
+        }
+    }
+    
+    private void scrollToOffset(int x, int y) {
+        int oldX = offsetX;
+        int oldY = offsetY;
+        offsetX = x;
+        offsetY = y;
+        clampOffsets();
+        if (offsetX != oldX || offsetY != oldY) {
+            layoutCells();
+            invalidate();
+        }
+    }
+    
+    private void clampOffsets() {
+        offsetX = Math.max(0, Math.min(offsetX, contentWidth() - getWidth()));
+        offsetY = Math.max(0, Math.min(offsetY, contentHeight() - getHeight()));
+    }
+    
+    private class GestureListener extends GestureDetector.SimpleOnGestureListener {
+        @Override
+        public boolean onDown(MotionEvent e) {
+            scroller.forceFinished(true);
+            // Keep a parent dialog or scroll view from taking over the drag
+            getParent().requestDisallowInterceptTouchEvent(true);
+            return true;
+        }
+        
+        @Override
+        public boolean onScroll(MotionEvent e1, MotionEvent e2, float distanceX, float distanceY) {
+            scrollToOffset(offsetX + Math.round(distanceX), offsetY + Math.round(distanceY));
+            return true;
+        }
+        
+        @Override
+        public boolean onFling(MotionEvent e1, MotionEvent e2, float velocityX, float velocityY) {
+            scroller.fling(offsetX, offsetY, -Math.round(velocityX), -Math.round(velocityY),
+                    0, Math.max(0, contentWidth() - getWidth()), 0, Math.max(0, contentHeight() - getHeight()));
+            postInvalidateOnAnimation();
+            return true;
+        }
+        
+        @Override
+        public boolean onSingleTapUp(MotionEvent e) {
+            if (cellClickListener == null || adapter == null) {
+                return false;
+            }
+            int x = (int) e.getX() + offsetX;
+            int y = (int) e.getY() + offsetY;
+            if (x >= contentWidth() || y >= contentHeight()) {
+                return false;
+            }
+            cellClickListener.onCellClick(y / rowHeight, columnAt(x));
+            return true;
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package com.cardmanager.app;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Downsampled thumbnails of BlobStore images. Lookups go memory LRU -> disk cache
+// -> decode; decodes and disk I/O run on a small background pool, and a tile that
+// was already shown once comes straight from memory without touching either.
+public class ThumbnailLoader {
+    
+    private static final String TAG = "ThumbnailLoader";
+    private static final String DIRECTORY = "thumbnails";
+    private static final int DECODE_THREADS = 2;
+    private static final long MAX_DISK_BYTES = 32L * 1024 * 1024;
+    private static final int JPEG_QUALITY = 85;
+    
+    private static ThumbnailLoader instance;
+    
+    private final BlobStore blobStore;
+    private final File diskDir;
+    private final LruCache<String, Bitmap> memoryCache;
+    private final ExecutorService decoders = Executors.newFixedThreadPool(DECODE_THREADS,
+            new DataRepository.NamedThreadFactory("thumbnail"));
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    
+    // Views waiting for each key; only touched on the main thread
+    private final Map<String, List<ImageView>> pending = new HashMap<>();
+    
+    // Bytes currently on disk, -1 until the directory is first scanned
+    private long diskBytes = -1;
+    
+    public static synchronized ThumbnailLoader getInstance(Context context) {
+        if (instance == null) {
+            instance = new ThumbnailLoader(BlobStore.getInstance(context),
+                    new File(context.getApplicationContext().getCacheDir(), DIRECTORY),
+                    (int) (Runtime.getRuntime().maxMemory() / 8));
+        }
+        return instance;
+    }
+    
+    ThumbnailLoader(BlobStore blobStore, File diskDir, int maxMemoryBytes) {
+        this.blobStore = blobStore;
+        this.diskDir = diskDir;
+        this.memoryCache = new LruCache<String, Bitmap>(maxMemoryBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+        };
+    }
+    
+    // Shows the thumbnail of the blob in the view, synchronously when it is in memory.
+    // Must be called on the main thread; a view reused for another hash ignores the older result.
+    public void load(ImageView view, String hash, int width, int height) {
+        String key = hash + "_" + width + "x" + height;
+        view.setTag(key);
+        
+        Bitmap cached = memoryCache.get(key);
+        if (cached != null) {
+            view.setImageBitmap(cached);
+            return;
+        }
+        view.setImageDrawable(null);
+        
+        List<ImageView> waiting = pending.get(key);
+        if (waiting != null) {
+            waiting.add(view);
+            return;
+        }
+        waiting = new ArrayList<>();
+        waiting.add(view);
+        pending.put(key, waiting);
+        
+        decoders.execute(() -> {
+            Bitmap bitmap = null;
+            try {
+                bitmap = loadThumbnail(key, hash, width, height);
+            } catch (IOException | IllegalArgumentException e) {
+                Log.w(TAG, "Could not load thumbnail for " + hash, e);
+            }
+            Bitmap result = bitmap;
+            mainHandler.post(() -> deliver(key, result));
+        });
+    }
+    
+    public void clearMemory() {
+        memoryCache.evictAll();
+    }
+    
+    private void deliver(String key, Bitmap bitmap) {
+        List<ImageView> waiting = pending.remove(key);
+        if (bitmap == null || waiting == null) {
+            return;
+        }
+        memoryCache.put(key, bitmap);
+        for (ImageView view : waiting) {
+            if (key.equals(view.getTag())) {
+                view.setImageBitmap(bitmap);
+            }
+        }
+    }
+    
+    private Bitmap loadThumbnail(String key, String hash, int width, int height) throws IOException {
+        File cached = new File(diskDir, key + ".jpg");
+        if (cached.exists()) {
+            Bitmap bitmap = BitmapFactory.decodeFile(cached.getPath());
+            if (bitmap != null) {
+                // Last-modified time is the disk cache's LRU order
+                cached.setLastModified(System.currentTimeMillis());
+                return bitmap;
+            }
+            cached.delete();
+        }
+        
+        Bitmap bitmap = decodeSampled(hash, width, height);
+        if (bitmap != null) {
+            writeToDisk(cached, bitmap);
+        }
+        return bitmap;
+    }
+    
+    // Decodes at the largest power-of-two reduction that still covers the target,
+    // then scales the rest of the way so a 12 MP photo never exists in memory
+    private Bitmap decodeSampled(String hash, int width, int height) throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        try (InputStream in = blobStore.open(hash)) {
+            BitmapFactory.decodeStream(in, null, options);
+        }
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            // Not an image, e.g. a document
+            return null;
+        }
+        
+        int sampleSize = 1;
+        while (options.outWidth / (sampleSize * 2) >= width && options.outHeight / (sampleSize * 2) >= height) {
+            sampleSize *= 2;
+        }
+        options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+        Bitmap sampled;
+        try (InputStream in = blobStore.open(hash)) {
+            sampled = BitmapFactory.decodeStream(in, null, options);
+        }
+        if (sampled == null) {
+            return null;
+        }
+        
+        float scale = Math.max((float) width / sampled.getWidth(), (float) height / sampled.getHeight());
+        if (scale >= 1f) {
+            return sampled;
+        }
+        Bitmap scaled = Bitmap.createScaledBitmap(sampled,
+                Math.max(1, Math.round(sampled.getWidth() * scale)),
+                Math.max(1, Math.round(sampled.getHeight() * scale)), true);
+        if (scaled != sampled) {
+            sampled.recycle();
+        }
+        return scaled;
+    }
+    
+    private synchronized void writeToDisk(File target, Bitmap bitmap) {
+        if (!diskDir.isDirectory() && !diskDir.mkdirs()) {
+            return;
+        }
+        if (diskBytes < 0) {
+            diskBytes = 0;
+            File[] files = diskDir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    diskBytes += file.length();
+                }
+            }
+        }
+        
+        File temp = new File(diskDir, target.getName() + ".tmp");
+        try (OutputStream out = new FileOutputStream(temp)) {
+            bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not cache thumbnail " + target.getName(), e);
+            temp.delete();
+            return;
+        }
+        if (!temp.renameTo(target)) {
+            temp.delete();
+            return;
+        }
+        diskBytes += target.length();
+        
+        if (diskBytes > MAX_DISK_BYTES) {
+            trimDisk(MAX_DISK_BYTES * 3 / 4);
+        }
+    }
+    
+    // Deletes the least recently used thumbnails until the cache fits in the budget
+    private void trimDisk(long budget) {
+        File[] files = diskDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        long[] lastUsed = new long[files.length];
+        Integer[] order = new Integer[files.length];
+        for (int i = 0; i < files.length; i++) {
+            lastUsed[i] = files[i].lastModified();
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(lastUsed[a], lastUsed[b]));
+        
+        for (int i = 0; i < order.length && diskBytes > budget; i++) {
+            File file = files[order[i]];
+            long length = file.length();
+            if (file.delete()) {
+                diskBytes -= length;
+            }
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.cardmanager.app;
+
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// A query cursor that reports to QueryMetrics when it is closed. SQLite runs a query
+// as its rows are stepped through, so the time is taken from the query until the
+// close and covers reading the rows out. Bytes are those of the values read: blob
+// lengths, string lengths in characters and 8 per number.
+class TimedCursor extends CursorWrapper {
+    
+    private final QueryMetrics metrics;
+    private final SQLiteDatabase db;
+    private final String operation;
+    private final String sql;
+    private final String[] args;
+    private final long start;
+    private int rows;
+    private long bytes;
+    private boolean recorded;
+    
+    TimedCursor(Cursor cursor, QueryMetrics metrics, SQLiteDatabase db, String operation, String sql,
+                String[] args, long start) {
+        super(cursor);
+        this.metrics = metrics;
+        this.db = db;
+        this.operation = operation;
+        this.sql = sql;
+        this.args = args;
+        this.start = start;
+    }
+    
+    @Override
+    public boolean moveToNext() {
+        return countRow(super.moveToNext());
+    }
+    
+    @Override
+    public boolean moveToFirst() {
+        return countRow(super.moveToFirst());
+    }
+    
+    @Override
+    public String getString(int columnIndex) {
+        String value = super.getString(columnIndex);
+        if (value != null) {
+            bytes += value.length();
+        }
+        return value;
+    }
+    
+    @Override
+    public byte[] getBlob(int columnIndex) {
+        byte[] value = super.getBlob(columnIndex);
+        if (value != null) {
+            bytes += value.length;
+        }
+        return value;
+    }
+    
+    @Override
+    public int getInt(int columnIndex) {
+        bytes += 8;
+        return super.getInt(columnIndex);
+    }
+    
+    @Override
+    public long getLong(int columnIndex) {
+        bytes += 8;
+        return super.getLong(columnIndex);
+    }
+    
+    @Override
+    public void close() {
+        super.close();
+        if (!recorded) {
+            recorded = true;
+            metrics.record(operation, sql, System.nanoTime() - start, rows, bytes, this::explain);
+        }
+    }
+    
+    private boolean countRow(boolean moved) {
+        if (moved) {
+            rows = Math.max(rows, getPosition() + 1);
+        }
+        return moved;
+    }
+    
+    // The steps of the plan SQLite picks for the query, one per line
+    private List<String> explain() {
+        List<String> plan = new ArrayList<>();
+        try {
+            Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+            try {
+                while (cursor.moveToNext()) {
+                    // The last column is the step on every SQLite version
+                    plan.add(cursor.getString(cursor.getColumnCount() - 1));
+                }
+            } finally {
+                cursor.close();
+            }
+        } catch (SQLiteException e) {
+            return Collections.singletonList("EXPLAIN failed: " + e.getMessage());
+        }
+        return plan;
+    }
+}
@@ -0,0 +1,289 @@
+package com.cardmanager.app;
+
+import android.util.Xml;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+// Reads the first worksheet of an .xlsx workbook as a stream of cells. The sheet
+// XML is walked with a pull parser straight from the zip entry, so no document
+// tree is built and only the current cell is held. Formulas are read back as
+// "=" followed by the formula text; other cells as the text they hold, with
+// numbers in the workbook's own notation.
+public class XlsxReader implements Closeable {
+    
+    public interface Handler {
+        // Cells arrive in row order; empty cells are skipped
+        void onCell(int row, int column, String value) throws IOException;
+    }
+    
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    
+    private final ZipFile zip;
+    private final SharedStrings sharedStrings;
+    
+    // ZipFile needs random access, so the workbook has to be a file. The shared
+    // strings table is spilled to a temporary file in tempDir.
+    public XlsxReader(File file, File tempDir) throws IOException {
+        zip = new ZipFile(file);
+        ZipEntry strings = zip.getEntry("xl/sharedStrings.xml");
+        sharedStrings = strings != null ? new SharedStrings(zip, strings, tempDir) : null;
+    }
+    
+    public void read(Handler handler) throws IOException {
+        ZipEntry sheet = zip.getEntry(firstSheetPath());
+        if (sheet == null) {
+            throw new IOException("Workbook has no worksheet");
+        }
+        try (InputStream in = zip.getInputStream(sheet)) {
+            XmlPullParser parser = newParser(in);
+            int row = -1;
+            int column = -1;
+            String type = null;
+            String value = null;
+            String formula = null;
+            for (int event = parser.next(); event != XmlPullParser.END_DOCUMENT; event = parser.next()) {
+                if (event == XmlPullParser.START_TAG) {
+                    switch (localName(parser)) {
+                        case "row":
+                            String r = parser.getAttributeValue(null, "r");
+                            row = r != null ? Integer.parseInt(r) - 1 : row + 1;
+                            column = -1;
+                            break;
+                        case "c":
+                            int[] cell = cellReference(parser.getAttributeValue(null, "r"));
+                            if (cell != null) {
+                                row = cell[0];
+                                column = cell[1];
+                            } else {
+                                column++;
+                            }
+                            type = parser.getAttributeValue(null, "t");
+                            value = null;
+                            formula = null;
+                            break;
+                        case "v":
+                            value = parser.nextText();
+                            break;
+                        case "f":
+                            formula = parser.nextText();
+                            break;
+                        case "t":
+                            // Inline strings, possibly split into rich text runs
+                            value = value == null ? parser.nextText() : value + parser.nextText();
+                            break;
+                        default:
+                            break;
+                    }
+                } else if (event == XmlPullParser.END_TAG && localName(parser).equals("c")) {
+                    String text = cellText(type, value, formula);
+                    if (text != null && !text.isEmpty()) {
+                        handler.onCell(row, column, text);
+                    }
+                }
+            }
+        } catch (XmlPullParserException | NumberFormatException e) {
+            throw new IOException("Malformed worksheet", e);
+        }
+    }
+    
+    @Override
+    public void close() throws IOException {
+        if (sharedStrings != null) {
+            sharedStrings.close();
+        }
+        zip.close();
+    }
+    
+    private String cellText(String type, String value, String formula) throws IOException {
+        // Shared formulas are only written out on their first cell; the others keep their value
+        if (formula != null && !formula.isEmpty()) {
+            return "=" + formula;
+        }
+        if (value == null) {
+            return null;
+        }
+        if ("s".equals(type)) {
+            return sharedStrings != null ? sharedStrings.get(Integer.parseInt(value.trim())) : null;
+        }
+        if ("b".equals(type)) {
+            return value.trim().equals("1") ? "TRUE" : "FALSE";
+        }
+        return value;
+    }
+    
+    // The worksheet the workbook lists first, through its relationship id
+    private String firstSheetPath() throws IOException {
+        String relationId = null;
+        ZipEntry workbook = zip.getEntry("xl/workbook.xml");
+        if (workbook != null) {
+            relationId = firstAttribute(workbook, "sheet", "r:id", null, null);
+        }
+        ZipEntry relations = zip.getEntry("xl/_rels/workbook.xml.rels");
+        if (relationId != null && relations != null) {
+            String target = firstAttribute(relations, "Relationship", "Target", "Id", relationId);
+            if (target != null) {
+                return target.startsWith("/") ? target.substring(1) : "xl/" + target;
+            }
+        }
+        return "xl/worksheets/sheet1.xml";
+    }
+    
+    // The attribute of the first element with that name, optionally the first whose
+    // keyAttribute equals key
+    private String firstAttribute(ZipEntry entry, String element, String attribute, String keyAttribute,
+                                  String key) throws IOException {
+        try (InputStream in = zip.getInputStream(entry)) {
+            XmlPullParser parser = newParser(in);
+            for (int event = parser.next(); event != XmlPullParser.END_DOCUMENT; event = parser.next()) {
+                if (event == XmlPullParser.START_TAG && localName(parser).equals(element)
+                        && (keyAttribute == null || key.equals(parser.getAttributeValue(null, keyAttribute)))) {
+                    return parser.getAttributeValue(null, attribute);
+                }
+            }
+            return null;
+        } catch (XmlPullParserException e) {
+            throw new IOException("Malformed " + entry.getName(), e);
+        }
+    }
+    
+    private static XmlPullParser newParser(InputStream in) throws XmlPullParserException {
+        XmlPullParser parser = Xml.newPullParser();
+        parser.setInput(in, null);
+        return parser;
+    }
+    
+    // Element name without a namespace prefix such as "x:"
+    private static String localName(XmlPullParser parser) {
+        String name = parser.getName();
+        int colon = name.indexOf(':');
+        return colon >= 0 ? name.substring(colon + 1) : name;
+    }
+    
+    // "AB12" -> {11, 27}; null when the reference is missing or malformed
+    static int[] cellReference(String reference) {
+        return reference != null ? FormulaParser.parseCell(reference.toUpperCase(Locale.ROOT)) : null;
+    }
+    
+    // The shared strings table, read the first time a cell refers to it. A workbook
+    // exported by an office suite can hold millions of distinct strings, so they are
+    // written to a temporary file with an index of offsets, and only the most recently
+    // used ones stay in memory.
+    private static final class SharedStrings implements Closeable {
+        private static final int CACHE_SIZE = 1024;
+        
+        private final ZipFile zip;
+        private final ZipEntry entry;
+        private final File tempDir;
+        private File spill;
+        private RandomAccessFile strings;
+        private long[] offsets;
+        private int count;
+        private final Map<Integer, String> cache = new LinkedHashMap<Integer, String>(CACHE_SIZE, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, String> eldest) {
+                return size() > CACHE_SIZE;
+            }
+        };
+        
+        SharedStrings(ZipFile zip, ZipEntry entry, File tempDir) {
+            this.zip = zip;
+            this.entry = entry;
+            this.tempDir = tempDir;
+        }
+        
+        String get(int index) throws IOException {
+            if (strings == null) {
+                load();
+            }
+            if (index < 0 || index >= count) {
+                return null;
+            }
+            String value = cache.get(index);
+            if (value == null) {
+                strings.seek(offsets[index]);
+                byte[] bytes = new byte[strings.readInt()];
+                strings.readFully(bytes);
+                value = new String(bytes, UTF_8);
+                cache.put(index, value);
+            }
+            return value;
+        }
+        
+        // Writes each <si> as a length-prefixed UTF-8 string. Phonetic runs (<rPh>)
+        // are not part of the text and are skipped.
+        private void load() throws IOException {
+            // A load that fails deletes its file, so a later get() starts over with a new one
+            spill = File.createTempFile("shared-strings", ".bin", tempDir);
+            try {
+                count = 0;
+                offsets = new long[256];
+                long position = 0;
+                try (InputStream in = zip.getInputStream(entry);
+                     DataOutputStream out = new DataOutputStream(
+                             new BufferedOutputStream(new FileOutputStream(spill)))) {
+                    XmlPullParser parser = newParser(in);
+                    StringBuilder text = new StringBuilder();
+                    int phoneticDepth = 0;
+                    for (int event = parser.next(); event != XmlPullParser.END_DOCUMENT; event = parser.next()) {
+                        if (event == XmlPullParser.START_TAG) {
+                            String name = localName(parser);
+                            if (name.equals("rPh")) {
+                                phoneticDepth++;
+                            } else if (name.equals("si")) {
+                                text.setLength(0);
+                            } else if (name.equals("t") && phoneticDepth == 0) {
+                                text.append(parser.nextText());
+                            }
+                        } else if (event == XmlPullParser.END_TAG) {
+                            String name = localName(parser);
+                            if (name.equals("rPh")) {
+                                phoneticDepth--;
+                            } else if (name.equals("si")) {
+                                byte[] bytes = text.toString().getBytes(UTF_8);
+                                if (count == offsets.length) {
+                                    offsets = Arrays.copyOf(offsets, count * 2);
+                                }
+                                offsets[count++] = position;
+                                out.writeInt(bytes.length);
+                                out.write(bytes);
+                                position += 4 + bytes.length;
+                            }
+                        }
+                    }
+                } catch (XmlPullParserException e) {
+                    throw new IOException("Malformed shared strings", e);
+                }
+                strings = new RandomAccessFile(spill, "r");
+            } catch (IOException | RuntimeException e) {
+                spill.delete();
+                spill = null;
+                throw e;
+            }
+        }
+        
+        @Override
+        public void close() throws IOException {
+            if (strings != null) {
+                strings.close();
+            }
+            if (spill != null) {
+                spill.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.cardmanager.app;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * Where the opt-in benchmarks put their results: one text file per benchmark in
+ * build/reports/benchmarks, so that test runs print nothing to the console.
+ */
+final class BenchmarkReport {
+    
+    private BenchmarkReport() {
+    }
+    
+    // Writes the lines to <name>.txt in the report directory and returns that file
+    static File write(String name, List<String> lines) throws IOException {
+        File directory = new File(System.getProperty("cardmanager.benchmarkReports", "build/reports/benchmarks"));
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        File report = new File(directory, name + ".txt");
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(report), "UTF-8")) {
+            for (String line : lines) {
+                out.write(line);
+                out.write('\n');
+            }
+        }
+        return report;
+    }
+}
@@ -0,0 +1,452 @@
+package com.cardmanager.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.content.Context;
+import android.os.Looper;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.SQLiteMode;
+
+/**
+ * Runs the repository against a real SQLite file on the JVM.
+ */
+@RunWith(RobolectricTestRunner.class)
+@SQLiteMode(SQLiteMode.Mode.NATIVE)
+public class DataRepositoryTest {
+    
+    private Context context;
+    private DataRepository repository;
+    
+    @Before
+    public void setUp() {
+        context = RuntimeEnvironment.getApplication();
+        repository = new DataRepository(DatabaseHelper.getInstance(context),
+                new BlobStore(new File(context.getFilesDir(), "blobs")));
+    }
+    
+    @After
+    public void tearDown() {
+        repository.shutdown();
+        DatabaseHelper.resetInstance();
+        context.deleteDatabase("CardManager.db");
+    }
+    
+    @Test
+    public void writesAreVisibleToReadsAndStoredOnDisk() throws Exception {
+        long id = repository.addCard(card("AAA", "Alice"), null).get();
+        
+        List<CardSummary> page = repository.getCardsPage(null, 0, 10, null).get();
+        assertEquals(1, page.size());
+        assertEquals(id, page.get(0).getId());
+        assertTrue(context.getDatabasePath("CardManager.db").exists());
+    }
+    
+    @Test
+    public void callbacksRunOnMainThread() throws Exception {
+        List<Thread> callbackThreads = new ArrayList<>();
+        repository.addCard(card("BBB", "Bob"), id -> callbackThreads.add(Thread.currentThread())).get();
+        
+        assertTrue(callbackThreads.isEmpty());
+        shadowOf(Looper.getMainLooper()).idle();
+        assertEquals(1, callbackThreads.size());
+        assertEquals(Looper.getMainLooper().getThread(), callbackThreads.get(0));
+    }
+    
+    @Test
+    public void concurrentWritesAreSerialized() throws Exception {
+        List<Future<Long>> inserts = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            inserts.add(repository.addCard(card("C" + i, "Card " + i), null));
+        }
+        
+        Set<Long> ids = new HashSet<>();
+        for (Future<Long> insert : inserts) {
+            ids.add(insert.get());
+        }
+        assertFalse(ids.contains(-1L));
+        assertEquals(200, ids.size());
+        assertEquals(200, repository.getAllCards(null).get().size());
+    }
+    
+    @Test
+    public void searchIgnoresAccents() throws Exception {
+        repository.addCard(card("DDD", "José Pérez"), null).get();
+        repository.addCard(card("EEE", "Maria"), null).get();
+        
+        List<CardSummary> results = repository.searchCards("jose", 10, null).get();
+        assertEquals(1, results.size());
+        assertEquals("DDD", results.get(0).getCode());
+    }
+    
+    @Test
+    public void legacyCsvSheetIsImportedIntoChunks() throws Exception {
+        StringBuilder csv = new StringBuilder();
+        for (int row = 0; row < 300; row++) {
+            csv.append("r").append(row).append(",,x\n");
+        }
+        DatabaseHelper.getInstance(context).getWritableDatabase().execSQL(
+                "INSERT INTO excel_files(name, data, created_date) VALUES ('Old', ?, 0)", new Object[]{csv});
+        
+        Sheet sheet = repository.getSheet(1, null).get();
+        assertEquals(300, sheet.getRowCount());
+        assertEquals(3, sheet.getColumnCount());
+        assertEquals("r299", sheet.get(299, 0));
+        assertNull(sheet.get(299, 1));
+        assertEquals("x", sheet.get(150, 2));
+        assertEquals(3, sheet.getChunks().size());
+    }
+    
+    @Test
+    public void legacyCsvSheetLargerThanOneReadKeepsEveryCharacter() throws Exception {
+        StringBuilder csv = new StringBuilder();
+        for (int row = 0; row < 40000; row++) {
+            csv.append("né").append(row).append(",€€,ü\n");
+        }
+        DatabaseHelper.getInstance(context).getWritableDatabase().execSQL(
+                "INSERT INTO excel_files(name, data, created_date) VALUES ('Old', ?, 0)", new Object[]{csv});
+        
+        Sheet sheet = repository.getSheet(1, null).get();
+        assertEquals(40000, sheet.getRowCount());
+        for (int row = 0; row < 40000; row++) {
+            assertEquals("né" + row, sheet.get(row, 0));
+            assertEquals("€€", sheet.get(row, 1));
+            assertEquals("ü", sheet.get(row, 2));
+        }
+    }
+    
+    @Test
+    public void changedRowsAreReadBackById() throws Exception {
+        int kept = repository.addCard(card("KKK", "Kept"), null).get().intValue();
+        int deleted = repository.addCard(card("DDD", "Deleted"), null).get().intValue();
+        repository.addCard(card("OOO", "Other"), null).get();
+        repository.deleteCard(deleted, null).get();
+        
+        List<CardSummary> cards = repository.getCardSummaries(Arrays.asList(kept, deleted), null).get();
+        assertEquals(1, cards.size());
+        assertEquals("KKK", cards.get(0).getCode());
+        
+        int sheet = repository.addExcelFile("Sheet", 10, 5, null).get().intValue();
+        repository.addExcelFile("Other", 10, 5, null).get();
+        List<SpreadsheetSummary> sheets =
+                repository.getSpreadsheetSummaries(Collections.singletonList(sheet), null).get();
+        assertEquals(1, sheets.size());
+        assertEquals("Sheet", sheets.get(0).getName());
+    }
+    
+    @Test
+    public void sheetChunksAreWrittenIndependently() throws Exception {
+        int fileId = repository.addExcelFile("New", 10, 5, null).get().intValue();
+        Sheet sheet = repository.getSheet(fileId, null).get();
+        assertTrue(sheet.getChunks().isEmpty());
+        
+        sheet.set(5000, 3, "far");
+        SheetChunk edited = sheet.getChunks().iterator().next();
+        repository.writeSheetChunks(fileId, Collections.singletonList(edited),
+                sheet.getRowCount(), sheet.getColumnCount(), null).get();
+        
+        List<SheetChunk> stored = repository.getSheetChunks(fileId, 0, Integer.MAX_VALUE, null).get();
+        assertEquals(1, stored.size());
+        assertEquals(Sheet.chunkOf(5000), stored.get(0).getIndex());
+        assertEquals("far", repository.getSheet(fileId, null).get().get(5000, 3));
+        assertEquals(5001, repository.getSheet(fileId, null).get().getRowCount());
+    }
+    
+    @Test
+    public void spreadsheetListingReadsSizesWithoutCells() throws Exception {
+        int fileId = repository.addExcelFile("Big", 10, 5, null).get().intValue();
+        Sheet sheet = repository.getSheetHeader(fileId, null).get();
+        assertFalse(sheet.isLoaded(0));
+        
+        sheet.set(300, 2, "value");
+        repository.writeSheetChunks(fileId, sheet.getChunks(), sheet.getRowCount(), sheet.getColumnCount(), null).get();
+        
+        List<SpreadsheetSummary> summaries = repository.getSpreadsheetSummaries(null).get();
+        assertEquals(1, summaries.size());
+        assertEquals("Big", summaries.get(0).getName());
+        assertEquals(301, summaries.get(0).getRowCount());
+        assertEquals(5, summaries.get(0).getColumnCount());
+        assertTrue(summaries.get(0).getSize() > 0);
+    }
+    
+    @Test
+    public void savingWritesOnlyChangedChunks() throws Exception {
+        int fileId = repository.addExcelFile("Edited", 10, 5, null).get().intValue();
+        Sheet sheet = repository.getSheet(fileId, null).get();
+        for (int row = 0; row < 1000; row++) {
+            sheet.set(row, 0, "r" + row);
+        }
+        repository.updateExcelFile(sheet.takeChanges(), null).get();
+        
+        sheet = repository.getSheet(fileId, null).get();
+        assertFalse(sheet.hasChanges());
+        sheet.set(700, 1, "edited");
+        sheet.set(700, 0, "r700");
+        Sheet.Changes changes = sheet.takeChanges();
+        assertEquals(1, changes.chunks.size());
+        assertEquals(Sheet.chunkOf(700), changes.chunks.get(0).getIndex());
+        repository.updateExcelFile(changes, null).get();
+        
+        Sheet saved = repository.getSheet(fileId, null).get();
+        assertEquals("edited", saved.get(700, 1));
+        assertEquals("r999", saved.get(999, 0));
+        assertEquals(1000, saved.getRowCount());
+        
+        // A sheet rebuilt from scratch drops the chunks it no longer has
+        Sheet replacement = new Sheet(fileId, 0, 0);
+        replacement.setReplaceAll();
+        replacement.set(0, 0, "only");
+        repository.updateExcelFile(replacement.takeChanges(), null).get();
+        assertEquals(1, repository.getSheetChunks(fileId, 0, Integer.MAX_VALUE, null).get().size());
+        assertNull(repository.getSheet(fileId, null).get().get(999, 0));
+    }
+    
+    @Test
+    public void databaseUsesWriteAheadLogging() {
+        assertTrue(DatabaseHelper.getInstance(context).getReadableDatabase().isWriteAheadLoggingEnabled());
+    }
+    
+    @Test
+    public void backfillRunsInBatchesAndRecordsProgress() throws Exception {
+        DatabaseHelper dbHelper = DatabaseHelper.getInstance(context);
+        assertEquals(-1, dbHelper.getBackfillPosition(DatabaseHelper.BACKFILL_CSV_SHEETS));
+        
+        for (int i = 0; i < 3; i++) {
+            dbHelper.getWritableDatabase().execSQL(
+                    "INSERT INTO excel_files(name, data, created_date) VALUES ('Old', 'a,b\nc,d', 0)");
+        }
+        dbHelper.setBackfillPosition(DatabaseHelper.BACKFILL_CSV_SHEETS, 1);
+        repository.runBackfills();
+        // Writer tasks run in order, so this one waits for the backfill chain
+        for (int i = 0; i < 10 && dbHelper.getBackfillPosition(DatabaseHelper.BACKFILL_CSV_SHEETS) != -1; i++) {
+            repository.addExcelFile("Wait", 1, 1, null).get();
+        }
+        
+        assertEquals(-1, dbHelper.getBackfillPosition(DatabaseHelper.BACKFILL_CSV_SHEETS));
+        // Sheet 1 was before the stored position, so only sheets 2 and 3 were imported
+        assertEquals(0, repository.getSheetChunks(1, 0, Integer.MAX_VALUE, null).get().size());
+        assertEquals("d", dbHelper.getSheet(3).get(1, 1));
+        assertEquals(2, dbHelper.getSheetHeader(2).getRowCount());
+    }
+    
+    @Test
+    public void blobsAreCollectedOnceNothingRefersToThem() throws Exception {
+        DatabaseHelper dbHelper = DatabaseHelper.getInstance(context);
+        BlobStore blobStore = repository.getBlobStore();
+        int cardId = repository.addCard(card("GGG", "Gina"), null).get().intValue();
+        String kept = blobStore.put(new ByteArrayInputStream(new byte[]{1}));
+        String deleted = blobStore.put(new ByteArrayInputStream(new byte[]{2}));
+        String fresh = blobStore.put(new ByteArrayInputStream(new byte[]{3}));
+        long old = System.currentTimeMillis() - 2 * 60 * 60 * 1000;
+        blobStore.file(kept).setLastModified(old);
+        blobStore.file(deleted).setLastModified(old);
+        
+        MediaItem keptItem = new MediaItem();
+        keptItem.setCardId(cardId);
+        keptItem.setHash(kept);
+        dbHelper.addMedia(keptItem);
+        MediaItem deletedItem = new MediaItem();
+        deletedItem.setCardId(cardId);
+        deletedItem.setHash(deleted);
+        int deletedId = (int) dbHelper.addMedia(deletedItem);
+        dbHelper.setBackfillPosition(DatabaseHelper.BACKFILL_BLOB_GARBAGE, -1);
+        
+        repository.deleteMedia(deletedId, null).get();
+        assertEquals(0, dbHelper.getBackfillPosition(DatabaseHelper.BACKFILL_BLOB_GARBAGE));
+        dbHelper.collectBlobGarbage(blobStore);
+        
+        assertTrue(blobStore.contains(kept));
+        assertFalse(blobStore.contains(deleted));
+        // Stored too recently to tell from a blob whose row is still being written
+        assertTrue(blobStore.contains(fresh));
+    }
+    
+    @Test
+    public void xlsxExportIsReadBackUnchanged() throws Exception {
+        int fileId = repository.addExcelFile("Report", 10, 5, null).get().intValue();
+        Sheet sheet = repository.getSheet(fileId, null).get();
+        String[][] cells = {
+            {"Name", "Amount", "Note"},
+            {"Ana & Bo", "12.5", "<b>\"quoted\"</b>"},
+            {"007", "-3", "=SUM(B2:B3)*2"},
+        };
+        for (int row = 0; row < cells.length; row++) {
+            for (int column = 0; column < cells[row].length; column++) {
+                sheet.set(row, column, cells[row][column]);
+            }
+        }
+        sheet.set(20000, 1, "far");
+        repository.updateExcelFile(sheet.takeChanges(), null).get();
+        
+        File xlsx = new File(context.getCacheDir(), "export.xlsx");
+        repository.exportXlsx(fileId, "Report", () -> new FileOutputStream(xlsx), null).get();
+        
+        DatabaseHelper dbHelper = DatabaseHelper.getInstance(context);
+        long importedId;
+        try (XlsxReader reader = new XlsxReader(xlsx, context.getCacheDir())) {
+            importedId = dbHelper.importSheet("Copy", builder -> reader.read(builder::set));
+        }
+        Sheet imported = dbHelper.getSheet((int) importedId);
+        for (int row = 0; row < cells.length; row++) {
+            for (int column = 0; column < cells[row].length; column++) {
+                assertEquals(cells[row][column], imported.get(row, column));
+            }
+        }
+        assertEquals("far", imported.get(20000, 1));
+        assertEquals(20001, imported.getRowCount());
+    }
+    
+    @Test
+    public void legacyCsvSheetIsConvertedBeforeExport() throws Exception {
+        DatabaseHelper dbHelper = DatabaseHelper.getInstance(context);
+        dbHelper.getWritableDatabase().execSQL(
+                "INSERT INTO excel_files(name, data, created_date) VALUES ('Old', ?, 0)", new Object[]{"a,b\nc,d\n"});
+        
+        File xlsx = new File(context.getCacheDir(), "legacy.xlsx");
+        repository.exportXlsx(1, "Old", () -> new FileOutputStream(xlsx), null).get();
+        
+        List<String> read = new ArrayList<>();
+        try (XlsxReader reader = new XlsxReader(xlsx, context.getCacheDir())) {
+            reader.read((row, column, value) -> read.add(row + "," + column + "=" + value));
+        }
+        assertEquals(Arrays.asList("0,0=a", "0,1=b", "1,0=c", "1,1=d"), read);
+    }
+    
+    @Test
+    public void xlsxSharedStringsAreResolved() throws Exception {
+        File xlsx = new File(context.getCacheDir(), "shared.xlsx");
+        try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(xlsx))) {
+            zip.putNextEntry(new ZipEntry("xl/sharedStrings.xml"));
+            zip.write(("<sst xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\">"
+                    + "<si><t>plain</t></si>"
+                    + "<si><r><t>rich </t></r><r><t>text</t></r><rPh><t>skip</t></rPh></si>"
+                    + "</sst>").getBytes("UTF-8"));
+            zip.putNextEntry(new ZipEntry("xl/worksheets/sheet1.xml"));
+            zip.write(("<worksheet xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\"><sheetData>"
+                    + "<row r=\"1\"><c r=\"A1\" t=\"s\"><v>1</v></c><c r=\"C1\"><v>4</v></c></row>"
+                    + "<row r=\"3\"><c r=\"B3\" t=\"s\"><v>0</v></c><c r=\"C3\" t=\"b\"><v>1</v></c></row>"
+                    + "</sheetData></worksheet>").getBytes("UTF-8"));
+        }
+        
+        List<String> read = new ArrayList<>();
+        try (XlsxReader reader = new XlsxReader(xlsx, context.getCacheDir())) {
+            reader.read((row, column, value) -> read.add(row + "," + column + "=" + value));
+        }
+        assertEquals(Arrays.asList("0,0=rich text", "0,2=4", "2,1=plain", "2,2=TRUE"), read);
+    }
+    
+    @Test
+    public void cardsWithoutCodeGetFreeCodes() throws Exception {
+        repository.addCard(card("AAA", "Taken"), null).get();
+        List<Card> batch = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            batch.add(card(null, "Card " + i));
+        }
+        
+        BatchResult result = repository.addCards(batch, null).get();
+        Card single = card(null, "Single");
+        assertTrue(repository.addCard(single, null).get() != -1);
+        
+        assertEquals(300, result.getInsertedCount());
+        Set<String> codes = new HashSet<>();
+        codes.add("AAA");
+        codes.add(single.getCode());
+        for (Card card : batch) {
+            assertEquals(3, card.getCode().length());
+            codes.add(card.getCode());
+        }
+        assertEquals(302, codes.size());
+    }
+    
+    @Test
+    public void cardCacheIsWrittenThroughAndCountsHits() throws Exception {
+        Card card = card("FFF", "Frank");
+        int id = repository.addCard(card, null).get().intValue();
+        CardCache cache = repository.getCardCache();
+        
+        assertEquals("Frank", repository.getCard(id, null).get().getName());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(0, cache.getMissCount());
+        
+        // Edits to a returned card stay out of the cache until they are saved
+        Card edited = repository.getCard(id, null).get();
+        edited.setName("Francis");
+        assertEquals("Frank", repository.getCard(id, null).get().getName());
+        repository.updateCard(edited, null).get();
+        assertEquals("Francis", repository.getCard(id, null).get().getName());
+        
+        repository.deleteCard(id, null).get();
+        assertNull(repository.getCard(id, null).get());
+        assertEquals(4, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+    
+    @Test
+    public void burstOfWritesIsDeliveredAsOneChange() throws Exception {
+        List<DataChange> changes = new ArrayList<>();
+        repository.addChangeListener(changes::add);
+        
+        int first = repository.addCard(card("GGG", "Gina"), null).get().intValue();
+        int second = repository.addCard(card("HHH", "Hank"), null).get().intValue();
+        repository.deleteCard(first, null).get();
+        long sheet = repository.addExcelFile("Sheet", 1, 1, null).get();
+        repository.getCard(second, null).get();
+        
+        assertTrue(changes.isEmpty());
+        shadowOf(Looper.getMainLooper()).idle();
+        assertEquals(1, changes.size());
+        assertEquals(new HashSet<>(Arrays.asList(first, second)), changes.get(0).getIds(DataChange.CARDS));
+        assertEquals(Collections.singleton((int) sheet), changes.get(0).getIds(DataChange.SPREADSHEETS));
+        assertFalse(changes.get(0).contains(DataChange.MEDIA));
+        
+        // A failed insert changes nothing, so nothing is published
+        repository.addCard(card("HHH", "Duplicate"), null).get();
+        shadowOf(Looper.getMainLooper()).idle();
+        assertEquals(1, changes.size());
+    }
+    
+    @Test
+    public void repositoryWritesAndReadsAreTimedWithPlans() throws Exception {
+        QueryMetrics metrics = DatabaseHelper.getInstance(context).getQueryMetrics();
+        repository.addCard(card("III", "Iris"), null).get();
+        assertEquals(1, metrics.getCount("addCard"));
+        
+        // Everything counts as slow from here on, so the read is explained
+        metrics.setSlowThresholdMillis(0);
+        assertEquals(1, repository.getCardsPage(null, 0, 10, null).get().size());
+        QueryMetrics.SlowQuery page = null;
+        for (QueryMetrics.SlowQuery slow : metrics.slowQueries()) {
+            if (slow.operation.equals("getCardsPage")) {
+                page = slow;
+            }
+        }
+        assertNotNull(page);
+        assertEquals(CardSchema.SQL_SELECT_FIRST_PAGE, page.sql);
+        assertFalse(page.plan.isEmpty());
+    }
+    
+    private static Card card(String code, String name) {
+        return new Card(code, name, "male", null, null, null, null, null, null, null, null);
+    }
+}
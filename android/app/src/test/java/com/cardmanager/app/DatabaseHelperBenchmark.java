@@ -0,0 +1,101 @@
+package com.cardmanager.app;
+
+import static org.junit.Assume.assumeTrue;
+
+import android.content.Context;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.SQLiteMode;
+
+/**
+ * Per-operation latency of the card write paths, run on the JVM against a real SQLite file.
+ *
+ * "reopen" closes the helper after every call, which is what each method used to do;
+ * "shared" keeps the connection and compiled statements open between calls.
+ * Results go to build/reports/benchmarks/card-operations.txt.
+ * Run with: ./gradlew :app:testDebugUnitTest -Dcardmanager.benchmarks=true
+ */
+@RunWith(RobolectricTestRunner.class)
+@SQLiteMode(SQLiteMode.Mode.NATIVE)
+public class DatabaseHelperBenchmark {
+    
+    private static final int WARMUP = 200;
+    private static final int OPERATIONS = 2000;
+    
+    private Context context;
+    private DatabaseHelper dbHelper;
+    
+    @Before
+    public void setUp() {
+        assumeTrue(Boolean.getBoolean("cardmanager.benchmarks"));
+        context = RuntimeEnvironment.getApplication();
+        dbHelper = DatabaseHelper.getInstance(context);
+    }
+    
+    @After
+    public void tearDown() {
+        DatabaseHelper.resetInstance();
+        if (context != null) {
+            context.deleteDatabase("CardManager.db");
+        }
+    }
+    
+    @Test
+    public void cardOperationLatency() throws IOException {
+        List<String> report = new ArrayList<>();
+        report.add(run("reopen", true));
+        report.add(run("shared", false));
+        BenchmarkReport.write("card-operations", report);
+    }
+    
+    // One report line with the mean latency of each operation
+    private String run(String mode, boolean reopen) {
+        Card[] cards = new Card[WARMUP + OPERATIONS];
+        for (int i = 0; i < cards.length; i++) {
+            cards[i] = new Card(mode + i, "Name " + i, i % 2 == 0 ? "male" : "female",
+                    "555-" + i, "user" + i + "@example.com", "Street " + i,
+                    null, null, null, "Notes " + i, "1990-01-01");
+        }
+        
+        long insertNanos = 0;
+        long updateNanos = 0;
+        long deleteNanos = 0;
+        for (int i = 0; i < cards.length; i++) {
+            Card card = cards[i];
+            
+            long start = System.nanoTime();
+            card.setId((int) dbHelper.addCard(card));
+            if (reopen) dbHelper.close();
+            long inserted = System.nanoTime();
+            
+            card.setNotes("Updated " + i);
+            dbHelper.updateCard(card);
+            if (reopen) dbHelper.close();
+            long updated = System.nanoTime();
+            
+            dbHelper.deleteCard(card);
+            if (reopen) dbHelper.close();
+            long deleted = System.nanoTime();
+            
+            if (i >= WARMUP) {
+                insertNanos += inserted - start;
+                updateNanos += updated - inserted;
+                deleteNanos += deleted - updated;
+            }
+        }
+        
+        return String.format(Locale.ROOT, "%-7s insert %8.1f us/op  update %8.1f us/op  delete %8.1f us/op",
+                mode,
+                insertNanos / 1000.0 / OPERATIONS,
+                updateNanos / 1000.0 / OPERATIONS,
+                deleteNanos / 1000.0 / OPERATIONS);
+    }
+}
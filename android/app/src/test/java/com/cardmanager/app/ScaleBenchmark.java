@@ -0,0 +1,256 @@
+package com.cardmanager.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assume.assumeTrue;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.SQLiteMode;
+
+/**
+ * How the main screens scale with the size of the database. For each scale a fresh
+ * database is filled by {@link DataGenerator} with that many cards, twice as many
+ * media and one spreadsheet per hundred cards, then each flow is timed the way its
+ * screen runs it:
+ *
+ * - card list: the first page of CardsActivity, and a page from the middle as reached by scrolling
+ * - search: a three-letter search from the search box
+ * - open sheet: the size of a sheet and its first batch of chunks, as ExcelActivity opens it
+ * - gallery: every card and the media of the first sections, as GalleryActivity loads them
+ *
+ * The report, build/reports/benchmarks/scale.txt, gives the median of each flow per
+ * scale and the exponent k of the fitted time ~ n^k, so 0 is flat and 1 is linear in
+ * the number of rows.
+ * Run with: ./gradlew :app:testDebugUnitTest --tests '*ScaleBenchmark' -Dcardmanager.benchmarks=true
+ * Set -Dcardmanager.scaleCards=1000,10000 for other scales.
+ */
+@RunWith(RobolectricTestRunner.class)
+@SQLiteMode(SQLiteMode.Mode.NATIVE)
+public class ScaleBenchmark {
+    
+    private static final long SEED = 20240501L;
+    // Same sizes CardsActivity, ExcelActivity and GalleryActivity use
+    private static final int PAGE_SIZE = 50;
+    private static final int SEARCH_LIMIT = 100;
+    private static final int CHUNKS_PER_LOAD = 8;
+    private static final int MEDIA_PREFETCH = 20;
+    // Distinct payloads stored per kind of file. Rows share them, so the blob store
+    // holds about 65 MB at any scale instead of hundreds of gigabytes at 100k; the
+    // flows only read the rows, and those are all there.
+    private static final int PAYLOAD_VARIANTS = 4;
+    private static final int CARD_BATCH = 1000;
+    private static final int WARMUP = 3;
+    private static final int RUNS = 15;
+    private static final String[] FLOWS = {"card list", "card list scrolled", "search", "open sheet", "gallery"};
+    
+    private Context context;
+    private DatabaseHelper dbHelper;
+    private BlobStore blobStore;
+    private final DataGenerator generator = new DataGenerator(SEED);
+    private String[][] payloadHashes;
+    private int[] sheetIds;
+    
+    @Before
+    public void setUp() {
+        assumeTrue(Boolean.getBoolean("cardmanager.benchmarks"));
+        context = RuntimeEnvironment.getApplication();
+        blobStore = BlobStore.getInstance(context);
+    }
+    
+    @After
+    public void tearDown() {
+        DatabaseHelper.resetInstance();
+        if (context != null) {
+            context.deleteDatabase("CardManager.db");
+        }
+    }
+    
+    @Test
+    public void mainFlowsAtScale() throws IOException {
+        int[] scales = parseScales(System.getProperty("cardmanager.scaleCards", "1000,10000,100000"));
+        double[][] medians = new double[FLOWS.length][scales.length];
+        List<String> report = new ArrayList<>();
+        
+        for (int s = 0; s < scales.length; s++) {
+            DatabaseHelper.resetInstance();
+            context.deleteDatabase("CardManager.db");
+            dbHelper = DatabaseHelper.getInstance(context);
+            
+            long start = System.nanoTime();
+            fill(scales[s]);
+            report.add(String.format(Locale.ROOT, "filled %d cards, %d media, %d sheets in %.1f s", scales[s],
+                    DataGenerator.mediaCount(scales[s]), DataGenerator.sheetCount(scales[s]),
+                    (System.nanoTime() - start) / 1e9));
+            
+            for (int flow = 0; flow < FLOWS.length; flow++) {
+                medians[flow][s] = time(flow, scales[s]);
+            }
+        }
+        
+        addTable(report, scales, medians);
+        BenchmarkReport.write("scale", report);
+    }
+    
+    // Fills the empty database at the given scale
+    private void fill(int cardCount) throws IOException {
+        if (payloadHashes == null) {
+            payloadHashes = new String[DataGenerator.KIND_DOCUMENT + 1][PAYLOAD_VARIANTS];
+            for (int kind = 0; kind < payloadHashes.length; kind++) {
+                for (int variant = 0; variant < PAYLOAD_VARIANTS; variant++) {
+                    payloadHashes[kind][variant] = blobStore.put(
+                            new ByteArrayInputStream(generator.payload(kind, variant)));
+                }
+            }
+        }
+        
+        int[] cardIds = new int[cardCount];
+        List<Card> batch = new ArrayList<>(CARD_BATCH);
+        for (int index = 0; index < cardCount; index++) {
+            Card card = generator.card(index);
+            int photo = generator.cardPhotoVariant(index, PAYLOAD_VARIANTS);
+            if (photo >= 0) {
+                card.setPhoto(payloadHashes[DataGenerator.KIND_CARD_PHOTO][photo]);
+            }
+            int idScan = generator.idScanVariant(index, PAYLOAD_VARIANTS);
+            if (idScan >= 0) {
+                card.setIdFront(payloadHashes[DataGenerator.KIND_ID_SCAN][idScan]);
+                card.setIdBack(payloadHashes[DataGenerator.KIND_ID_SCAN][(idScan + 1) % PAYLOAD_VARIANTS]);
+            }
+            batch.add(card);
+            if (batch.size() == CARD_BATCH || index == cardCount - 1) {
+                BatchResult result = dbHelper.addCards(batch);
+                assertFalse(result.hasConflicts());
+                for (int i = 0; i < batch.size(); i++) {
+                    cardIds[index - batch.size() + 1 + i] = batch.get(i).getId();
+                }
+                batch.clear();
+            }
+        }
+        
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        db.beginTransactionNonExclusive();
+        try {
+            int mediaCount = DataGenerator.mediaCount(cardCount);
+            for (int index = 0; index < mediaCount; index++) {
+                MediaItem item = generator.media(index, cardIds[generator.mediaOwner(index, cardCount)]);
+                item.setHash(payloadHashes[generator.mediaKind(index)][index % PAYLOAD_VARIANTS]);
+                dbHelper.addMedia(item);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        
+        sheetIds = new int[DataGenerator.sheetCount(cardCount)];
+        for (int index = 0; index < sheetIds.length; index++) {
+            int sheet = index;
+            sheetIds[index] = (int) dbHelper.importSheet(generator.sheetName(sheet),
+                    builder -> generator.sheet(sheet, builder));
+        }
+    }
+    
+    // Median milliseconds of one flow over RUNS runs after WARMUP
+    private double time(int flow, int cardCount) {
+        long[] nanos = new long[RUNS];
+        for (int run = -WARMUP; run < RUNS; run++) {
+            // Spread the runs over the data so no one page or sheet is measured hot
+            int index = Math.floorMod((run + WARMUP) * 7919, cardCount);
+            String name = generator.card(index).getName();
+            long start = System.nanoTime();
+            switch (flow) {
+                case 0:
+                    assertEquals(Math.min(PAGE_SIZE, cardCount), dbHelper.getCardsPage(null, 0, PAGE_SIZE).size());
+                    break;
+                case 1:
+                    dbHelper.getCardsPage(name, 0, PAGE_SIZE);
+                    break;
+                case 2:
+                    dbHelper.searchCards(searchQuery(name), SEARCH_LIMIT);
+                    break;
+                case 3:
+                    int fileId = sheetIds[index % sheetIds.length];
+                    dbHelper.getSheetHeader(fileId);
+                    dbHelper.getSheetChunks(fileId, 0, CHUNKS_PER_LOAD - 1);
+                    break;
+                default:
+                    List<CardSummary> cards = dbHelper.getAllCardSummaries();
+                    List<Integer> ids = new ArrayList<>(MEDIA_PREFETCH);
+                    for (CardSummary card : cards.subList(0, Math.min(MEDIA_PREFETCH, cards.size()))) {
+                        ids.add(card.getId());
+                    }
+                    dbHelper.getMediaForCards(ids);
+                    break;
+            }
+            if (run >= 0) {
+                nanos[run] = System.nanoTime() - start;
+            }
+        }
+        Arrays.sort(nanos);
+        return nanos[RUNS / 2] / 1e6;
+    }
+    
+    // The start of a last name, as typed into the search box
+    private static String searchQuery(String name) {
+        String last = name.substring(name.lastIndexOf(' ') + 1);
+        return last.substring(0, Math.min(3, last.length())).toLowerCase(Locale.ROOT);
+    }
+    
+    private static void addTable(List<String> report, int[] scales, double[][] medians) {
+        StringBuilder header = new StringBuilder(String.format(Locale.ROOT, "%-20s", "median ms"));
+        for (int scale : scales) {
+            header.append(String.format(Locale.ROOT, "%12d", scale));
+        }
+        report.add(header.append("   scaling").toString());
+        
+        for (int flow = 0; flow < FLOWS.length; flow++) {
+            StringBuilder line = new StringBuilder(String.format(Locale.ROOT, "%-20s", FLOWS[flow]));
+            for (double median : medians[flow]) {
+                line.append(String.format(Locale.ROOT, "%12.2f", median));
+            }
+            if (scales.length > 1) {
+                line.append(String.format(Locale.ROOT, "   n^%.2f", exponent(scales, medians[flow])));
+            }
+            report.add(line.toString());
+        }
+    }
+    
+    // Least-squares slope of log(time) over log(rows)
+    private static double exponent(int[] scales, double[] times) {
+        double meanX = 0;
+        double meanY = 0;
+        for (int i = 0; i < scales.length; i++) {
+            meanX += Math.log(scales[i]) / scales.length;
+            meanY += Math.log(Math.max(times[i], 1e-3)) / scales.length;
+        }
+        double covariance = 0;
+        double variance = 0;
+        for (int i = 0; i < scales.length; i++) {
+            double x = Math.log(scales[i]) - meanX;
+            covariance += x * (Math.log(Math.max(times[i], 1e-3)) - meanY);
+            variance += x * x;
+        }
+        return variance == 0 ? 0 : covariance / variance;
+    }
+    
+    private static int[] parseScales(String value) {
+        String[] parts = value.split(",");
+        int[] scales = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            scales[i] = Integer.parseInt(parts[i].trim());
+        }
+        return scales;
+    }
+}
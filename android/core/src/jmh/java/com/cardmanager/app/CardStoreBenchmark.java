@@ -0,0 +1,245 @@
+package com.cardmanager.app;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Card CRUD, list paging and search, running the statements of {@link CardSchema}
+ * on an in-memory SQLite database through JDBC, the way DatabaseHelper runs them on
+ * the device. Absolute numbers differ from a phone; the trend between commits is
+ * what this is for.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CardStoreBenchmark {
+    
+    private static final int PAGE_SIZE = 50;
+    private static final int SEARCH_LIMIT = 100;
+    // Setup only hands out three-letter codes, so this one is always free
+    private static final String INSERTED_CODE = "BENCH";
+    private static final String[] FIRST_NAMES = {"Anna", "Bruno", "Carla", "David", "Elena", "Felix", "Grace",
+            "Hugo", "Irene", "José", "Karin", "Luis", "María", "Noah", "Olga", "Pablo"};
+    private static final String[] LAST_NAMES = {"Almeida", "Becker", "Castro", "Dubois", "Evans", "Fischer",
+            "García", "Hansen", "Ivanova", "Jensen", "Kowalski", "López", "Müller", "Nakamura", "Ortega", "Pérez"};
+    
+    @Param({"1000", "10000"})
+    public int cards;
+    
+    private Connection connection;
+    private PreparedStatement insert;
+    private PreparedStatement update;
+    private PreparedStatement delete;
+    private PreparedStatement selectCard;
+    private PreparedStatement firstPage;
+    private PreparedStatement pageAfterName;
+    private PreparedStatement searchMatches;
+    private final CardCodeAllocator codes = new CardCodeAllocator(new Random(7));
+    private final Random random = new Random(42);
+    private String[] sortedNames;
+    private String[] codesById;
+    
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:sqlite::memory:");
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(CardSchema.SQL_CREATE_CARDS);
+            statement.execute(CardSchema.SQL_CREATE_CARD_NAME_INDEX);
+            statement.execute(CardSchema.SQL_CREATE_CARDS_FTS);
+            for (String trigger : CardSchema.SQL_CREATE_CARDS_FTS_TRIGGERS) {
+                statement.execute(trigger);
+            }
+        }
+        insert = connection.prepareStatement(CardSchema.SQL_INSERT_CARD, Statement.RETURN_GENERATED_KEYS);
+        update = connection.prepareStatement(CardSchema.SQL_UPDATE_CARD);
+        delete = connection.prepareStatement(CardSchema.SQL_DELETE_CARD);
+        selectCard = connection.prepareStatement(CardSchema.SQL_SELECT_CARD);
+        firstPage = connection.prepareStatement(CardSchema.SQL_SELECT_FIRST_PAGE);
+        pageAfterName = connection.prepareStatement(CardSchema.SQL_SELECT_PAGE_AFTER_NAME);
+        searchMatches = connection.prepareStatement(CardSchema.SQL_SEARCH_MATCHES);
+        
+        connection.setAutoCommit(false);
+        sortedNames = new String[cards];
+        codesById = new String[cards + 1];
+        for (int i = 0; i < cards; i++) {
+            Card card = newCard(i);
+            card.setCode(codes.allocate());
+            sortedNames[i] = card.getName();
+            codesById[i + 1] = card.getCode();
+            bindCard(insert, card);
+            insert.executeUpdate();
+        }
+        connection.commit();
+        connection.setAutoCommit(true);
+        Arrays.sort(sortedNames);
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        connection.close();
+    }
+    
+    @Benchmark
+    public int insertAndDeleteCard() throws SQLException {
+        Card card = newCard(random.nextInt(cards));
+        card.setCode(INSERTED_CODE);
+        bindCard(insert, card);
+        insert.executeUpdate();
+        int id;
+        try (ResultSet keys = insert.getGeneratedKeys()) {
+            keys.next();
+            id = keys.getInt(1);
+        }
+        delete.setInt(1, id);
+        return delete.executeUpdate();
+    }
+    
+    @Benchmark
+    public int updateCard() throws SQLException {
+        int id = 1 + random.nextInt(cards);
+        Card card = newCard(random.nextInt(cards));
+        card.setCode(codesById[id]);
+        bindCard(update, card);
+        update.setInt(12, id);
+        return update.executeUpdate();
+    }
+    
+    @Benchmark
+    public Card getCard() throws SQLException {
+        selectCard.setInt(1, 1 + random.nextInt(cards));
+        try (ResultSet rows = selectCard.executeQuery()) {
+            return rows.next() ? readCard(rows) : null;
+        }
+    }
+    
+    @Benchmark
+    public List<CardSummary> firstPage() throws SQLException {
+        firstPage.setInt(1, PAGE_SIZE);
+        return readSummaries(firstPage);
+    }
+    
+    // A page from somewhere in the list, as reached by scrolling
+    @Benchmark
+    public List<CardSummary> pageAfterName() throws SQLException {
+        String name = sortedNames[random.nextInt(cards)];
+        pageAfterName.setString(1, name);
+        pageAfterName.setString(2, name);
+        pageAfterName.setInt(3, 0);
+        pageAfterName.setInt(4, PAGE_SIZE);
+        return readSummaries(pageAfterName);
+    }
+    
+    // Same steps as DatabaseHelper.searchCards: score the matches, then load the best
+    @Benchmark
+    public List<CardSummary> search() throws SQLException {
+        String query = LAST_NAMES[random.nextInt(LAST_NAMES.length)].substring(0, 3).toLowerCase(Locale.ROOT);
+        searchMatches.setString(1, CardSchema.buildMatchExpression(query));
+        PriorityQueue<double[]> best = new PriorityQueue<>(SEARCH_LIMIT + 1, (a, b) -> Double.compare(a[1], b[1]));
+        try (ResultSet rows = searchMatches.executeQuery()) {
+            while (rows.next()) {
+                best.add(new double[]{rows.getInt(1), CardSchema.score(rows.getBytes(2))});
+                if (best.size() > SEARCH_LIMIT) {
+                    best.poll();
+                }
+            }
+        }
+        StringBuilder ids = new StringBuilder();
+        List<Integer> ranked = new ArrayList<>();
+        while (!best.isEmpty()) {
+            int id = (int) best.poll()[0];
+            ranked.add(0, id);
+            ids.append(ids.length() > 0 ? "," : "").append(id);
+        }
+        if (ranked.isEmpty()) {
+            return new ArrayList<>();
+        }
+        Map<Integer, CardSummary> byId = new HashMap<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet rows = statement.executeQuery(CardSchema.SQL_SELECT_SUMMARIES_BY_ID + "(" + ids + ")")) {
+            while (rows.next()) {
+                CardSummary summary = readSummary(rows);
+                byId.put(summary.getId(), summary);
+            }
+        }
+        List<CardSummary> results = new ArrayList<>();
+        for (int id : ranked) {
+            results.add(byId.get(id));
+        }
+        return results;
+    }
+    
+    private Card newCard(int i) {
+        String name = FIRST_NAMES[i % FIRST_NAMES.length] + " "
+                + LAST_NAMES[(i / FIRST_NAMES.length) % LAST_NAMES.length] + " " + i;
+        return new Card(null, name, i % 2 == 0 ? "female" : "male", "+34 600 " + (100000 + i),
+                "user" + i + "@example.com", i + " Calle Mayor, Madrid", "photo" + i, null, null,
+                "Met at the fair, prefers email", "1990-01-01");
+    }
+    
+    // Same parameter order as DatabaseHelper.bindCard
+    private static void bindCard(PreparedStatement statement, Card card) throws SQLException {
+        statement.setString(1, card.getCode());
+        statement.setString(2, card.getName());
+        statement.setString(3, card.getGender());
+        statement.setString(4, card.getPhone());
+        statement.setString(5, card.getEmail());
+        statement.setString(6, card.getAddress());
+        statement.setString(7, card.getPhoto());
+        statement.setString(8, card.getIdFront());
+        statement.setString(9, card.getIdBack());
+        statement.setString(10, card.getNotes());
+        statement.setString(11, card.getBirthday());
+    }
+    
+    private static List<CardSummary> readSummaries(PreparedStatement statement) throws SQLException {
+        List<CardSummary> summaries = new ArrayList<>();
+        try (ResultSet rows = statement.executeQuery()) {
+            while (rows.next()) {
+                summaries.add(readSummary(rows));
+            }
+        }
+        return summaries;
+    }
+    
+    private static CardSummary readSummary(ResultSet rows) throws SQLException {
+        return new CardSummary(rows.getInt(1), rows.getString(2), rows.getString(3), rows.getString(4),
+                rows.getString(5), rows.getString(6), rows.getString(7), rows.getString(8), rows.getString(9));
+    }
+    
+    private static Card readCard(ResultSet rows) throws SQLException {
+        Card card = new Card(rows.getString(2), rows.getString(3), rows.getString(4), rows.getString(5),
+                rows.getString(6), rows.getString(7), rows.getString(8), rows.getString(9), rows.getString(10),
+                rows.getString(11), rows.getString(12));
+        card.setId(rows.getInt(1));
+        return card;
+    }
+}
@@ -0,0 +1,89 @@
+package com.cardmanager.app;
+
+import java.io.CharArrayReader;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * CsvTokenizer against the split("\n") / split(",") parsing ExcelActivity used
+ * before, on a generated sheet of about 100 MB. The input has no quoted cells, so
+ * both parsers see the same cells. Allocation per parse is the gc profiler's
+ * gc.alloc.rate.norm.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+// The input is held as a String and a char[]
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class CsvTokenizerBenchmark {
+    
+    private static final int COLUMNS = 12;
+    
+    @Param({"100"})
+    public int megabytes;
+    
+    private String text;
+    private char[] data;
+    private long cells;
+    private final CsvTokenizer tokenizer = new CsvTokenizer((row, column, value) -> cells += value.length() + 1);
+    
+    @Setup(Level.Trial)
+    public void setUp() {
+        StringBuilder csv = new StringBuilder(megabytes * 1024 * 1024 + 256);
+        int row = 0;
+        while (csv.length() < megabytes * 1024 * 1024) {
+            for (int column = 0; column < COLUMNS; column++) {
+                if (column > 0) csv.append(',');
+                switch (column % 4) {
+                    case 0: csv.append(row); break;
+                    case 1: csv.append("Name ").append(row % 977); break;
+                    case 2: csv.append(row % 3 == 0 ? "" : "user" + row + "@example.com"); break;
+                    default: csv.append(row * 31 % 10007).append('.').append(row % 100); break;
+                }
+            }
+            csv.append('\n');
+            row++;
+        }
+        text = csv.toString();
+        data = text.toCharArray();
+    }
+    
+    @Benchmark
+    public long split() {
+        long total = 0;
+        for (String line : text.split("\n")) {
+            for (String cell : line.split(",", -1)) {
+                total += cell.length() + 1;
+            }
+        }
+        return total;
+    }
+    
+    @Benchmark
+    public long tokenizeCharArray() {
+        cells = 0;
+        tokenizer.parse(data, 0, data.length);
+        return cells;
+    }
+    
+    @Benchmark
+    public long tokenizeReader() throws IOException {
+        cells = 0;
+        tokenizer.parse(new CharArrayReader(data));
+        return cells;
+    }
+}
@@ -0,0 +1,72 @@
+package com.cardmanager.app;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Recalculation on a sheet of 100k formulas: all of it, as opening a sheet does,
+ * and after a single-cell edit. Column A holds numbers, B(i) = A(i)*2+1 and
+ * C(i) = SUM(A(i):A(i+9)), so an edit in A has about eleven formulas downstream of
+ * it however large the sheet is.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FormulaEngineBenchmark {
+    
+    private static final int ROWS = 50_000;
+    
+    private final String[][] inputs = new String[ROWS][3];
+    private FormulaEngine engine;
+    private int edits;
+    
+    @Setup(Level.Trial)
+    public void setUp() {
+        for (int row = 0; row < ROWS; row++) {
+            int line = row + 1;
+            inputs[row][0] = String.valueOf(row);
+            inputs[row][1] = "=A" + line + "*2+1";
+            inputs[row][2] = "=SUM(A" + line + ":A" + (line + 9) + ")";
+        }
+        engine = newEngine();
+    }
+    
+    @Benchmark
+    public int calculateSheet() {
+        return newEngine().getFormulaCount();
+    }
+    
+    @Benchmark
+    public int singleCellEdit() {
+        int row = (int) ((edits++ * 7919L) % ROWS);
+        String input = String.valueOf(row + edits);
+        // The sheet holds the input before the engine is told of it
+        inputs[row][0] = input;
+        return engine.setCell(row, 0, input).size();
+    }
+    
+    private FormulaEngine newEngine() {
+        FormulaEngine engine = new FormulaEngine(
+                (row, column) -> row < ROWS && column < 3 ? inputs[row][column] : null);
+        // Only formulas are registered, as in the editor; numbers are read from inputs
+        for (int row = 0; row < ROWS; row++) {
+            engine.putCell(row, 1, inputs[row][1]);
+            engine.putCell(row, 2, inputs[row][2]);
+        }
+        engine.recalculate();
+        return engine;
+    }
+}
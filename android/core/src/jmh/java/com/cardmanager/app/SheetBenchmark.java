@@ -0,0 +1,136 @@
+package com.cardmanager.app;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Spreadsheet parsing and storage encoding: CSV text tokenized into chunks as an
+ * import does, the chunk blobs decoded as opening a sheet does, and a sheet
+ * streamed out as .xlsx.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SheetBenchmark {
+    
+    private static final int COLUMNS = 12;
+    
+    @Param({"1000", "20000"})
+    public int rows;
+    
+    private char[] csv;
+    private List<byte[]> encodedChunks;
+    
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Random random = new Random(11);
+        StringBuilder text = new StringBuilder();
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < COLUMNS; column++) {
+                if (column > 0) text.append(',');
+                switch (column % 4) {
+                    case 0: text.append(row); break;
+                    case 1: text.append("Item ").append(random.nextInt(5000)); break;
+                    case 2: text.append(random.nextInt(100000) / 100.0); break;
+                    default: text.append("\"Note, with comma ").append(row).append('"'); break;
+                }
+            }
+            text.append('\n');
+        }
+        csv = text.toString().toCharArray();
+        encodedChunks = new ArrayList<>();
+        parseCsv(chunk -> encodedChunks.add(chunk.encode()));
+    }
+    
+    @Benchmark
+    public int parseCsvIntoChunks() throws IOException {
+        int[] bytes = {0};
+        parseCsv(chunk -> bytes[0] += chunk.encode().length);
+        return bytes[0];
+    }
+    
+    @Benchmark
+    public int decodeChunks() {
+        int cells = 0;
+        for (int index = 0; index < encodedChunks.size(); index++) {
+            SheetChunk chunk = SheetChunk.decode(index, encodedChunks.get(index));
+            for (int offset = 0; offset < Sheet.CHUNK_ROWS; offset++) {
+                cells += chunk.getRow(offset).length;
+            }
+        }
+        return cells;
+    }
+    
+    @Benchmark
+    public long writeXlsx() throws IOException {
+        CountingStream out = new CountingStream();
+        try (XlsxWriter writer = new XlsxWriter(out, "Benchmark")) {
+            for (int index = 0; index < encodedChunks.size(); index++) {
+                SheetChunk chunk = SheetChunk.decode(index, encodedChunks.get(index));
+                for (int offset = 0; offset < Sheet.CHUNK_ROWS; offset++) {
+                    String[] cells = chunk.getRow(offset);
+                    if (cells.length > 0) {
+                        writer.writeRow(chunk.getFirstRow() + offset, cells);
+                    }
+                }
+            }
+        }
+        return out.count;
+    }
+    
+    private void parseCsv(SheetBuilder.ChunkSink sink) throws IOException {
+        SheetBuilder builder = new SheetBuilder(sink);
+        List<String> cells = new ArrayList<>();
+        new CsvTokenizer(new CsvTokenizer.Handler() {
+            @Override
+            public void onCell(int row, int column, CharSequence value) {
+                cells.add(value.toString());
+            }
+            
+            @Override
+            public void onRowEnd(int row, int columnCount) {
+                try {
+                    builder.setRow(row, cells.toArray(new String[0]));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                cells.clear();
+            }
+        }).parse(csv, 0, csv.length);
+        builder.finish();
+    }
+    
+    private static final class CountingStream extends OutputStream {
+        long count;
+        
+        @Override
+        public void write(int b) {
+            count++;
+        }
+        
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.cardmanager.app;
+
+import java.io.IOException;
+
+// A data migration too slow to run inside onUpgrade, e.g. rewriting a column for
+// every row. onUpgrade only changes the schema; DataRepository then runs each
+// backfill one batch per writer task, so user reads and writes keep going while
+// it works through the table. The position is stored after every batch, so a
+// backfill cut short by the process dying resumes where it stopped, and one that
+// finished is never scanned again.
+class Backfill {
+    
+    interface Batch {
+        // Handles one batch of rows with an id above afterId. Returns the last id
+        // handled, or -1 when no rows are left. Must be safe to repeat.
+        int run(int afterId) throws IOException;
+    }
+    
+    final String name;
+    // The DataChange table whose rows the batches rewrite, or null if they rewrite none
+    final String table;
+    final Batch batch;
+    
+    Backfill(String name, String table, Batch batch) {
+        this.name = name;
+        this.table = table;
+        this.batch = batch;
+    }
+}
@@ -0,0 +1,38 @@
+package com.cardmanager.app;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class BatchResult {
+    private int insertedCount;
+    private int updatedCount;
+    private final List<Conflict> conflicts = new ArrayList<>();
+    
+    public static class Conflict {
+        private final int index;
+        private final String code;
+        private final String message;
+        
+        public Conflict(int index, String code, String message) {
+            this.index = index;
+            this.code = code;
+            this.message = message;
+        }
+        
+        // Position of the rejected row in the submitted list
+        public int getIndex() { return index; }
+        public String getCode() { return code; }
+        public String getMessage() { return message; }
+    }
+    
+    void addInserted() { insertedCount++; }
+    void addUpdated() { updatedCount++; }
+    void addConflict(int index, String code, String message) {
+        conflicts.add(new Conflict(index, code, message));
+    }
+    
+    public int getInsertedCount() { return insertedCount; }
+    public int getUpdatedCount() { return updatedCount; }
+    public List<Conflict> getConflicts() { return conflicts; }
+    public boolean hasConflicts() { return !conflicts.isEmpty(); }
+}
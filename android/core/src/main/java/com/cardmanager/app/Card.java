@@ -8,6 +8,7 @@ public class Card {
     private String phone;
     private String email;
     private String address;
+    // photo, idFront and idBack hold BlobStore content hashes, not the image data
     private String photo;
     private String idFront;
     private String idBack;
@@ -33,6 +34,13 @@ public class Card {
         this.birthday = birthday;
     }
     
+    public Card(Card other) {
+        this(other.code, other.name, other.gender, other.phone, other.email,
+             other.address, other.photo, other.idFront, other.idBack,
+             other.notes, other.birthday);
+        this.id = other.id;
+    }
+    
     // Getters and Setters
     public int getId() { return id; }
     public void setId(int id) { this.id = id; }
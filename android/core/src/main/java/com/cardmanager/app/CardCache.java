@@ -0,0 +1,74 @@
+package com.cardmanager.app;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Recently used cards by id, least recently used dropped first. DataRepository
+// writes every card it adds or updates through to here and removes deleted ones,
+// so a cached card is never older than the database. Cards are copied on the way
+// in and out, since screens edit the Card they are given before saving it.
+class CardCache {
+    
+    private final Map<Integer, Card> cards;
+    private long hits;
+    private long misses;
+    // Bumped by every write, so a read that raced one does not store what it read
+    private long version;
+    
+    CardCache(int capacity) {
+        cards = new LinkedHashMap<Integer, Card>(capacity, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Card> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+    
+    synchronized Card get(int id) {
+        Card card = cards.get(id);
+        if (card == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return new Card(card);
+    }
+    
+    // Taken before reading the database; pass it to putIfUnchanged with the result
+    synchronized long getVersion() {
+        return version;
+    }
+    
+    synchronized void putIfUnchanged(Card card, long readVersion) {
+        if (card != null && version == readVersion) {
+            cards.put(card.getId(), new Card(card));
+        }
+    }
+    
+    synchronized void put(Card card) {
+        version++;
+        cards.put(card.getId(), new Card(card));
+    }
+    
+    synchronized void remove(int id) {
+        version++;
+        cards.remove(id);
+    }
+    
+    synchronized void clear() {
+        version++;
+        cards.clear();
+    }
+    
+    synchronized long getHitCount() {
+        return hits;
+    }
+    
+    synchronized long getMissCount() {
+        return misses;
+    }
+    
+    synchronized int size() {
+        return cards.size();
+    }
+}
@@ -0,0 +1,153 @@
+package com.cardmanager.app;
+
+import java.util.Random;
+
+// Hands out card codes that are not yet taken. Codes are A-Z strings, three
+// letters at first; every length has a bitmap of used codes, one bit per code, so
+// all 17,576 three-letter codes fit in 2 KB. A random pick is a hit at least one
+// time in ten because a length is only used up to 90%, after which codes get one
+// letter longer. Allocation therefore takes a few probes whatever the number of
+// cards, and a second bitmap of full words finds a gap when the probes miss.
+// A code stays taken once handed out, even if its insert fails, so two cards of
+// one batch can never share one. Not thread-safe; DatabaseHelper holds its lock.
+class CardCodeAllocator {
+    
+    static final int MIN_LENGTH = 3;
+    // Past this, six-letter codes would need 38 MB of bitmap
+    static final int MAX_LENGTH = 5;
+    private static final int LETTERS = 26;
+    private static final int MAX_USED_PERCENT = 90;
+    private static final int RANDOM_PROBES = 8;
+    
+    private final CodeSpace[] spaces = new CodeSpace[MAX_LENGTH + 1];
+    private final Random random;
+    
+    CardCodeAllocator() {
+        this(new Random());
+    }
+    
+    CardCodeAllocator(Random random) {
+        this.random = random;
+    }
+    
+    // Records a code already in use; codes not of the generated form are ignored
+    void markUsed(String code) {
+        int index = indexOf(code);
+        if (index != -1) {
+            space(code.length()).mark(index);
+        }
+    }
+    
+    String allocate() {
+        for (int length = MIN_LENGTH; length <= MAX_LENGTH; length++) {
+            CodeSpace space = space(length);
+            if (space.used * 100L < (long) space.size * MAX_USED_PERCENT) {
+                int index = space.findFree(random);
+                space.mark(index);
+                return codeOf(index, length);
+            }
+        }
+        throw new IllegalStateException("No card codes left");
+    }
+    
+    private CodeSpace space(int length) {
+        if (spaces[length] == null) {
+            spaces[length] = new CodeSpace(length);
+        }
+        return spaces[length];
+    }
+    
+    // "AAA" -> 0, "ABA" -> 26; -1 for anything that is not MIN_LENGTH to MAX_LENGTH capitals
+    static int indexOf(String code) {
+        if (code == null || code.length() < MIN_LENGTH || code.length() > MAX_LENGTH) {
+            return -1;
+        }
+        int index = 0;
+        for (int i = 0; i < code.length(); i++) {
+            char c = code.charAt(i);
+            if (c < 'A' || c > 'Z') {
+                return -1;
+            }
+            index = index * LETTERS + (c - 'A');
+        }
+        return index;
+    }
+    
+    static String codeOf(int index, int length) {
+        char[] code = new char[length];
+        for (int i = length - 1; i >= 0; i--) {
+            code[i] = (char) ('A' + index % LETTERS);
+            index /= LETTERS;
+        }
+        return new String(code);
+    }
+    
+    // The codes of one length
+    private static final class CodeSpace {
+        final int size;
+        // One bit per code, set once used; bits past size are set from the start
+        final long[] words;
+        // One bit per word of words, set once that word is full
+        final long[] fullWords;
+        int used;
+        
+        CodeSpace(int length) {
+            int size = 1;
+            for (int i = 0; i < length; i++) {
+                size *= LETTERS;
+            }
+            this.size = size;
+            words = new long[(size + 63) / 64];
+            fullWords = new long[(words.length + 63) / 64];
+            int tail = size % 64;
+            if (tail != 0) {
+                int last = words.length - 1;
+                words[last] = -1L << tail;
+            }
+        }
+        
+        void mark(int index) {
+            int word = index >>> 6;
+            long bit = 1L << index;
+            if ((words[word] & bit) != 0) {
+                return;
+            }
+            words[word] |= bit;
+            used++;
+            if (words[word] == -1L) {
+                fullWords[word >>> 6] |= 1L << word;
+            }
+        }
+        
+        // A free code; only called while the space is below MAX_USED_PERCENT
+        int findFree(Random random) {
+            for (int probe = 0; probe < RANDOM_PROBES; probe++) {
+                int word = random.nextInt(words.length);
+                if (words[word] != -1L) {
+                    return freeBit(word, random);
+                }
+            }
+            // Unlucky probes: walk the full-word bitmap from a random point instead
+            int start = random.nextInt(fullWords.length);
+            for (int i = 0; i < fullWords.length; i++) {
+                int group = (start + i) % fullWords.length;
+                long open = ~fullWords[group];
+                if (group == fullWords.length - 1 && words.length % 64 != 0) {
+                    open &= (1L << words.length % 64) - 1;
+                }
+                if (open != 0) {
+                    return freeBit(group * 64 + Long.numberOfTrailingZeros(open), random);
+                }
+            }
+            throw new IllegalStateException("Code space is full");
+        }
+        
+        // A random clear bit of a word that has one
+        private int freeBit(int word, Random random) {
+            int shift = random.nextInt(64);
+            long free = Long.rotateRight(~words[word], shift);
+            int bit = (Long.numberOfTrailingZeros(free) + shift) & 63;
+            return word * 64 + bit;
+        }
+    }
+}
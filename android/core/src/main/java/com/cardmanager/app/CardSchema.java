@@ -0,0 +1,188 @@
+package com.cardmanager.app;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+// The cards table and the SQL that reads and writes it, kept free of Android so
+// the JMH suite runs the statements the app runs, over a JDBC SQLite driver.
+// DatabaseHelper executes them on the device.
+final class CardSchema {
+    
+    // Cards Table
+    static final String TABLE_CARDS = "cards";
+    static final String CARD_ID = "id";
+    static final String CARD_CODE = "code";
+    static final String CARD_NAME = "name";
+    static final String CARD_GENDER = "gender";
+    static final String CARD_PHONE = "phone";
+    static final String CARD_EMAIL = "email";
+    static final String CARD_ADDRESS = "address";
+    // Images are kept in the BlobStore; rows hold their content hashes
+    static final String CARD_PHOTO_HASH = "photo_hash";
+    static final String CARD_ID_FRONT_HASH = "id_front_hash";
+    static final String CARD_ID_BACK_HASH = "id_back_hash";
+    // Legacy inline image columns, emptied by DatabaseHelper.migrateInlineImages()
+    static final String CARD_PHOTO = "photo";
+    static final String CARD_ID_FRONT = "id_front";
+    static final String CARD_ID_BACK = "id_back";
+    static final String CARD_NOTES = "notes";
+    static final String CARD_BIRTHDAY = "birthday";
+    
+    // Column order read by DatabaseHelper.readCard()
+    static final String CARD_COLUMNS = CARD_ID + ", " + CARD_CODE + ", " + CARD_NAME + ", "
+            + CARD_GENDER + ", " + CARD_PHONE + ", " + CARD_EMAIL + ", " + CARD_ADDRESS + ", "
+            + CARD_PHOTO_HASH + ", " + CARD_ID_FRONT_HASH + ", " + CARD_ID_BACK_HASH + ", "
+            + CARD_NOTES + ", " + CARD_BIRTHDAY;
+    
+    // Cards Full-Text Index (external content, rows live in the cards table)
+    static final String TABLE_CARDS_FTS = "cards_fts";
+    static final String CARD_FTS_COLUMNS = CARD_NAME + ", " + CARD_CODE + ", " + CARD_PHONE + ", "
+            + CARD_EMAIL + ", " + CARD_ADDRESS + ", " + CARD_NOTES;
+    // Relevance weight of each indexed column, in the order above
+    static final double[] CARD_FTS_WEIGHTS = {10.0, 8.0, 5.0, 5.0, 2.0, 1.0};
+    
+    // Legacy inline columns and the hash columns their images move to, in the same order
+    static final String[] INLINE_IMAGE_COLUMNS = {CARD_PHOTO, CARD_ID_FRONT, CARD_ID_BACK};
+    static final String[] IMAGE_HASH_COLUMNS = {CARD_PHOTO_HASH, CARD_ID_FRONT_HASH, CARD_ID_BACK_HASH};
+    
+    static final String SQL_CREATE_CARDS = "CREATE TABLE " + TABLE_CARDS + "("
+            + CARD_ID + " INTEGER PRIMARY KEY AUTOINCREMENT,"
+            + CARD_CODE + " TEXT UNIQUE,"
+            + CARD_NAME + " TEXT,"
+            + CARD_GENDER + " TEXT,"
+            + CARD_PHONE + " TEXT,"
+            + CARD_EMAIL + " TEXT,"
+            + CARD_ADDRESS + " TEXT,"
+            + CARD_PHOTO + " TEXT,"
+            + CARD_ID_FRONT + " TEXT,"
+            + CARD_ID_BACK + " TEXT,"
+            + CARD_NOTES + " TEXT,"
+            + CARD_BIRTHDAY + " TEXT,"
+            + CARD_PHOTO_HASH + " TEXT,"
+            + CARD_ID_FRONT_HASH + " TEXT,"
+            + CARD_ID_BACK_HASH + " TEXT"
+            + ")";
+    
+    // Compiled Card Statements
+    static final String SQL_INSERT_CARD = "INSERT INTO " + TABLE_CARDS + "("
+            + CARD_CODE + "," + CARD_NAME + "," + CARD_GENDER + "," + CARD_PHONE + ","
+            + CARD_EMAIL + "," + CARD_ADDRESS + "," + CARD_PHOTO_HASH + "," + CARD_ID_FRONT_HASH + ","
+            + CARD_ID_BACK_HASH + "," + CARD_NOTES + "," + CARD_BIRTHDAY
+            + ") VALUES (?,?,?,?,?,?,?,?,?,?,?)";
+    static final String SQL_UPDATE_CARD = "UPDATE " + TABLE_CARDS + " SET "
+            + CARD_CODE + " = ?," + CARD_NAME + " = ?," + CARD_GENDER + " = ?,"
+            + CARD_PHONE + " = ?," + CARD_EMAIL + " = ?," + CARD_ADDRESS + " = ?,"
+            + CARD_PHOTO_HASH + " = ?," + CARD_ID_FRONT_HASH + " = ?," + CARD_ID_BACK_HASH + " = ?,"
+            + CARD_NOTES + " = ?," + CARD_BIRTHDAY + " = ?"
+            + " WHERE " + CARD_ID + " = ?";
+    static final String SQL_DELETE_CARD = "DELETE FROM " + TABLE_CARDS
+            + " WHERE " + CARD_ID + " = ?";
+    static final String SQL_SELECT_CARD = "SELECT " + CARD_COLUMNS + " FROM " + TABLE_CARDS
+            + " WHERE " + CARD_ID + " = ?";
+    static final String SQL_SELECT_ALL_CARDS = "SELECT " + CARD_COLUMNS + " FROM " + TABLE_CARDS
+            + " ORDER BY " + CARD_NAME;
+    // Cards with an id above (afterId) that still hold inline images, up to (limit), with
+    // a 0/1 flag for each of INLINE_IMAGE_COLUMNS
+    static final String SQL_SELECT_INLINE_IMAGES = "SELECT " + CARD_ID + ", "
+            + CARD_PHOTO + " != '', " + CARD_ID_FRONT + " != '', " + CARD_ID_BACK + " != ''"
+            + " FROM " + TABLE_CARDS + " WHERE " + CARD_ID + " > ? AND (" + CARD_PHOTO + " IS NOT NULL OR "
+            + CARD_ID_FRONT + " IS NOT NULL OR " + CARD_ID_BACK + " IS NOT NULL)"
+            + " ORDER BY " + CARD_ID + " LIMIT ?";
+    
+    // Light projection for list screens: no notes, and images only by their hash
+    static final String CARD_SUMMARY_COLUMNS = CARD_ID + ", " + CARD_CODE + ", " + CARD_NAME + ", "
+            + CARD_GENDER + ", " + CARD_PHONE + ", " + CARD_EMAIL + ", "
+            + CARD_PHOTO_HASH + ", " + CARD_ID_FRONT_HASH + ", " + CARD_ID_BACK_HASH;
+    
+    // Backs keyset pagination over the (name, id) sort order
+    static final String SQL_CREATE_CARD_NAME_INDEX = "CREATE INDEX IF NOT EXISTS idx_cards_name_id ON "
+            + TABLE_CARDS + "(" + CARD_NAME + ", " + CARD_ID + ")";
+    
+    static final String SQL_CREATE_CARDS_FTS = "CREATE VIRTUAL TABLE IF NOT EXISTS " + TABLE_CARDS_FTS
+            + " USING fts4(content=\"" + TABLE_CARDS + "\", " + CARD_FTS_COLUMNS
+            + ", tokenize=unicode61 \"remove_diacritics=1\")";
+    static final String SQL_REBUILD_CARDS_FTS = "INSERT INTO " + TABLE_CARDS_FTS + "(" + TABLE_CARDS_FTS
+            + ") VALUES ('rebuild')";
+    static final String CARD_FTS_NEW_ROW = "INSERT INTO " + TABLE_CARDS_FTS + "(docid, " + CARD_FTS_COLUMNS
+            + ") VALUES (new." + CARD_ID + ", new." + CARD_NAME + ", new." + CARD_CODE + ", new." + CARD_PHONE
+            + ", new." + CARD_EMAIL + ", new." + CARD_ADDRESS + ", new." + CARD_NOTES + ");";
+    static final String CARD_FTS_OLD_ROW = "DELETE FROM " + TABLE_CARDS_FTS
+            + " WHERE docid = old." + CARD_ID + ";";
+    static final String[] SQL_CREATE_CARDS_FTS_TRIGGERS = {
+        "CREATE TRIGGER IF NOT EXISTS cards_fts_before_update BEFORE UPDATE ON " + TABLE_CARDS
+                + " BEGIN " + CARD_FTS_OLD_ROW + " END",
+        "CREATE TRIGGER IF NOT EXISTS cards_fts_before_delete BEFORE DELETE ON " + TABLE_CARDS
+                + " BEGIN " + CARD_FTS_OLD_ROW + " END",
+        "CREATE TRIGGER IF NOT EXISTS cards_fts_after_update AFTER UPDATE ON " + TABLE_CARDS
+                + " BEGIN " + CARD_FTS_NEW_ROW + " END",
+        "CREATE TRIGGER IF NOT EXISTS cards_fts_after_insert AFTER INSERT ON " + TABLE_CARDS
+                + " BEGIN " + CARD_FTS_NEW_ROW + " END"
+    };
+    
+    // Keyset pages over (name, id). The first page takes (limit); the next ones continue
+    // after the last card, with (name, name, id, limit) or, while still inside the cards
+    // without a name, which sort first, with (id, limit).
+    static final String SQL_SELECT_FIRST_PAGE = "SELECT " + CARD_SUMMARY_COLUMNS + " FROM " + TABLE_CARDS
+            + " ORDER BY " + CARD_NAME + ", " + CARD_ID + " LIMIT ?";
+    static final String SQL_SELECT_PAGE_AFTER_NAME = "SELECT " + CARD_SUMMARY_COLUMNS + " FROM " + TABLE_CARDS
+            + " WHERE " + CARD_NAME + " >= ? AND (" + CARD_NAME + " > ? OR " + CARD_ID + " > ?)"
+            + " ORDER BY " + CARD_NAME + ", " + CARD_ID + " LIMIT ?";
+    static final String SQL_SELECT_PAGE_AFTER_UNNAMED = "SELECT " + CARD_SUMMARY_COLUMNS + " FROM " + TABLE_CARDS
+            + " WHERE " + CARD_NAME + " IS NOT NULL OR " + CARD_ID + " > ?"
+            + " ORDER BY " + CARD_NAME + ", " + CARD_ID + " LIMIT ?";
+    static final String SQL_SELECT_ALL_SUMMARIES = "SELECT " + CARD_SUMMARY_COLUMNS + " FROM " + TABLE_CARDS
+            + " ORDER BY " + CARD_NAME + ", " + CARD_ID;
+    
+    // Followed by a parenthesized list of ids
+    static final String SQL_SELECT_SUMMARIES_BY_ID = "SELECT " + CARD_SUMMARY_COLUMNS + " FROM " + TABLE_CARDS
+            + " WHERE " + CARD_ID + " IN ";
+    
+    // Every match of a buildMatchExpression() query with the matchinfo that score() reads
+    static final String SQL_SEARCH_MATCHES = "SELECT docid, matchinfo(" + TABLE_CARDS_FTS + ", 'pcx') FROM "
+            + TABLE_CARDS_FTS + " WHERE " + TABLE_CARDS_FTS + " MATCH ?";
+    
+    static final String SQL_SELECT_CARD_ID_BY_CODE = "SELECT " + CARD_ID + " FROM "
+            + TABLE_CARDS + " WHERE " + CARD_CODE + " = ?";
+    static final String SQL_SELECT_CARD_CODES = "SELECT " + CARD_CODE + " FROM " + TABLE_CARDS
+            + " WHERE " + CARD_CODE + " IS NOT NULL";
+    
+    private CardSchema() {
+    }
+    
+    // Turns free text into an FTS prefix query: every word must match the start of a token
+    static String buildMatchExpression(String query) {
+        StringBuilder match = new StringBuilder();
+        StringBuilder token = new StringBuilder();
+        for (int i = 0; i <= query.length(); i++) {
+            char c = i < query.length() ? query.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                token.append(c);
+            } else if (token.length() > 0) {
+                if (match.length() > 0) match.append(' ');
+                match.append(token).append('*');
+                token.setLength(0);
+            }
+        }
+        return match.length() > 0 ? match.toString() : null;
+    }
+    
+    // matchinfo 'pcx': phrase count, column count, then per phrase and column the hits
+    // in this row, hits in all rows and rows with a hit, as native-order 32-bit ints
+    static double score(byte[] matchinfo) {
+        ByteBuffer buffer = ByteBuffer.wrap(matchinfo).order(ByteOrder.nativeOrder());
+        int phrases = buffer.getInt(0);
+        int columns = buffer.getInt(4);
+        double score = 0;
+        for (int phrase = 0; phrase < phrases; phrase++) {
+            for (int column = 0; column < columns; column++) {
+                int offset = 8 + 12 * (phrase * columns + column);
+                int rowHits = buffer.getInt(offset);
+                int allHits = buffer.getInt(offset + 4);
+                if (rowHits > 0) {
+                    score += CARD_FTS_WEIGHTS[column] * rowHits / allHits;
+                }
+            }
+        }
+        return score;
+    }
+}
@@ -0,0 +1,85 @@
+package com.cardmanager.app;
+
+// The columns list screens need, without the image and notes payloads of a full Card
+public class CardSummary {
+    private final int id;
+    private final String code;
+    private final String name;
+    private final String gender;
+    private final String phone;
+    private final String email;
+    // BlobStore hashes of the card images, null when not set
+    private final String photoHash;
+    private final String idFrontHash;
+    private final String idBackHash;
+    
+    public CardSummary(int id, String code, String name, String gender, String phone, String email,
+                       String photoHash, String idFrontHash, String idBackHash) {
+        this.id = id;
+        this.code = code;
+        this.name = name;
+        this.gender = gender;
+        this.phone = phone;
+        this.email = email;
+        this.photoHash = emptyToNull(photoHash);
+        this.idFrontHash = emptyToNull(idFrontHash);
+        this.idBackHash = emptyToNull(idBackHash);
+    }
+    
+    public CardSummary(Card card) {
+        this(card.getId(), card.getCode(), card.getName(), card.getGender(), card.getPhone(), card.getEmail(),
+             card.getPhoto(), card.getIdFront(), card.getIdBack());
+    }
+    
+    private static String emptyToNull(String value) {
+        return value == null || value.isEmpty() ? null : value;
+    }
+    
+    // Same order as the (name, id) index: missing names first, then by name and id
+    static int compareByName(CardSummary a, CardSummary b) {
+        String nameA = a.getName();
+        String nameB = b.getName();
+        if (nameA == null || nameB == null) {
+            if (nameA != null) return 1;
+            if (nameB != null) return -1;
+        } else {
+            int byName = compareBinary(nameA, nameB);
+            if (byName != 0) {
+                return byName;
+            }
+        }
+        return Integer.compare(a.getId(), b.getId());
+    }
+    
+    // Orders strings as SQLite's BINARY collation does, by their UTF-8 bytes. That is
+    // code point order, which String.compareTo is not: it compares UTF-16 units, so
+    // characters above U+FFFF would sort before those from U+E000 to U+FFFF.
+    private static int compareBinary(String a, String b) {
+        int i = 0;
+        int j = 0;
+        while (i < a.length() && j < b.length()) {
+            int codePointA = a.codePointAt(i);
+            int codePointB = b.codePointAt(j);
+            if (codePointA != codePointB) {
+                return Integer.compare(codePointA, codePointB);
+            }
+            i += Character.charCount(codePointA);
+            j += Character.charCount(codePointB);
+        }
+        return Integer.compare(a.length() - i, b.length() - j);
+    }
+    
+    // Getters
+    public int getId() { return id; }
+    public String getCode() { return code; }
+    public String getName() { return name; }
+    public String getGender() { return gender; }
+    public String getPhone() { return phone; }
+    public String getEmail() { return email; }
+    public String getPhotoHash() { return photoHash; }
+    public String getIdFrontHash() { return idFrontHash; }
+    public String getIdBackHash() { return idBackHash; }
+    public boolean hasPhoto() { return photoHash != null; }
+    public boolean hasIdFront() { return idFrontHash != null; }
+    public boolean hasIdBack() { return idBackHash != null; }
+}
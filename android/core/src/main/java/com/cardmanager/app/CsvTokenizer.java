@@ -0,0 +1,261 @@
+package com.cardmanager.app;
+
+import java.io.IOException;
+import java.io.Reader;
+
+// Streaming RFC 4180 CSV reader. Quoted cells may contain commas, doubled quotes
+// and line breaks; rows may end in LF, CRLF or a lone CR. Each cell is passed to
+// the handler as a CharSequence that points into the input or a reused buffer, so
+// nothing is allocated per cell; copy it with toString() to keep it.
+public class CsvTokenizer {
+    
+    public interface Handler {
+        // value is only valid until this call returns
+        void onCell(int row, int column, CharSequence value);
+        
+        default void onRowEnd(int row, int columnCount) {
+        }
+    }
+    
+    private static final int BUFFER_SIZE = 64 * 1024;
+    
+    private static final int START = 0;
+    private static final int UNQUOTED = 1;
+    private static final int QUOTED = 2;
+    // A quote inside a quoted cell: either the closing one or the first of a ""
+    private static final int QUOTE_IN_QUOTED = 3;
+    
+    private final Handler handler;
+    private final CellView cell = new CellView();
+    
+    // Cells that cross an input buffer or contain "" are copied here; others are
+    // handed out straight from the input
+    private char[] scratch = new char[256];
+    private int scratchLength;
+    private boolean inScratch;
+    private int cellStart;
+    private int quoteIndex;
+    
+    private int state;
+    private boolean rowStarted;
+    private boolean skipLineFeed;
+    private int row;
+    private int column;
+    
+    public CsvTokenizer(Handler handler) {
+        this.handler = handler;
+    }
+    
+    public void parse(Reader reader) throws IOException {
+        reset();
+        char[] buffer = new char[BUFFER_SIZE];
+        int read;
+        while ((read = reader.read(buffer, 0, buffer.length)) != -1) {
+            consume(buffer, 0, read);
+        }
+        finish();
+    }
+    
+    public void parse(char[] data, int offset, int length) {
+        reset();
+        consume(data, offset, offset + length);
+        finish();
+    }
+    
+    public void parse(CharSequence text) {
+        char[] data = text.toString().toCharArray();
+        parse(data, 0, data.length);
+    }
+    
+    // Appends a value so that the tokenizer reads it back unchanged
+    public static void appendCell(StringBuilder out, CharSequence value) {
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            out.append(value);
+            return;
+        }
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') out.append('"');
+            out.append(c);
+        }
+        out.append('"');
+    }
+    
+    private void reset() {
+        state = START;
+        inScratch = false;
+        scratchLength = 0;
+        rowStarted = false;
+        skipLineFeed = false;
+        row = 0;
+        column = 0;
+    }
+    
+    private void consume(char[] data, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = data[i];
+            if (skipLineFeed) {
+                skipLineFeed = false;
+                if (c == '\n') {
+                    continue;
+                }
+            }
+            
+            switch (state) {
+                case START:
+                    rowStarted = true;
+                    cellStart = c == '"' ? i + 1 : i;
+                    inScratch = false;
+                    scratchLength = 0;
+                    if (c == '"') {
+                        state = QUOTED;
+                    } else if (c == ',') {
+                        emitCell(data, i);
+                    } else if (c == '\n' || c == '\r') {
+                        emitCell(data, i);
+                        endRow(c);
+                    } else {
+                        state = UNQUOTED;
+                    }
+                    break;
+                case UNQUOTED:
+                    if (c == ',') {
+                        emitCell(data, i);
+                    } else if (c == '\n' || c == '\r') {
+                        emitCell(data, i);
+                        endRow(c);
+                    } else if (inScratch) {
+                        append(c);
+                    }
+                    break;
+                case QUOTED:
+                    if (c == '"') {
+                        state = QUOTE_IN_QUOTED;
+                        quoteIndex = i;
+                    } else if (inScratch) {
+                        append(c);
+                    }
+                    break;
+                case QUOTE_IN_QUOTED:
+                    if (c == '"') {
+                        // Escaped quote: keep one of the two
+                        if (inScratch) {
+                            append('"');
+                        } else {
+                            moveToScratch(data, i);
+                        }
+                        state = QUOTED;
+                    } else if (c == ',') {
+                        emitCell(data, quoteIndex);
+                    } else if (c == '\n' || c == '\r') {
+                        emitCell(data, quoteIndex);
+                        endRow(c);
+                    } else {
+                        // Text after the closing quote; keep it rather than fail
+                        if (!inScratch) {
+                            moveToScratch(data, quoteIndex);
+                        }
+                        append(c);
+                        state = UNQUOTED;
+                    }
+                    break;
+            }
+        }
+        
+        // The input ends inside a cell: keep what has been read before the buffer is reused
+        if (state != START && !inScratch) {
+            moveToScratch(data, state == QUOTE_IN_QUOTED ? quoteIndex : end);
+        }
+    }
+    
+    private void finish() {
+        if (state != START || rowStarted) {
+            // Unterminated quotes are read to the end of the input
+            emitCell(null, 0);
+            handler.onRowEnd(row, column);
+        }
+        state = START;
+    }
+    
+    private void emitCell(char[] data, int end) {
+        if (inScratch || data == null) {
+            cell.set(scratch, 0, scratchLength);
+        } else {
+            cell.set(data, cellStart, end - cellStart);
+        }
+        handler.onCell(row, column++, cell);
+        state = START;
+        inScratch = false;
+        scratchLength = 0;
+    }
+    
+    private void endRow(char c) {
+        handler.onRowEnd(row, column);
+        row++;
+        column = 0;
+        rowStarted = false;
+        skipLineFeed = c == '\r';
+    }
+    
+    private void moveToScratch(char[] data, int end) {
+        scratchLength = 0;
+        for (int i = cellStart; i < end; i++) {
+            append(data[i]);
+        }
+        inScratch = true;
+    }
+    
+    private void append(char c) {
+        if (scratchLength == scratch.length) {
+            char[] grown = new char[scratch.length * 2];
+            System.arraycopy(scratch, 0, grown, 0, scratchLength);
+            scratch = grown;
+        }
+        scratch[scratchLength++] = c;
+    }
+    
+    // Reused view of the current cell's characters
+    private static final class CellView implements CharSequence {
+        private char[] chars;
+        private int start;
+        private int length;
+        
+        void set(char[] chars, int start, int length) {
+            this.chars = chars;
+            this.start = start;
+            this.length = length;
+        }
+        
+        @Override
+        public int length() {
+            return length;
+        }
+        
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= length) {
+                throw new IndexOutOfBoundsException("index " + index + ", length " + length);
+            }
+            return chars[start + index];
+        }
+        
+        @Override
+        public CharSequence subSequence(int from, int to) {
+            if (from < 0 || to > length || from > to) {
+                throw new IndexOutOfBoundsException("range " + from + ".." + to + ", length " + length);
+            }
+            return new String(chars, start + from, to - from);
+        }
+        
+        @Override
+        public String toString() {
+            return new String(chars, start, length);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.cardmanager.app;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+// The rows that a burst of writes changed, by table. DataRepository hands one to
+// its change listeners after the writes have committed. A table can also be
+// marked as changed as a whole when the writes did not say which rows they hit.
+public class DataChange {
+    
+    public static final String CARDS = "cards";
+    public static final String MEDIA = "media";
+    public static final String SPREADSHEETS = "excel_files";
+    
+    // A null set stands for every row of the table
+    private final Map<String, Set<Integer>> rows = new HashMap<>();
+    
+    void add(String table, int id) {
+        if (!rows.containsKey(table)) {
+            rows.put(table, new HashSet<>());
+        }
+        Set<Integer> ids = rows.get(table);
+        if (ids != null) {
+            ids.add(id);
+        }
+    }
+    
+    void addTable(String table) {
+        rows.put(table, null);
+    }
+    
+    void addAll(DataChange other) {
+        for (Map.Entry<String, Set<Integer>> entry : other.rows.entrySet()) {
+            if (entry.getValue() == null) {
+                addTable(entry.getKey());
+            } else {
+                for (int id : entry.getValue()) {
+                    add(entry.getKey(), id);
+                }
+            }
+        }
+    }
+    
+    public boolean isEmpty() {
+        return rows.isEmpty();
+    }
+    
+    public boolean contains(String table) {
+        return rows.containsKey(table);
+    }
+    
+    // Ids of the inserted, updated or deleted rows; null when any row may have changed
+    public Set<Integer> getIds(String table) {
+        if (!rows.containsKey(table)) {
+            return Collections.emptySet();
+        }
+        Set<Integer> ids = rows.get(table);
+        return ids != null ? Collections.unmodifiableSet(ids) : null;
+    }
+}
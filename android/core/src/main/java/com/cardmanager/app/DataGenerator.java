@@ -0,0 +1,265 @@
+package com.cardmanager.app;
+
+import java.io.IOException;
+import java.text.Normalizer;
+import java.util.Calendar;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+// Synthetic cards, media and spreadsheets for reproducing large databases. Every
+// item is derived from the seed and its own index only, so a 10k data set starts
+// with the same 1k items as the 1k one and any item can be rebuilt on its own.
+// Lengths follow what real entries look like: short names, full addresses, notes
+// that are usually empty or a few sentences, and image payloads of camera size.
+final class DataGenerator {
+    
+    // The shape of the databases users build up: 50k cards, 100k media, 500 sheets
+    static final int MEDIA_PER_CARD = 2;
+    static final int CARDS_PER_SHEET = 100;
+    
+    static final int KIND_CARD_PHOTO = 0;
+    static final int KIND_ID_SCAN = 1;
+    static final int KIND_PHOTO = 2;
+    static final int KIND_VIDEO = 3;
+    static final int KIND_DOCUMENT = 4;
+    
+    // Smallest and largest payload of each kind, in bytes
+    private static final int[][] PAYLOAD_SIZES = {
+            {40 << 10, 120 << 10},   // camera thumbnail saved as the card photo
+            {150 << 10, 400 << 10},  // ID card side
+            {1 << 20, 4 << 20},      // gallery photo
+            {5 << 20, 20 << 20},     // short video
+            {100 << 10, 2 << 20},    // PDF
+    };
+    
+    private static final String[] FIRST_NAMES = {"Anna", "Bruno", "Carla", "David", "Elena", "Felix", "Grace",
+            "Hugo", "Irene", "José", "Karin", "Luis", "María", "Noah", "Olga", "Pablo", "Quentin", "Rosa",
+            "Sofía", "Tomás", "Ursula", "Víctor", "Wen", "Ximena", "Yusuf", "Zoë", "Ana Belén", "Juan Carlos"};
+    private static final String[] LAST_NAMES = {"Almeida", "Becker", "Castro", "Dubois", "Evans", "Fischer",
+            "García", "Hansen", "Ivanova", "Jensen", "Kowalski", "López", "Müller", "Nakamura", "Ortega", "Pérez",
+            "Quintero", "Rossi", "Schneider", "Torres", "Urban", "Vázquez", "Wagner", "Xu", "Yilmaz", "Zimmermann",
+            "de la Fuente", "Fernández de Córdoba"};
+    private static final String[] STREETS = {"Calle Mayor", "Avenida de la Constitución", "Gran Vía",
+            "Paseo de Gracia", "Calle del Carmen", "Rambla Nova", "Calle San Vicente Mártir", "Plaza de España",
+            "Camino de Ronda", "Calle Real"};
+    private static final String[] CITIES = {"Madrid", "Barcelona", "Valencia", "Sevilla", "Zaragoza", "Málaga",
+            "Bilbao", "Granada", "Alicante", "Valladolid"};
+    private static final String[] DOMAINS = {"gmail.com", "hotmail.com", "yahoo.es", "outlook.com",
+            "icloud.com", "telefonica.net"};
+    private static final String[] WORDS = {"met", "at", "the", "fair", "prefers", "email", "calls", "after",
+            "six", "follow", "up", "about", "order", "invoice", "pending", "referred", "by", "cousin", "interested",
+            "in", "renewal", "visit", "office", "next", "week", "allergic", "to", "nuts", "birthday", "gift",
+            "sent", "paid", "deposit", "cash", "new", "address", "since", "March", "speaks", "English", "only"};
+    private static final String[] PRODUCTS = {"Widget", "Bracket", "Cable 2m", "Adapter", "Cover",
+            "Battery pack", "Charger", "Mount", "Screen protector", "Case"};
+    private static final String[] SHEET_TOPICS = {"Inventory", "Orders", "Expenses", "Clients", "Stock",
+            "Sales", "Budget", "Attendance"};
+    
+    // 2022-01-01T00:00:00Z; media are spread over the following years from here
+    private static final long FIRST_MEDIA_MILLIS = 1640995200000L;
+    private static final long MAX_MEDIA_GAP_MILLIS = 4 * 60 * 60 * 1000L;
+    
+    private final long seed;
+    
+    DataGenerator(long seed) {
+        this.seed = seed;
+    }
+    
+    static int mediaCount(int cardCount) {
+        return cardCount * MEDIA_PER_CARD;
+    }
+    
+    static int sheetCount(int cardCount) {
+        return Math.max(1, cardCount / CARDS_PER_SHEET);
+    }
+    
+    // Codes are left to the database, which allocates them on insert, and images to
+    // the caller, which stores the payloads picked by cardPhotoVariant() and idScanVariant()
+    Card card(int index) {
+        Random random = random(1, index);
+        String first = pick(random, FIRST_NAMES);
+        String last = pick(random, LAST_NAMES);
+        if (random.nextInt(3) == 0) {
+            last += " " + pick(random, LAST_NAMES);
+        }
+        String name = first + " " + last;
+        String email = random.nextInt(10) < 8
+                ? emailLocalPart(first, last, random) + "@" + pick(random, DOMAINS) : null;
+        String phone = String.format(Locale.ROOT, "+34 6%02d %03d %03d",
+                random.nextInt(100), random.nextInt(1000), random.nextInt(1000));
+        String address = random.nextInt(10) < 7
+                ? pick(random, STREETS) + " " + (1 + random.nextInt(200)) + ", " + (1 + random.nextInt(9)) + "º "
+                + (char) ('A' + random.nextInt(4)) + ", " + (10000 + random.nextInt(40000)) + " "
+                + pick(random, CITIES) : null;
+        String birthday = random.nextInt(10) < 6 ? String.format(Locale.ROOT, "%04d-%02d-%02d",
+                1940 + random.nextInt(66), 1 + random.nextInt(12), 1 + random.nextInt(28)) : null;
+        return new Card(null, name, random.nextBoolean() ? "female" : "male", phone, email, address,
+                null, null, null, notes(random), birthday);
+    }
+    
+    // Which payload variant of KIND_CARD_PHOTO the card's photo is, or -1 for none
+    int cardPhotoVariant(int index, int variants) {
+        Random random = random(2, index);
+        return random.nextInt(10) < 7 ? random.nextInt(variants) : -1;
+    }
+    
+    // Which payload variant of KIND_ID_SCAN both ID sides are, or -1 for none
+    int idScanVariant(int index, int variants) {
+        Random random = random(3, index);
+        return random.nextInt(10) < 3 ? random.nextInt(variants) : -1;
+    }
+    
+    // The card a media item belongs to. A few cards collect most of the media, as
+    // they do for real users.
+    int mediaOwner(int index, int cardCount) {
+        double position = random(4, index).nextDouble();
+        return (int) (cardCount * position * position);
+    }
+    
+    int mediaKind(int index) {
+        int roll = random(5, index).nextInt(10);
+        return roll < 8 ? KIND_PHOTO : roll < 9 ? KIND_VIDEO : KIND_DOCUMENT;
+    }
+    
+    // The item without its hash; the caller stores a payload and sets it
+    MediaItem media(int index, int cardId) {
+        Random random = random(6, index);
+        long created = FIRST_MEDIA_MILLIS + index * (MAX_MEDIA_GAP_MILLIS / 2)
+                + (long) (random.nextDouble() * MAX_MEDIA_GAP_MILLIS);
+        Calendar time = Calendar.getInstance(TimeZone.getTimeZone("UTC"), Locale.ROOT);
+        time.setTimeInMillis(created);
+        String stamp = String.format(Locale.ROOT, "%1$tY%1$tm%1$td_%1$tH%1$tM%1$tS", time);
+        MediaItem item;
+        switch (mediaKind(index)) {
+            case KIND_VIDEO:
+                item = new MediaItem(cardId, "VID_" + stamp + ".mp4", MediaItem.TYPE_VIDEO);
+                break;
+            case KIND_DOCUMENT:
+                item = new MediaItem(cardId, pick(random, SHEET_TOPICS) + " " + stamp.substring(0, 8) + ".pdf",
+                        MediaItem.TYPE_DOCUMENT);
+                break;
+            default:
+                item = new MediaItem(cardId, "IMG_" + stamp + ".jpg", MediaItem.TYPE_PHOTO);
+                break;
+        }
+        item.setCreatedDate(created);
+        return item;
+    }
+    
+    // The bytes of a stored file: random, so they do not compress any more than
+    // real JPEG or MP4 data, behind the header a file of that kind starts with
+    byte[] payload(int kind, int variant) {
+        Random random = random(7 + kind, variant);
+        int[] size = PAYLOAD_SIZES[kind];
+        byte[] data = new byte[size[0] + random.nextInt(size[1] - size[0] + 1)];
+        random.nextBytes(data);
+        byte[] header;
+        switch (kind) {
+            case KIND_VIDEO:
+                header = new byte[]{0, 0, 0, 0x18, 'f', 't', 'y', 'p', 'm', 'p', '4', '2'};
+                break;
+            case KIND_DOCUMENT:
+                header = new byte[]{'%', 'P', 'D', 'F', '-', '1', '.', '7', '\n'};
+                break;
+            default:
+                header = new byte[]{(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xE0};
+                data[data.length - 2] = (byte) 0xFF;
+                data[data.length - 1] = (byte) 0xD9;
+                break;
+        }
+        System.arraycopy(header, 0, data, 0, header.length);
+        return data;
+    }
+    
+    String sheetName(int index) {
+        Random random = random(20, index);
+        return pick(random, SHEET_TOPICS) + " " + (2015 + random.nextInt(10)) + " #" + (index + 1);
+    }
+    
+    // Fills a sheet the way an import would: a header row, then rows of ids, names,
+    // dates, amounts and a formula, with some cells left empty. Most sheets have a
+    // few hundred rows; a few have thousands.
+    void sheet(int index, SheetBuilder builder) throws IOException {
+        Random random = random(21, index);
+        double size = random.nextDouble();
+        int rows = 20 + (int) (size * size * size * 2000);
+        int columns = 4 + random.nextInt(11);
+        
+        String[] header = new String[columns];
+        for (int column = 0; column < columns; column++) {
+            header[column] = column == 0 ? "ID" : column == columns - 1 ? "Total"
+                    : pick(random, SHEET_TOPICS) + " " + column;
+        }
+        builder.setRow(0, header);
+        
+        for (int row = 1; row <= rows; row++) {
+            String[] cells = new String[columns];
+            for (int column = 0; column < columns; column++) {
+                if (column > 0 && random.nextInt(10) == 0) {
+                    continue;
+                }
+                switch (column == columns - 1 ? 4 : column % 4) {
+                    case 0:
+                        cells[column] = String.valueOf(1000 + row);
+                        break;
+                    case 1:
+                        cells[column] = random.nextBoolean() ? pick(random, PRODUCTS)
+                                : pick(random, FIRST_NAMES) + " " + pick(random, LAST_NAMES);
+                        break;
+                    case 2:
+                        cells[column] = String.format(Locale.ROOT, "%04d-%02d-%02d",
+                                2015 + random.nextInt(10), 1 + random.nextInt(12), 1 + random.nextInt(28));
+                        break;
+                    case 3:
+                        cells[column] = String.format(Locale.ROOT, "%.2f", random.nextInt(1000000) / 100.0);
+                        break;
+                    default:
+                        cells[column] = "=SUM(A" + (row + 1) + ":" + (char) ('A' + column - 1) + (row + 1) + ")";
+                        break;
+                }
+            }
+            builder.setRow(row, cells);
+        }
+    }
+    
+    private Random random(int stream, int index) {
+        // Mixed so that neighbouring indexes and streams do not get related sequences
+        long mixed = seed * 0x9E3779B97F4A7C15L + stream * 0xC2B2AE3D27D4EB4FL + index * 0x165667B19E3779F9L;
+        return new Random(mixed ^ (mixed >>> 29));
+    }
+    
+    private static String pick(Random random, String[] values) {
+        return values[random.nextInt(values.length)];
+    }
+    
+    private static String emailLocalPart(String first, String last, Random random) {
+        // Without accents, as addresses are written
+        String local = Normalizer.normalize(first + "." + last, Normalizer.Form.NFD)
+                .replaceAll("\\p{M}", "").toLowerCase(Locale.ROOT).replace(' ', '.');
+        return random.nextBoolean() ? local : local + (random.nextInt(90) + 10);
+    }
+    
+    // Four in ten cards have no notes; the rest have one to six short sentences
+    private static String notes(Random random) {
+        if (random.nextInt(10) < 4) {
+            return null;
+        }
+        StringBuilder notes = new StringBuilder();
+        int sentences = 1 + random.nextInt(6);
+        for (int sentence = 0; sentence < sentences; sentence++) {
+            int words = 3 + random.nextInt(10);
+            for (int word = 0; word < words; word++) {
+                String value = pick(random, WORDS);
+                if (word == 0) {
+                    if (sentence > 0) notes.append(' ');
+                    notes.append(Character.toUpperCase(value.charAt(0))).append(value, 1, value.length());
+                } else {
+                    notes.append(' ').append(value);
+                }
+            }
+            notes.append('.');
+        }
+        return notes.toString();
+    }
+}
@@ -0,0 +1,398 @@
+package com.cardmanager.app;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Evaluates the formulas of a sheet ("=SUM(A1:A10)*2") and keeps them up to date.
+// Each formula's references are indexed by the cells they read: single cells in a
+// map, ranges in buckets per column and block of rows. An edit looks up only the
+// formulas that read the edited cell, follows them transitively, and re-evaluates
+// that set in dependency order, so its cost depends on what is downstream of the
+// edit, not on the size of the sheet. Formulas left over by the ordering are in a
+// cycle and evaluate to #CYCLE!.
+//
+// Only formulas are held here, with their computed values. Every other cell is
+// read through the CellSource when a formula needs it, so an open sheet is not
+// kept a second time as boxed values.
+//
+// Values are Double, String, Boolean, Error, or null for an empty cell.
+public class FormulaEngine {
+    
+    // The input of every cell, as typed. It must already hold the new input when
+    // putCell() or setCell() is called for a cell.
+    public interface CellSource {
+        String getInput(int row, int column);
+    }
+    
+    public enum Error {
+        DIV_ZERO("#DIV/0!"),
+        VALUE("#VALUE!"),
+        REF("#REF!"),
+        NAME("#NAME?"),
+        NOT_AVAILABLE("#N/A"),
+        CYCLE("#CYCLE!");
+        
+        private final String text;
+        
+        Error(String text) {
+            this.text = text;
+        }
+        
+        @Override
+        public String toString() {
+            return text;
+        }
+    }
+    
+    // A rectangular block of cells, as passed to functions like SUM
+    public static final class Range {
+        final int firstRow;
+        final int firstColumn;
+        final int lastRow;
+        final int lastColumn;
+        
+        Range(int firstRow, int firstColumn, int lastRow, int lastColumn) {
+            this.firstRow = firstRow;
+            this.firstColumn = firstColumn;
+            this.lastRow = lastRow;
+            this.lastColumn = lastColumn;
+        }
+    }
+    
+    // Rows per range-dependency bucket. A range is listed in every bucket it
+    // overlaps, and a lookup only scans the bucket of the edited cell.
+    private static final int BLOCK_ROWS = 256;
+    
+    private static final class Formula {
+        final long key;
+        final FormulaParser.Node node;
+        final List<int[]> references;
+        
+        Formula(long key, FormulaParser.Node node, List<int[]> references) {
+            this.key = key;
+            this.node = node;
+            this.references = references;
+        }
+    }
+    
+    private final CellSource cells;
+    // The computed value of each formula
+    private final Map<Long, Object> values = new HashMap<>();
+    private final Map<Long, Formula> formulas = new HashMap<>();
+    // Cell -> formulas that reference it directly
+    private final Map<Long, Set<Long>> cellDependents = new HashMap<>();
+    // (column, row block) -> formulas whose ranges cover part of that block
+    private final Map<Long, Set<Formula>> rangeDependents = new HashMap<>();
+    // Cells changed since the last recalculation
+    private final Set<Long> pending = new LinkedHashSet<>();
+    
+    public FormulaEngine(CellSource cells) {
+        this.cells = cells;
+    }
+    
+    public static boolean isFormula(String input) {
+        return input != null && input.length() > 1 && input.charAt(0) == '=';
+    }
+    
+    public static long key(int row, int column) {
+        return ((long) row << 32) | (column & 0xFFFFFFFFL);
+    }
+    
+    public static int rowOf(long key) {
+        return (int) (key >>> 32);
+    }
+    
+    public static int columnOf(long key) {
+        return (int) key;
+    }
+    
+    // Takes a cell's new input without recalculating; call recalculate() after a batch.
+    // A formula is parsed and registered. Any other input is left in the CellSource
+    // and only queued when a formula reads the cell.
+    public void putCell(int row, int column, String input) {
+        long key = key(row, column);
+        Formula old = formulas.remove(key);
+        if (old != null) {
+            unregister(old);
+            values.remove(key);
+        }
+        
+        if (isFormula(input)) {
+            List<int[]> references = new ArrayList<>();
+            FormulaParser.Node node;
+            try {
+                node = FormulaParser.parse(input.substring(1), references);
+            } catch (FormulaParser.ParseException e) {
+                references.clear();
+                node = engine -> Error.NAME;
+            }
+            Formula formula = new Formula(key, node, references);
+            formulas.put(key, formula);
+            register(formula);
+            pending.add(key);
+        } else if (old != null || !dependentsOf(key).isEmpty()) {
+            pending.add(key);
+        }
+    }
+    
+    // Sets one cell and recalculates what depends on it. Returns the keys of every
+    // cell whose value may have changed, the edited cell included.
+    public Set<Long> setCell(int row, int column, String input) {
+        putCell(row, column, input);
+        return recalculate();
+    }
+    
+    public Set<Long> recalculate() {
+        Set<Long> seeds = new LinkedHashSet<>(pending);
+        pending.clear();
+        
+        // Every formula downstream of a changed cell, plus changed formulas themselves
+        Set<Long> affected = new LinkedHashSet<>();
+        ArrayDeque<Long> queue = new ArrayDeque<>();
+        for (long seed : seeds) {
+            if (formulas.containsKey(seed) && affected.add(seed)) {
+                queue.add(seed);
+            }
+        }
+        for (long seed : seeds) {
+            for (long dependent : dependentsOf(seed)) {
+                if (affected.add(dependent)) {
+                    queue.add(dependent);
+                }
+            }
+        }
+        while (!queue.isEmpty()) {
+            for (long dependent : dependentsOf(queue.poll())) {
+                if (affected.add(dependent)) {
+                    queue.add(dependent);
+                }
+            }
+        }
+        
+        // Kahn's algorithm over the affected formulas
+        Map<Long, int[]> inDegree = new HashMap<>();
+        for (long key : affected) {
+            inDegree.put(key, new int[1]);
+        }
+        for (long key : affected) {
+            for (long dependent : dependentsOf(key)) {
+                int[] degree = inDegree.get(dependent);
+                if (degree != null) {
+                    degree[0]++;
+                }
+            }
+        }
+        ArrayDeque<Long> ready = new ArrayDeque<>();
+        for (Map.Entry<Long, int[]> entry : inDegree.entrySet()) {
+            if (entry.getValue()[0] == 0) {
+                ready.add(entry.getKey());
+            }
+        }
+        while (!ready.isEmpty()) {
+            long key = ready.poll();
+            Formula formula = formulas.get(key);
+            store(key, scalar(formula.node.eval(this)));
+            inDegree.remove(key);
+            for (long dependent : dependentsOf(key)) {
+                int[] degree = inDegree.get(dependent);
+                if (degree != null && --degree[0] == 0) {
+                    ready.add(dependent);
+                }
+            }
+        }
+        // Whatever could not be ordered is in a cycle or downstream of one
+        for (long key : inDegree.keySet()) {
+            values.put(key, Error.CYCLE);
+        }
+        
+        Set<Long> changed = new LinkedHashSet<>(seeds);
+        changed.addAll(affected);
+        return changed;
+    }
+    
+    public Object getValue(int row, int column) {
+        return valueAt(row, column);
+    }
+    
+    public boolean isFormula(int row, int column) {
+        return formulas.containsKey(key(row, column));
+    }
+    
+    // The value as the grid shows it
+    public String getDisplayValue(int row, int column) {
+        Object value = getValue(row, column);
+        return value == null ? null : toText(value);
+    }
+    
+    public int getFormulaCount() {
+        return formulas.size();
+    }
+    
+    Object valueAt(int row, int column) {
+        long key = key(row, column);
+        if (formulas.containsKey(key)) {
+            return values.get(key);
+        }
+        String input = cells.getInput(row, column);
+        // A formula that has not been put yet counts as empty until it is
+        return isFormula(input) ? null : literal(input);
+    }
+    
+    private void store(long key, Object value) {
+        if (value == null) {
+            values.remove(key);
+        } else {
+            values.put(key, value);
+        }
+    }
+    
+    private Collection<Long> dependentsOf(long key) {
+        Set<Long> direct = cellDependents.get(key);
+        Set<Formula> ranged = rangeDependents.get(bucket(columnOf(key), rowOf(key) / BLOCK_ROWS));
+        if (ranged == null) {
+            return direct != null ? direct : new ArrayList<>(0);
+        }
+        int row = rowOf(key);
+        int column = columnOf(key);
+        List<Long> dependents = direct != null ? new ArrayList<>(direct) : new ArrayList<>();
+        for (Formula formula : ranged) {
+            for (int[] ref : formula.references) {
+                if (ref[0] != ref[2] || ref[1] != ref[3]) {
+                    if (row >= ref[0] && row <= ref[2] && column >= ref[1] && column <= ref[3]) {
+                        dependents.add(formula.key);
+                        break;
+                    }
+                }
+            }
+        }
+        return dependents;
+    }
+    
+    private void register(Formula formula) {
+        for (int[] ref : formula.references) {
+            if (ref[0] == ref[2] && ref[1] == ref[3]) {
+                long cell = key(ref[0], ref[1]);
+                Set<Long> dependents = cellDependents.get(cell);
+                if (dependents == null) {
+                    dependents = new HashSet<>();
+                    cellDependents.put(cell, dependents);
+                }
+                dependents.add(formula.key);
+            } else {
+                for (int column = ref[1]; column <= ref[3]; column++) {
+                    for (int block = ref[0] / BLOCK_ROWS; block <= ref[2] / BLOCK_ROWS; block++) {
+                        long bucket = bucket(column, block);
+                        Set<Formula> dependents = rangeDependents.get(bucket);
+                        if (dependents == null) {
+                            dependents = new HashSet<>();
+                            rangeDependents.put(bucket, dependents);
+                        }
+                        dependents.add(formula);
+                    }
+                }
+            }
+        }
+    }
+    
+    private void unregister(Formula formula) {
+        for (int[] ref : formula.references) {
+            if (ref[0] == ref[2] && ref[1] == ref[3]) {
+                long cell = key(ref[0], ref[1]);
+                Set<Long> dependents = cellDependents.get(cell);
+                if (dependents != null && dependents.remove(formula.key) && dependents.isEmpty()) {
+                    cellDependents.remove(cell);
+                }
+            } else {
+                for (int column = ref[1]; column <= ref[3]; column++) {
+                    for (int block = ref[0] / BLOCK_ROWS; block <= ref[2] / BLOCK_ROWS; block++) {
+                        long bucket = bucket(column, block);
+                        Set<Formula> dependents = rangeDependents.get(bucket);
+                        if (dependents != null && dependents.remove(formula) && dependents.isEmpty()) {
+                            rangeDependents.remove(bucket);
+                        }
+                    }
+                }
+            }
+        }
+    }
+    
+    private static long bucket(int column, int block) {
+        return key(block, column);
+    }
+    
+    // Value conversions shared with the parser and functions
+    
+    static Object literal(String input) {
+        if (input == null || input.isEmpty()) {
+            return null;
+        }
+        char first = input.charAt(0);
+        if ((first >= '0' && first <= '9') || first == '-' || first == '+' || first == '.') {
+            try {
+                return Double.valueOf(input.trim());
+            } catch (NumberFormatException e) {
+                // Not a number, keep the text
+            }
+        }
+        return input;
+    }
+    
+    // A range used where one value is expected is an error
+    static Object scalar(Object value) {
+        return value instanceof Range ? Error.VALUE : value;
+    }
+    
+    static Object toNumber(Object value) {
+        value = scalar(value);
+        if (value == null) return 0.0;
+        if (value instanceof Double || value instanceof Error) return value;
+        if (value instanceof Boolean) return (Boolean) value ? 1.0 : 0.0;
+        Object number = literal(value.toString());
+        return number instanceof Double ? number : Error.VALUE;
+    }
+    
+    static Object toBoolean(Object value) {
+        value = scalar(value);
+        if (value == null) return false;
+        if (value instanceof Boolean || value instanceof Error) return value;
+        if (value instanceof Double) return (Double) value != 0;
+        String text = value.toString();
+        if (text.equalsIgnoreCase("TRUE")) return true;
+        if (text.equalsIgnoreCase("FALSE")) return false;
+        return Error.VALUE;
+    }
+    
+    static String toText(Object value) {
+        if (value == null) return "";
+        if (value instanceof Double) {
+            double number = (Double) value;
+            if (number == Math.rint(number) && !Double.isInfinite(number) && Math.abs(number) < 1e15) {
+                return String.valueOf((long) number);
+            }
+            return String.valueOf(number);
+        }
+        if (value instanceof Boolean) return (Boolean) value ? "TRUE" : "FALSE";
+        return value.toString();
+    }
+    
+    // Numbers sort before text, text compares without case, as in other spreadsheets
+    static int compare(Object a, Object b) {
+        if (a == null) a = b instanceof String ? "" : (Object) 0.0;
+        if (b == null) b = a instanceof String ? "" : (Object) 0.0;
+        if (a instanceof Boolean) a = (Boolean) a ? 1.0 : 0.0;
+        if (b instanceof Boolean) b = (Boolean) b ? 1.0 : 0.0;
+        if (a instanceof Double && b instanceof Double) {
+            return Double.compare((Double) a, (Double) b);
+        }
+        if (a instanceof Double) return -1;
+        if (b instanceof Double) return 1;
+        return a.toString().compareToIgnoreCase(b.toString());
+    }
+}
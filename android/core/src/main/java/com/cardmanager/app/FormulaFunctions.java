@@ -0,0 +1,196 @@
+package com.cardmanager.app;
+
+import java.util.List;
+
+// Built-in spreadsheet functions. Each call is bound to its argument nodes at
+// parse time; arguments that are ranges are walked cell by cell without copying.
+final class FormulaFunctions {
+    
+    private FormulaFunctions() {
+    }
+    
+    private interface Accumulator {
+        void add(double value);
+    }
+    
+    static FormulaParser.Node call(String name, List<FormulaParser.Node> args) {
+        switch (name) {
+            case "SUM":
+                return engine -> {
+                    double[] sum = {0};
+                    Object error = numbers(engine, args, value -> sum[0] += value);
+                    return error != null ? error : (Object) sum[0];
+                };
+            case "AVERAGE":
+                return engine -> {
+                    double[] total = {0, 0};
+                    Object error = numbers(engine, args, value -> {
+                        total[0] += value;
+                        total[1]++;
+                    });
+                    if (error != null) return error;
+                    return total[1] == 0 ? FormulaEngine.Error.DIV_ZERO : (Object) (total[0] / total[1]);
+                };
+            case "MIN":
+            case "MAX":
+                boolean min = name.equals("MIN");
+                return engine -> {
+                    double[] best = {Double.NaN};
+                    Object error = numbers(engine, args, value -> {
+                        if (Double.isNaN(best[0]) || (min ? value < best[0] : value > best[0])) best[0] = value;
+                    });
+                    if (error != null) return error;
+                    return Double.isNaN(best[0]) ? 0.0 : best[0];
+                };
+            case "COUNT":
+                return engine -> {
+                    double[] count = {0};
+                    Object error = numbers(engine, args, value -> count[0]++);
+                    return error != null ? error : (Object) count[0];
+                };
+            case "ABS":
+                return unary(args, Math::abs);
+            case "ROUND":
+                return engine -> {
+                    if (args.size() < 1 || args.size() > 2) return FormulaEngine.Error.VALUE;
+                    Object value = FormulaEngine.toNumber(args.get(0).eval(engine));
+                    Object digits = args.size() > 1 ? FormulaEngine.toNumber(args.get(1).eval(engine)) : 0.0;
+                    if (value instanceof FormulaEngine.Error) return value;
+                    if (digits instanceof FormulaEngine.Error) return digits;
+                    return new java.math.BigDecimal((Double) value)
+                            .setScale(((Double) digits).intValue(), java.math.RoundingMode.HALF_UP).doubleValue();
+                };
+            case "IF":
+                return engine -> {
+                    if (args.size() < 2 || args.size() > 3) return FormulaEngine.Error.VALUE;
+                    Object condition = FormulaEngine.toBoolean(args.get(0).eval(engine));
+                    if (condition instanceof FormulaEngine.Error) return condition;
+                    if ((Boolean) condition) return FormulaEngine.scalar(args.get(1).eval(engine));
+                    return args.size() > 2 ? FormulaEngine.scalar(args.get(2).eval(engine)) : (Object) false;
+                };
+            case "VLOOKUP":
+                return engine -> lookup(engine, args, true);
+            case "HLOOKUP":
+                return engine -> lookup(engine, args, false);
+            case "MATCH":
+                return engine -> {
+                    if (args.size() < 2 || args.size() > 3) return FormulaEngine.Error.VALUE;
+                    Object key = FormulaEngine.scalar(args.get(0).eval(engine));
+                    Object area = args.get(1).eval(engine);
+                    Object type = args.size() > 2 ? FormulaEngine.toNumber(args.get(2).eval(engine)) : 1.0;
+                    if (key instanceof FormulaEngine.Error) return key;
+                    if (type instanceof FormulaEngine.Error) return type;
+                    if (!(area instanceof FormulaEngine.Range)) return FormulaEngine.Error.VALUE;
+                    FormulaEngine.Range range = (FormulaEngine.Range) area;
+                    boolean vertical = range.firstColumn == range.lastColumn;
+                    int length = vertical ? range.lastRow - range.firstRow + 1 : range.lastColumn - range.firstColumn + 1;
+                    int found = find(engine, key, range.firstRow, range.firstColumn, vertical, length,
+                            ((Double) type).intValue() != 0);
+                    return found < 0 ? FormulaEngine.Error.NOT_AVAILABLE : (Object) (double) (found + 1);
+                };
+            case "INDEX":
+                return engine -> {
+                    if (args.size() < 2 || args.size() > 3) return FormulaEngine.Error.VALUE;
+                    Object area = args.get(0).eval(engine);
+                    Object row = FormulaEngine.toNumber(args.get(1).eval(engine));
+                    Object column = args.size() > 2 ? FormulaEngine.toNumber(args.get(2).eval(engine)) : 1.0;
+                    if (!(area instanceof FormulaEngine.Range)) return FormulaEngine.Error.VALUE;
+                    if (row instanceof FormulaEngine.Error) return row;
+                    if (column instanceof FormulaEngine.Error) return column;
+                    FormulaEngine.Range range = (FormulaEngine.Range) area;
+                    int r = range.firstRow + ((Double) row).intValue() - 1;
+                    int c = range.firstColumn + ((Double) column).intValue() - 1;
+                    if (r < range.firstRow || r > range.lastRow || c < range.firstColumn || c > range.lastColumn) {
+                        return FormulaEngine.Error.REF;
+                    }
+                    return engine.valueAt(r, c);
+                };
+            default:
+                return engine -> FormulaEngine.Error.NAME;
+        }
+    }
+    
+    private interface DoubleFunction {
+        double apply(double value);
+    }
+    
+    private static FormulaParser.Node unary(List<FormulaParser.Node> args, DoubleFunction function) {
+        return engine -> {
+            if (args.size() != 1) return FormulaEngine.Error.VALUE;
+            Object value = FormulaEngine.toNumber(args.get(0).eval(engine));
+            return value instanceof FormulaEngine.Error ? value : (Object) function.apply((Double) value);
+        };
+    }
+    
+    // Feeds the numbers among the arguments to the accumulator. Text and empty cells
+    // inside ranges are skipped, as in other spreadsheets; errors stop the walk.
+    private static Object numbers(FormulaEngine engine, List<FormulaParser.Node> args, Accumulator accumulator) {
+        for (FormulaParser.Node arg : args) {
+            Object value = arg.eval(engine);
+            if (value instanceof FormulaEngine.Range) {
+                FormulaEngine.Range range = (FormulaEngine.Range) value;
+                for (int r = range.firstRow; r <= range.lastRow; r++) {
+                    for (int c = range.firstColumn; c <= range.lastColumn; c++) {
+                        Object cell = engine.valueAt(r, c);
+                        if (cell instanceof FormulaEngine.Error) return cell;
+                        if (cell instanceof Double) accumulator.add((Double) cell);
+                    }
+                }
+            } else {
+                Object number = FormulaEngine.toNumber(value);
+                if (number instanceof FormulaEngine.Error) return number;
+                accumulator.add((Double) number);
+            }
+        }
+        return null;
+    }
+    
+    // VLOOKUP(key, range, index, [approximate]) and HLOOKUP with rows and columns swapped
+    private static Object lookup(FormulaEngine engine, List<FormulaParser.Node> args, boolean vertical) {
+        if (args.size() < 3 || args.size() > 4) return FormulaEngine.Error.VALUE;
+        Object key = FormulaEngine.scalar(args.get(0).eval(engine));
+        Object area = args.get(1).eval(engine);
+        Object index = FormulaEngine.toNumber(args.get(2).eval(engine));
+        Object approximate = args.size() > 3 ? FormulaEngine.toBoolean(args.get(3).eval(engine)) : true;
+        if (key instanceof FormulaEngine.Error) return key;
+        if (index instanceof FormulaEngine.Error) return index;
+        if (approximate instanceof FormulaEngine.Error) return approximate;
+        if (!(area instanceof FormulaEngine.Range)) return FormulaEngine.Error.VALUE;
+        
+        FormulaEngine.Range range = (FormulaEngine.Range) area;
+        int offset = ((Double) index).intValue() - 1;
+        int width = vertical ? range.lastColumn - range.firstColumn : range.lastRow - range.firstRow;
+        if (offset < 0 || offset > width) return FormulaEngine.Error.REF;
+        
+        int length = vertical ? range.lastRow - range.firstRow + 1 : range.lastColumn - range.firstColumn + 1;
+        int found = find(engine, key, range.firstRow, range.firstColumn, vertical, length, (Boolean) approximate);
+        if (found < 0) return FormulaEngine.Error.NOT_AVAILABLE;
+        return vertical
+                ? engine.valueAt(range.firstRow + found, range.firstColumn + offset)
+                : engine.valueAt(range.firstRow + offset, range.firstColumn + found);
+    }
+    
+    // Position of the key along a row or column. An approximate search assumes
+    // ascending order and returns the last entry not greater than the key.
+    private static int find(FormulaEngine engine, Object key, int row, int column, boolean vertical,
+                            int length, boolean approximate) {
+        int last = -1;
+        for (int i = 0; i < length; i++) {
+            Object value = vertical ? engine.valueAt(row + i, column) : engine.valueAt(row, column + i);
+            if (value == null || value instanceof FormulaEngine.Error) {
+                continue;
+            }
+            int cmp = FormulaEngine.compare(value, key);
+            if (cmp == 0) {
+                return i;
+            }
+            if (approximate) {
+                if (cmp > 0) {
+                    return last;
+                }
+                last = i;
+            }
+        }
+        return approximate ? last : -1;
+    }
+}
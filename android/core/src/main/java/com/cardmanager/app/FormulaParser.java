@@ -0,0 +1,331 @@
+package com.cardmanager.app;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+// Recursive-descent parser for spreadsheet formulas (the text after '='). Produces
+// a tree of Nodes and records every cell and range the formula reads, which is
+// what FormulaEngine builds its dependency graph from.
+//
+//   expression := concat (('=' | '<>' | '<' | '>' | '<=' | '>=') concat)?
+//   concat     := additive ('&' additive)*
+//   additive   := term (('+' | '-') term)*
+//   term       := unary (('*' | '/') unary)*
+//   unary      := ('-' | '+') unary | power
+//   power      := primary ('^' unary)?
+//   primary    := number | "text" | TRUE | FALSE | cell | cell:cell | NAME(args) | (expression)
+class FormulaParser {
+    
+    interface Node {
+        Object eval(FormulaEngine engine);
+    }
+    
+    static final class ParseException extends Exception {
+        private static final long serialVersionUID = 1L;
+        
+        ParseException(String message) {
+            super(message);
+        }
+    }
+    
+    private final String text;
+    private final List<int[]> references;
+    private int pos;
+    
+    private FormulaParser(String text, List<int[]> references) {
+        this.text = text;
+        this.references = references;
+    }
+    
+    // Parses the formula body and adds each reference to the list as
+    // {firstRow, firstColumn, lastRow, lastColumn}; a single cell has first == last
+    static Node parse(String formula, List<int[]> references) throws ParseException {
+        FormulaParser parser = new FormulaParser(formula, references);
+        Node node = parser.expression();
+        parser.skipSpaces();
+        if (parser.pos < formula.length()) {
+            throw new ParseException("Unexpected '" + formula.charAt(parser.pos) + "'");
+        }
+        return node;
+    }
+    
+    private Node expression() throws ParseException {
+        Node left = concat();
+        skipSpaces();
+        String op = null;
+        if (match("<=")) op = "<=";
+        else if (match(">=")) op = ">=";
+        else if (match("<>")) op = "<>";
+        else if (match("=")) op = "=";
+        else if (match("<")) op = "<";
+        else if (match(">")) op = ">";
+        if (op == null) {
+            return left;
+        }
+        Node right = concat();
+        String operator = op;
+        return engine -> {
+            Object a = FormulaEngine.scalar(left.eval(engine));
+            Object b = FormulaEngine.scalar(right.eval(engine));
+            if (a instanceof FormulaEngine.Error) return a;
+            if (b instanceof FormulaEngine.Error) return b;
+            int cmp = FormulaEngine.compare(a, b);
+            switch (operator) {
+                case "=": return cmp == 0;
+                case "<>": return cmp != 0;
+                case "<": return cmp < 0;
+                case ">": return cmp > 0;
+                case "<=": return cmp <= 0;
+                default: return cmp >= 0;
+            }
+        };
+    }
+    
+    private Node concat() throws ParseException {
+        Node left = additive();
+        while (true) {
+            skipSpaces();
+            if (!match("&")) {
+                return left;
+            }
+            Node a = left;
+            Node b = additive();
+            left = engine -> {
+                Object x = FormulaEngine.scalar(a.eval(engine));
+                Object y = FormulaEngine.scalar(b.eval(engine));
+                if (x instanceof FormulaEngine.Error) return x;
+                if (y instanceof FormulaEngine.Error) return y;
+                return FormulaEngine.toText(x) + FormulaEngine.toText(y);
+            };
+        }
+    }
+    
+    private Node additive() throws ParseException {
+        Node left = term();
+        while (true) {
+            skipSpaces();
+            char op = peek();
+            if (op != '+' && op != '-') {
+                return left;
+            }
+            pos++;
+            left = arithmetic(left, term(), op);
+        }
+    }
+    
+    private Node term() throws ParseException {
+        Node left = unary();
+        while (true) {
+            skipSpaces();
+            char op = peek();
+            if (op != '*' && op != '/') {
+                return left;
+            }
+            pos++;
+            left = arithmetic(left, unary(), op);
+        }
+    }
+    
+    private Node unary() throws ParseException {
+        skipSpaces();
+        if (match("-")) {
+            Node operand = unary();
+            return arithmetic(engine -> 0.0, operand, '-');
+        }
+        if (match("+")) {
+            return unary();
+        }
+        Node base = primary();
+        skipSpaces();
+        if (match("^")) {
+            return arithmetic(base, unary(), '^');
+        }
+        return base;
+    }
+    
+    private static Node arithmetic(Node left, Node right, char op) {
+        return engine -> {
+            Object a = FormulaEngine.toNumber(left.eval(engine));
+            Object b = FormulaEngine.toNumber(right.eval(engine));
+            if (a instanceof FormulaEngine.Error) return a;
+            if (b instanceof FormulaEngine.Error) return b;
+            double x = (Double) a;
+            double y = (Double) b;
+            switch (op) {
+                case '+': return x + y;
+                case '-': return x - y;
+                case '*': return x * y;
+                case '/': return y == 0 ? FormulaEngine.Error.DIV_ZERO : (Object) (x / y);
+                default: return Math.pow(x, y);
+            }
+        };
+    }
+    
+    private Node primary() throws ParseException {
+        skipSpaces();
+        if (pos >= text.length()) {
+            throw new ParseException("Unexpected end of formula");
+        }
+        char c = text.charAt(pos);
+        
+        if (c == '(') {
+            pos++;
+            Node inner = expression();
+            skipSpaces();
+            expect(')');
+            return inner;
+        }
+        
+        if (c == '"') {
+            StringBuilder value = new StringBuilder();
+            pos++;
+            while (true) {
+                if (pos >= text.length()) {
+                    throw new ParseException("Unterminated text");
+                }
+                char ch = text.charAt(pos++);
+                if (ch == '"') {
+                    if (pos < text.length() && text.charAt(pos) == '"') {
+                        value.append('"');
+                        pos++;
+                    } else {
+                        break;
+                    }
+                } else {
+                    value.append(ch);
+                }
+            }
+            String literal = value.toString();
+            return engine -> literal;
+        }
+        
+        if (Character.isDigit(c) || c == '.') {
+            int start = pos;
+            while (pos < text.length() && (Character.isDigit(text.charAt(pos)) || text.charAt(pos) == '.')) {
+                pos++;
+            }
+            if (pos < text.length() && (text.charAt(pos) == 'e' || text.charAt(pos) == 'E')) {
+                pos++;
+                if (pos < text.length() && (text.charAt(pos) == '+' || text.charAt(pos) == '-')) {
+                    pos++;
+                }
+                while (pos < text.length() && Character.isDigit(text.charAt(pos))) {
+                    pos++;
+                }
+            }
+            try {
+                Double number = Double.valueOf(text.substring(start, pos));
+                return engine -> number;
+            } catch (NumberFormatException e) {
+                throw new ParseException("Bad number " + text.substring(start, pos));
+            }
+        }
+        
+        if (Character.isLetter(c) || c == '$') {
+            int start = pos;
+            while (pos < text.length() && (Character.isLetterOrDigit(text.charAt(pos))
+                    || text.charAt(pos) == '$' || text.charAt(pos) == '_' || text.charAt(pos) == '.')) {
+                pos++;
+            }
+            String word = text.substring(start, pos).toUpperCase(Locale.ROOT);
+            skipSpaces();
+            
+            if (peek() == '(') {
+                pos++;
+                List<Node> args = new ArrayList<>();
+                skipSpaces();
+                if (!match(")")) {
+                    do {
+                        args.add(expression());
+                        skipSpaces();
+                    } while (match(","));
+                    expect(')');
+                }
+                return FormulaFunctions.call(word, args);
+            }
+            
+            if (word.equals("TRUE") || word.equals("FALSE")) {
+                Boolean value = word.equals("TRUE");
+                return engine -> value;
+            }
+            
+            int[] cell = parseCell(word);
+            if (cell == null) {
+                throw new ParseException("Unknown name " + word);
+            }
+            if (match(":")) {
+                skipSpaces();
+                int end = pos;
+                while (end < text.length() && (Character.isLetterOrDigit(text.charAt(end)) || text.charAt(end) == '$')) {
+                    end++;
+                }
+                int[] last = parseCell(text.substring(pos, end).toUpperCase(Locale.ROOT));
+                if (last == null) {
+                    throw new ParseException("Bad range end");
+                }
+                pos = end;
+                FormulaEngine.Range range = new FormulaEngine.Range(
+                        Math.min(cell[0], last[0]), Math.min(cell[1], last[1]),
+                        Math.max(cell[0], last[0]), Math.max(cell[1], last[1]));
+                references.add(new int[]{range.firstRow, range.firstColumn, range.lastRow, range.lastColumn});
+                return engine -> range;
+            }
+            int row = cell[0];
+            int column = cell[1];
+            references.add(new int[]{row, column, row, column});
+            return engine -> engine.valueAt(row, column);
+        }
+        
+        throw new ParseException("Unexpected '" + c + "'");
+    }
+    
+    // "B12" or "$B$12" -> {11, 1}; null if the word is not a cell address
+    static int[] parseCell(String word) {
+        int i = 0;
+        if (i < word.length() && word.charAt(i) == '$') i++;
+        int column = 0;
+        int letters = 0;
+        while (i < word.length() && word.charAt(i) >= 'A' && word.charAt(i) <= 'Z') {
+            column = column * 26 + (word.charAt(i) - 'A' + 1);
+            i++;
+            letters++;
+        }
+        if (letters == 0 || letters > 3) return null;
+        if (i < word.length() && word.charAt(i) == '$') i++;
+        int row = 0;
+        int digits = 0;
+        while (i < word.length() && Character.isDigit(word.charAt(i))) {
+            row = row * 10 + (word.charAt(i) - '0');
+            i++;
+            digits++;
+        }
+        if (digits == 0 || digits > 7 || i != word.length() || row == 0) return null;
+        return new int[]{row - 1, column - 1};
+    }
+    
+    private void skipSpaces() {
+        while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+            pos++;
+        }
+    }
+    
+    private char peek() {
+        return pos < text.length() ? text.charAt(pos) : '\0';
+    }
+    
+    private boolean match(String token) {
+        if (text.startsWith(token, pos)) {
+            pos += token.length();
+            return true;
+        }
+        return false;
+    }
+    
+    private void expect(char c) throws ParseException {
+        if (peek() != c) {
+            throw new ParseException("Expected '" + c + "'");
+        }
+        pos++;
+    }
+}
@@ -0,0 +1,44 @@
+package com.cardmanager.app;
+
+public class MediaItem {
+    public static final String TYPE_PHOTO = "photo";
+    public static final String TYPE_VIDEO = "video";
+    public static final String TYPE_DOCUMENT = "document";
+    
+    private int id;
+    private int cardId;
+    private String name;
+    private String type;
+    // BlobStore content hash of the file
+    private String hash;
+    private long createdDate;
+    
+    public MediaItem() {
+    }
+    
+    public MediaItem(int cardId, String name, String type) {
+        this.cardId = cardId;
+        this.name = name;
+        this.type = type;
+        this.createdDate = System.currentTimeMillis();
+    }
+    
+    // Getters and Setters
+    public int getId() { return id; }
+    public void setId(int id) { this.id = id; }
+    
+    public int getCardId() { return cardId; }
+    public void setCardId(int cardId) { this.cardId = cardId; }
+    
+    public String getName() { return name; }
+    public void setName(String name) { this.name = name; }
+    
+    public String getType() { return type; }
+    public void setType(String type) { this.type = type; }
+    
+    public String getHash() { return hash; }
+    public void setHash(String hash) { this.hash = hash; }
+    
+    public long getCreatedDate() { return createdDate; }
+    public void setCreatedDate(long createdDate) { this.createdDate = createdDate; }
+}
@@ -0,0 +1,255 @@
+package com.cardmanager.app;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Latency, rows and bytes of every database operation, by operation name, and the
+// last few operations that took longer than the slow threshold. Latencies go into
+// fixed buckets, so memory stays the same however long the app runs. Slow reads
+// keep their SQL and query plan; their arguments are left out since they hold
+// card data, and the log is meant to be sent to us.
+class QueryMetrics {
+    
+    static final long DEFAULT_SLOW_THRESHOLD_MS = 50;
+    static final int SLOW_LOG_SIZE = 50;
+    
+    // Upper bounds of the latency buckets in microseconds; the last bucket has none
+    private static final long[] BUCKET_BOUNDS_US = {100, 250, 500, 1000, 2500, 5000, 10000, 25000, 50000,
+            100000, 250000, 500000, 1000000};
+    
+    // Called only for operations that turn out slow, outside the lock
+    interface PlanSource {
+        List<String> explain();
+    }
+    
+    private final Map<String, OperationStats> operations = new TreeMap<>();
+    private final SlowQuery[] slowLog = new SlowQuery[SLOW_LOG_SIZE];
+    private int slowCount;
+    private volatile long slowThresholdNanos = DEFAULT_SLOW_THRESHOLD_MS * 1000000;
+    
+    void setSlowThresholdMillis(long millis) {
+        slowThresholdNanos = millis * 1000000;
+    }
+    
+    long getSlowThresholdMillis() {
+        return slowThresholdNanos / 1000000;
+    }
+    
+    // sql and plan are null for writes, whose plans would not show where their time
+    // goes: that is index and search index upkeep
+    void record(String operation, String sql, long nanos, int rows, long bytes, PlanSource plan) {
+        synchronized (this) {
+            OperationStats stats = operations.get(operation);
+            if (stats == null) {
+                stats = new OperationStats();
+                operations.put(operation, stats);
+            }
+            stats.add(nanos, rows, bytes);
+        }
+        if (nanos < slowThresholdNanos) {
+            return;
+        }
+        SlowQuery slow = new SlowQuery(System.currentTimeMillis(), operation, sql, nanos, rows, bytes,
+                plan != null ? plan.explain() : null);
+        synchronized (this) {
+            slowLog[slowCount % SLOW_LOG_SIZE] = slow;
+            slowCount++;
+        }
+    }
+    
+    synchronized void reset() {
+        operations.clear();
+        for (int i = 0; i < slowLog.length; i++) {
+            slowLog[i] = null;
+        }
+        slowCount = 0;
+    }
+    
+    // One line per operation, then the slow log, newest first
+    synchronized String report() {
+        StringBuilder out = new StringBuilder();
+        for (Map.Entry<String, OperationStats> entry : operations.entrySet()) {
+            OperationStats stats = entry.getValue();
+            out.append(String.format(Locale.ROOT,
+                    "%s  n=%d  mean=%.2fms  p50<=%s  p95<=%s  max=%.2fms  rows=%d  bytes=%d%n",
+                    entry.getKey(), stats.count, stats.totalNanos / 1e6 / stats.count,
+                    bucketLabel(stats.percentileBucket(0.50)), bucketLabel(stats.percentileBucket(0.95)),
+                    stats.maxNanos / 1e6, stats.rows, stats.bytes));
+        }
+        List<SlowQuery> slow = slowQueries();
+        out.append(String.format(Locale.ROOT, "%nSlow (>= %d ms): %d logged%n", getSlowThresholdMillis(), slowCount));
+        for (SlowQuery query : slow) {
+            out.append(String.format(Locale.ROOT, "%n%s %.2fms rows=%d bytes=%d%n", query.operation,
+                    query.nanos / 1e6, query.rows, query.bytes));
+            if (query.sql != null) {
+                out.append(query.sql).append('\n');
+            }
+            if (query.plan != null) {
+                for (String step : query.plan) {
+                    out.append("  ").append(step).append('\n');
+                }
+            }
+        }
+        return out.toString();
+    }
+    
+    synchronized String toJson() {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"slowThresholdMs\":").append(getSlowThresholdMillis());
+        json.append(",\"bucketBoundsUs\":[");
+        for (int i = 0; i < BUCKET_BOUNDS_US.length; i++) {
+            if (i > 0) json.append(',');
+            json.append(BUCKET_BOUNDS_US[i]);
+        }
+        json.append("],\"operations\":{");
+        boolean first = true;
+        for (Map.Entry<String, OperationStats> entry : operations.entrySet()) {
+            OperationStats stats = entry.getValue();
+            if (!first) json.append(',');
+            first = false;
+            appendString(json, entry.getKey());
+            json.append(":{\"count\":").append(stats.count)
+                    .append(",\"totalUs\":").append(stats.totalNanos / 1000)
+                    .append(",\"maxUs\":").append(stats.maxNanos / 1000)
+                    .append(",\"rows\":").append(stats.rows)
+                    .append(",\"bytes\":").append(stats.bytes)
+                    .append(",\"histogram\":[");
+            for (int i = 0; i < stats.buckets.length; i++) {
+                if (i > 0) json.append(',');
+                json.append(stats.buckets[i]);
+            }
+            json.append("]}");
+        }
+        json.append("},\"slowQueries\":[");
+        first = true;
+        for (SlowQuery query : slowQueries()) {
+            if (!first) json.append(',');
+            first = false;
+            json.append("{\"time\":").append(query.time).append(",\"operation\":");
+            appendString(json, query.operation);
+            json.append(",\"us\":").append(query.nanos / 1000)
+                    .append(",\"rows\":").append(query.rows)
+                    .append(",\"bytes\":").append(query.bytes)
+                    .append(",\"sql\":");
+            appendString(json, query.sql);
+            json.append(",\"plan\":");
+            if (query.plan == null) {
+                json.append("null");
+            } else {
+                json.append('[');
+                for (int i = 0; i < query.plan.size(); i++) {
+                    if (i > 0) json.append(',');
+                    appendString(json, query.plan.get(i));
+                }
+                json.append(']');
+            }
+            json.append('}');
+        }
+        return json.append("]}").toString();
+    }
+    
+    synchronized long getCount(String operation) {
+        OperationStats stats = operations.get(operation);
+        return stats != null ? stats.count : 0;
+    }
+    
+    // Newest first
+    synchronized List<SlowQuery> slowQueries() {
+        List<SlowQuery> queries = new ArrayList<>();
+        int logged = Math.min(slowCount, SLOW_LOG_SIZE);
+        for (int i = 1; i <= logged; i++) {
+            queries.add(slowLog[(slowCount - i) % SLOW_LOG_SIZE]);
+        }
+        return queries;
+    }
+    
+    private static String bucketLabel(int bucket) {
+        return bucket < BUCKET_BOUNDS_US.length
+                ? String.format(Locale.ROOT, "%.1fms", BUCKET_BOUNDS_US[bucket] / 1000.0) : "inf";
+    }
+    
+    private static void appendString(StringBuilder json, String value) {
+        if (value == null) {
+            json.append("null");
+            return;
+        }
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': json.append("\\\""); break;
+                case '\\': json.append("\\\\"); break;
+                case '\n': json.append("\\n"); break;
+                case '\r': json.append("\\r"); break;
+                case '\t': json.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        json.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+                    break;
+            }
+        }
+        json.append('"');
+    }
+    
+    private static final class OperationStats {
+        final long[] buckets = new long[BUCKET_BOUNDS_US.length + 1];
+        long count;
+        long totalNanos;
+        long maxNanos;
+        long rows;
+        long bytes;
+        
+        void add(long nanos, int rowCount, long byteCount) {
+            long micros = nanos / 1000;
+            int bucket = 0;
+            while (bucket < BUCKET_BOUNDS_US.length && micros > BUCKET_BOUNDS_US[bucket]) {
+                bucket++;
+            }
+            buckets[bucket]++;
+            count++;
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+            rows += rowCount;
+            bytes += byteCount;
+        }
+        
+        // The bucket the given share of operations falls in
+        int percentileBucket(double share) {
+            long wanted = (long) Math.ceil(count * share);
+            long seen = 0;
+            for (int bucket = 0; bucket < buckets.length; bucket++) {
+                seen += buckets[bucket];
+                if (seen >= wanted) {
+                    return bucket;
+                }
+            }
+            return buckets.length - 1;
+        }
+    }
+    
+    static final class SlowQuery {
+        final long time;
+        final String operation;
+        final String sql;
+        final long nanos;
+        final int rows;
+        final long bytes;
+        final List<String> plan;
+        
+        SlowQuery(long time, String operation, String sql, long nanos, int rows, long bytes, List<String> plan) {
+            this.time = time;
+            this.operation = operation;
+            this.sql = sql;
+            this.nanos = nanos;
+            this.rows = rows;
+            this.bytes = bytes;
+            this.plan = plan;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.cardmanager.app;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+// The cells of one spreadsheet, held as the chunks that have been loaded from the
+// sheet_chunks table. Rows outside the loaded chunks read as empty. Edits are
+// tracked per chunk so that saving writes only the chunks they touched.
+public class Sheet {
+    
+    // What a save has to write, copied so the sheet can be edited while it is stored
+    public static final class Changes {
+        public final int fileId;
+        public final List<SheetChunk> chunks;
+        public final int rowCount;
+        public final int columnCount;
+        // Every stored chunk is dropped first, as when the sheet was rebuilt from CSV text
+        public final boolean replaceAll;
+        
+        Changes(int fileId, List<SheetChunk> chunks, int rowCount, int columnCount, boolean replaceAll) {
+            this.fileId = fileId;
+            this.chunks = chunks;
+            this.rowCount = rowCount;
+            this.columnCount = columnCount;
+            this.replaceAll = replaceAll;
+        }
+    }
+    
+    // Rows per stored chunk; small enough that a chunk of a wide sheet stays far
+    // below the CursorWindow limit, large enough that a 50k-row sheet is ~400 chunks
+    public static final int CHUNK_ROWS = 128;
+    
+    private final int fileId;
+    private int rowCount;
+    private int columnCount;
+    private final TreeMap<Integer, SheetChunk> chunks = new TreeMap<>();
+    // Chunks with a lower index have been loaded, or are known to be empty
+    private int loadedChunks = Integer.MAX_VALUE;
+    // Chunks with cells that differ from the stored version
+    private final TreeSet<Integer> changedChunks = new TreeSet<>();
+    private boolean sizeChanged;
+    private boolean replaceAll;
+    
+    public Sheet(int fileId, int rowCount, int columnCount) {
+        this.fileId = fileId;
+        this.rowCount = rowCount;
+        this.columnCount = columnCount;
+    }
+    
+    public static int chunkOf(int row) {
+        return row / CHUNK_ROWS;
+    }
+    
+    // Spreadsheet column letters: A..Z, AA..AZ, ...
+    public static String columnName(int column) {
+        StringBuilder name = new StringBuilder();
+        for (int c = column + 1; c > 0; c = (c - 1) / 26) {
+            name.insert(0, (char) ('A' + (c - 1) % 26));
+        }
+        return name.toString();
+    }
+    
+    public int getFileId() { return fileId; }
+    public int getRowCount() { return rowCount; }
+    public int getColumnCount() { return columnCount; }
+    
+    public String get(int row, int column) {
+        SheetChunk chunk = chunks.get(chunkOf(row));
+        return chunk != null ? chunk.get(row % CHUNK_ROWS, column) : null;
+    }
+    
+    public void set(int row, int column, String value) {
+        String old = get(row, column);
+        if (old == null ? value == null || value.isEmpty() : old.equals(value)) {
+            return;
+        }
+        chunkFor(row).set(row % CHUNK_ROWS, column, value);
+        changedChunks.add(chunkOf(row));
+        ensureSize(row + 1, column + 1);
+    }
+    
+    // Grows the sheet to at least the given size; cells already set are kept
+    public void ensureSize(int rows, int columns) {
+        if (rows > rowCount || columns > columnCount) {
+            rowCount = Math.max(rowCount, rows);
+            columnCount = Math.max(columnCount, columns);
+            sizeChanged = true;
+        }
+    }
+    
+    // Marks a sheet built from scratch, e.g. from CSV text, as the new content of fileId
+    public void setReplaceAll() {
+        replaceAll = true;
+    }
+    
+    public boolean hasChanges() {
+        return replaceAll || sizeChanged || !changedChunks.isEmpty();
+    }
+    
+    // Copies the edited chunks and clears the change tracking. The copy costs as
+    // much as the chunks that changed, whatever the size of the sheet.
+    public Changes takeChanges() {
+        List<SheetChunk> changed = new ArrayList<>(changedChunks.size());
+        for (int index : changedChunks) {
+            SheetChunk chunk = chunks.get(index);
+            changed.add(chunk != null ? chunk.copy() : new SheetChunk(index));
+        }
+        Changes changes = new Changes(fileId, changed, rowCount, columnCount, replaceAll);
+        changedChunks.clear();
+        sizeChanged = false;
+        replaceAll = false;
+        return changes;
+    }
+    
+    public void addChunk(SheetChunk chunk) {
+        chunks.put(chunk.getIndex(), chunk);
+    }
+    
+    public void setLoadedChunks(int count) {
+        loadedChunks = count;
+    }
+    
+    // False while the row's chunk is still being loaded; it reads as empty until then
+    public boolean isLoaded(int row) {
+        return chunkOf(row) < loadedChunks;
+    }
+    
+    public boolean isFullyLoaded() {
+        return loadedChunks == Integer.MAX_VALUE;
+    }
+    
+    public boolean hasChunk(int index) {
+        return chunks.containsKey(index);
+    }
+    
+    public Collection<SheetChunk> getChunks() {
+        return chunks.values();
+    }
+    
+    private SheetChunk chunkFor(int row) {
+        int index = chunkOf(row);
+        SheetChunk chunk = chunks.get(index);
+        if (chunk == null) {
+            chunk = new SheetChunk(index);
+            chunks.put(index, chunk);
+        }
+        return chunk;
+    }
+}
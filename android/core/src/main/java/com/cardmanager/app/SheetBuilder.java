@@ -0,0 +1,69 @@
+package com.cardmanager.app;
+
+import java.io.IOException;
+
+// Collects the cells of an import, which arrive in row order, into chunks. Each
+// chunk is handed to the sink as soon as a row past it starts, so at most one
+// chunk of the sheet is in memory however large the import is.
+class SheetBuilder {
+    
+    interface ChunkSink {
+        void store(SheetChunk chunk) throws IOException;
+    }
+    
+    private final ChunkSink sink;
+    private SheetChunk chunk = new SheetChunk(0);
+    private boolean chunkHasCells;
+    private int rowCount;
+    private int columnCount;
+    
+    SheetBuilder(ChunkSink sink) {
+        this.sink = sink;
+    }
+    
+    void set(int row, int column, String value) throws IOException {
+        moveTo(row);
+        chunk.set(row % Sheet.CHUNK_ROWS, column, value);
+        chunkHasCells = true;
+        rowCount = Math.max(rowCount, row + 1);
+        columnCount = Math.max(columnCount, column + 1);
+    }
+    
+    // Sets a whole row; an empty row still counts towards the size of the sheet
+    void setRow(int row, String[] cells) throws IOException {
+        moveTo(row);
+        chunk.setRow(row % Sheet.CHUNK_ROWS, cells);
+        chunkHasCells = true;
+        rowCount = Math.max(rowCount, row + 1);
+        columnCount = Math.max(columnCount, cells.length);
+    }
+    
+    // Stores the last chunk
+    void finish() throws IOException {
+        if (chunkHasCells) {
+            sink.store(chunk);
+            chunkHasCells = false;
+        }
+    }
+    
+    int getRowCount() {
+        return rowCount;
+    }
+    
+    int getColumnCount() {
+        return columnCount;
+    }
+    
+    private void moveTo(int row) throws IOException {
+        int index = Sheet.chunkOf(row);
+        if (index == chunk.getIndex()) {
+            return;
+        }
+        if (index < chunk.getIndex()) {
+            // Its chunk has been stored already; rewriting it would drop the cells before it
+            throw new IOException("Row " + (row + 1) + " is out of order");
+        }
+        finish();
+        chunk = new SheetChunk(index);
+    }
+}
@@ -0,0 +1,174 @@
+package com.cardmanager.app;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+// A fixed block of Sheet.CHUNK_ROWS rows, stored as one row of the sheet_chunks
+// table. Only non-empty cells are kept, both in memory and in the encoded form:
+//   rowCount, then per row: rowOffset, cellCount, then per cell: column, byteLength, UTF-8 bytes
+// with every number written as an unsigned varint.
+public class SheetChunk {
+    
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String[] EMPTY_ROW = new String[0];
+    
+    private final int index;
+    // Cells of each row, trimmed after the last non-empty one; null for empty rows
+    private final String[][] rows = new String[Sheet.CHUNK_ROWS][];
+    
+    public SheetChunk(int index) {
+        this.index = index;
+    }
+    
+    public int getIndex() {
+        return index;
+    }
+    
+    public int getFirstRow() {
+        return index * Sheet.CHUNK_ROWS;
+    }
+    
+    public String get(int rowOffset, int column) {
+        String[] row = rows[rowOffset];
+        return row != null && column < row.length ? row[column] : null;
+    }
+    
+    public void set(int rowOffset, int column, String value) {
+        if (value != null && value.isEmpty()) {
+            value = null;
+        }
+        String[] row = rows[rowOffset];
+        if (row == null || column >= row.length) {
+            if (value == null) {
+                return;
+            }
+            row = row == null ? new String[column + 1] : Arrays.copyOf(row, column + 1);
+            rows[rowOffset] = row;
+        }
+        row[column] = value;
+        if (value == null) {
+            rows[rowOffset] = trim(row);
+        }
+    }
+    
+    // Cells of one row up to its last non-empty cell; never null
+    public String[] getRow(int rowOffset) {
+        String[] row = rows[rowOffset];
+        return row != null ? row : EMPTY_ROW;
+    }
+    
+    public void setRow(int rowOffset, String[] cells) {
+        String[] row = new String[cells.length];
+        for (int i = 0; i < cells.length; i++) {
+            row[i] = cells[i] == null || cells[i].isEmpty() ? null : cells[i];
+        }
+        rows[rowOffset] = trim(row);
+    }
+    
+    // An independent copy, e.g. to save from another thread while editing goes on
+    public SheetChunk copy() {
+        SheetChunk copy = new SheetChunk(index);
+        for (int offset = 0; offset < rows.length; offset++) {
+            copy.rows[offset] = rows[offset] != null ? rows[offset].clone() : null;
+        }
+        return copy;
+    }
+    
+    public boolean isEmpty() {
+        for (String[] row : rows) {
+            if (row != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    public byte[] encode() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int rowCount = 0;
+        for (String[] row : rows) {
+            if (row != null) {
+                rowCount++;
+            }
+        }
+        writeVarint(out, rowCount);
+        for (int offset = 0; offset < rows.length; offset++) {
+            String[] row = rows[offset];
+            if (row == null) {
+                continue;
+            }
+            int cellCount = 0;
+            for (String cell : row) {
+                if (cell != null) {
+                    cellCount++;
+                }
+            }
+            writeVarint(out, offset);
+            writeVarint(out, cellCount);
+            for (int column = 0; column < row.length; column++) {
+                if (row[column] == null) {
+                    continue;
+                }
+                byte[] bytes = row[column].getBytes(UTF_8);
+                writeVarint(out, column);
+                writeVarint(out, bytes.length);
+                out.write(bytes, 0, bytes.length);
+            }
+        }
+        return out.toByteArray();
+    }
+    
+    public static SheetChunk decode(int index, byte[] data) {
+        SheetChunk chunk = new SheetChunk(index);
+        int[] position = {0};
+        int rowCount = readVarint(data, position);
+        for (int r = 0; r < rowCount; r++) {
+            int offset = readVarint(data, position);
+            int cellCount = readVarint(data, position);
+            String[] row = EMPTY_ROW;
+            for (int c = 0; c < cellCount; c++) {
+                int column = readVarint(data, position);
+                int length = readVarint(data, position);
+                if (column >= row.length) {
+                    row = Arrays.copyOf(row, column + 1);
+                }
+                row[column] = new String(data, position[0], length, UTF_8);
+                position[0] += length;
+            }
+            chunk.rows[offset] = row.length == 0 ? null : row;
+        }
+        return chunk;
+    }
+    
+    private static String[] trim(String[] row) {
+        int length = row.length;
+        while (length > 0 && row[length - 1] == null) {
+            length--;
+        }
+        if (length == 0) {
+            return null;
+        }
+        return length == row.length ? row : Arrays.copyOf(row, length);
+    }
+    
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+    
+    private static int readVarint(byte[] data, int[] position) {
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = data[position[0]++];
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
@@ -0,0 +1,29 @@
+package com.cardmanager.app;
+
+// What the spreadsheet list shows, read without loading any cells
+public class SpreadsheetSummary {
+    private final int id;
+    private final String name;
+    private final long createdDate;
+    private final int rowCount;
+    private final int columnCount;
+    // Bytes of stored cell data
+    private final long size;
+    
+    public SpreadsheetSummary(int id, String name, long createdDate, int rowCount, int columnCount, long size) {
+        this.id = id;
+        this.name = name;
+        this.createdDate = createdDate;
+        this.rowCount = rowCount;
+        this.columnCount = columnCount;
+        this.size = size;
+    }
+    
+    // Getters
+    public int getId() { return id; }
+    public String getName() { return name; }
+    public long getCreatedDate() { return createdDate; }
+    public int getRowCount() { return rowCount; }
+    public int getColumnCount() { return columnCount; }
+    public long getSize() { return size; }
+}
@@ -0,0 +1,161 @@
+package com.cardmanager.app;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+// Writes a one-sheet .xlsx workbook as a stream. Rows are deflated into the sheet
+// entry as they are written, and text is stored inline rather than through a
+// shared strings table, so only the current row is ever held. Cells starting with
+// '=' are written as formulas, which office suites recalculate on open.
+public class XlsxWriter implements Closeable {
+    
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String XML_HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n";
+    private static final String MAIN_NAMESPACE = "http://schemas.openxmlformats.org/spreadsheetml/2006/main";
+    private static final String RELATIONSHIP_NAMESPACE =
+            "http://schemas.openxmlformats.org/officeDocument/2006/relationships";
+    
+    // Only plain decimal numbers become numeric cells; "007" or "1,5" stay text
+    private static final Pattern NUMBER = Pattern.compile("-?(0|[1-9][0-9]*)(\\.[0-9]+)?([eE][-+]?[0-9]+)?");
+    
+    private final ZipOutputStream zip;
+    private final Writer out;
+    private int lastRow = -1;
+    
+    public XlsxWriter(OutputStream stream, String sheetName) throws IOException {
+        zip = new ZipOutputStream(stream);
+        out = new BufferedWriter(new OutputStreamWriter(zip, UTF_8));
+        
+        writeEntry("[Content_Types].xml", XML_HEADER
+                + "<Types xmlns=\"http://schemas.openxmlformats.org/package/2006/content-types\">"
+                + "<Default Extension=\"rels\" ContentType=\"application/vnd.openxmlformats-package.relationships+xml\"/>"
+                + "<Default Extension=\"xml\" ContentType=\"application/xml\"/>"
+                + "<Override PartName=\"/xl/workbook.xml\""
+                + " ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.sheet.main+xml\"/>"
+                + "<Override PartName=\"/xl/worksheets/sheet1.xml\""
+                + " ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.worksheet+xml\"/>"
+                + "</Types>");
+        writeEntry("_rels/.rels", XML_HEADER
+                + "<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">"
+                + "<Relationship Id=\"rId1\" Type=\"" + RELATIONSHIP_NAMESPACE + "/officeDocument\""
+                + " Target=\"xl/workbook.xml\"/>"
+                + "</Relationships>");
+        writeEntry("xl/workbook.xml", XML_HEADER
+                + "<workbook xmlns=\"" + MAIN_NAMESPACE + "\" xmlns:r=\"" + RELATIONSHIP_NAMESPACE + "\">"
+                + "<sheets><sheet name=\"" + escape(sheetTitle(sheetName)) + "\" sheetId=\"1\" r:id=\"rId1\"/></sheets>"
+                + "<calcPr fullCalcOnLoad=\"1\"/>"
+                + "</workbook>");
+        writeEntry("xl/_rels/workbook.xml.rels", XML_HEADER
+                + "<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">"
+                + "<Relationship Id=\"rId1\" Type=\"" + RELATIONSHIP_NAMESPACE + "/worksheet\""
+                + " Target=\"worksheets/sheet1.xml\"/>"
+                + "</Relationships>");
+        
+        // The sheet entry stays open until close()
+        zip.putNextEntry(new ZipEntry("xl/worksheets/sheet1.xml"));
+        out.write(XML_HEADER);
+        out.write("<worksheet xmlns=\"" + MAIN_NAMESPACE + "\"><sheetData>");
+    }
+    
+    // Rows must be written in ascending order; empty rows may be left out
+    public void writeRow(int row, String[] cells) throws IOException {
+        if (row <= lastRow) {
+            throw new IOException("Row " + (row + 1) + " is out of order");
+        }
+        lastRow = row;
+        
+        String rowNumber = String.valueOf(row + 1);
+        out.write("<row r=\"");
+        out.write(rowNumber);
+        out.write("\">");
+        for (int column = 0; column < cells.length; column++) {
+            String value = cells[column];
+            if (value == null || value.isEmpty()) {
+                continue;
+            }
+            out.write("<c r=\"");
+            out.write(Sheet.columnName(column));
+            out.write(rowNumber);
+            if (value.length() > 1 && value.charAt(0) == '=') {
+                out.write("\"><f>");
+                out.write(escape(value.substring(1)));
+                out.write("</f></c>");
+            } else if (NUMBER.matcher(value).matches()) {
+                out.write("\"><v>");
+                out.write(value);
+                out.write("</v></c>");
+            } else if (value.equals("TRUE") || value.equals("FALSE")) {
+                out.write("\" t=\"b\"><v>");
+                out.write(value.equals("TRUE") ? "1" : "0");
+                out.write("</v></c>");
+            } else {
+                out.write("\" t=\"inlineStr\"><is><t xml:space=\"preserve\">");
+                out.write(escape(value));
+                out.write("</t></is></c>");
+            }
+        }
+        out.write("</row>");
+    }
+    
+    @Override
+    public void close() throws IOException {
+        out.write("</sheetData></worksheet>");
+        out.flush();
+        zip.closeEntry();
+        zip.close();
+    }
+    
+    private void writeEntry(String name, String content) throws IOException {
+        zip.putNextEntry(new ZipEntry(name));
+        out.write(content);
+        out.flush();
+        zip.closeEntry();
+    }
+    
+    // Office suites reject sheet names over 31 characters or with any of []:*?/\
+    private static String sheetTitle(String name) {
+        String title = name == null ? "" : name.replaceAll("[\\[\\]:*?/\\\\]", " ").trim();
+        if (title.isEmpty()) {
+            title = "Sheet1";
+        }
+        return title.length() > 31 ? title.substring(0, 31) : title;
+    }
+    
+    // Escapes markup and drops the control characters XML 1.0 cannot hold
+    private static String escape(String text) {
+        StringBuilder escaped = null;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            String replacement;
+            switch (c) {
+                case '&': replacement = "&amp;"; break;
+                case '<': replacement = "&lt;"; break;
+                case '>': replacement = "&gt;"; break;
+                case '"': replacement = "&quot;"; break;
+                default:
+                    replacement = c < 0x20 && c != '\t' && c != '\n' && c != '\r' ? "" : null;
+                    break;
+            }
+            if (replacement != null && escaped == null) {
+                escaped = new StringBuilder(text.length() + 16);
+                escaped.append(text, 0, i);
+            }
+            if (escaped != null) {
+                if (replacement != null) {
+                    escaped.append(replacement);
+                } else {
+                    escaped.append(c);
+                }
+            }
+        }
+        return escaped != null ? escaped.toString() : text;
+    }
+}
@@ -0,0 +1,54 @@
+package com.cardmanager.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Test;
+
+/**
+ * Codes handed out by CardCodeAllocator, with a seeded Random so the counts are fixed.
+ */
+public class CardCodeAllocatorTest {
+    
+    @Test
+    public void codesGetLongerWhenALengthIsNearlyUsedUp() {
+        CardCodeAllocator allocator = new CardCodeAllocator(new Random(1));
+        Set<String> codes = new HashSet<>();
+        for (int i = 0; i < 20000; i++) {
+            assertTrue(codes.add(allocator.allocate()));
+        }
+        
+        int threeLetter = 0;
+        for (String code : codes) {
+            if (code.length() == 3) {
+                threeLetter++;
+            }
+        }
+        // 90% of 26^3
+        assertEquals(15819, threeLetter);
+        assertEquals("ZZZ", CardCodeAllocator.codeOf(CardCodeAllocator.indexOf("ZZZ"), 3));
+        assertEquals(-1, CardCodeAllocator.indexOf("A1B"));
+    }
+    
+    @Test
+    public void codesMarkedUsedAreNeverHandedOut() {
+        CardCodeAllocator allocator = new CardCodeAllocator(new Random(2));
+        Set<String> taken = new HashSet<>();
+        for (int index = 0; index < 26 * 26 * 26; index += 2) {
+            String code = CardCodeAllocator.codeOf(index, 3);
+            allocator.markUsed(code);
+            taken.add(code);
+        }
+        // Codes not of the generated form are ignored
+        allocator.markUsed("ab1");
+        allocator.markUsed(null);
+        
+        for (int i = 0; i < 5000; i++) {
+            String code = allocator.allocate();
+            assertTrue(code, taken.add(code));
+        }
+    }
+}
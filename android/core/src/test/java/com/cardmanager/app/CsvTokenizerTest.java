@@ -0,0 +1,140 @@
+package com.cardmanager.app;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+/**
+ * Rows and cells as CsvTokenizer reports them, including input handed over a few
+ * characters at a time so records cross the boundaries between read() calls.
+ */
+public class CsvTokenizerTest {
+    
+    @Test
+    public void quotedCellsUnescapeDoubledQuotes() {
+        assertRows("\"say \"\"hi\"\"\",\"\"\"\",plain\n",
+                row("say \"hi\"", "\"", "plain"));
+    }
+    
+    @Test
+    public void quotedCellsKeepCommasAndLineBreaks() {
+        assertRows("\"a,b\",\"line\nbreak\",\"crlf\r\ninside\"\nnext\n",
+                row("a,b", "line\nbreak", "crlf\r\ninside"),
+                row("next"));
+    }
+    
+    @Test
+    public void rowsEndInLfCrlfOrCr() {
+        assertRows("a,b\r\nc,d\re,f\ng,h\r\n",
+                row("a", "b"),
+                row("c", "d"),
+                row("e", "f"),
+                row("g", "h"));
+    }
+    
+    @Test
+    public void emptyCellsAreKept() {
+        assertRows("a,b,\n,,\n\n",
+                row("a", "b", ""),
+                row("", "", ""),
+                row(""));
+    }
+    
+    @Test
+    public void lastRowNeedsNoLineBreak() {
+        assertRows("a,b\nc,d", row("a", "b"), row("c", "d"));
+        assertRows("a,\"quoted\"", row("a", "quoted"));
+        assertRows("a,", row("a", ""));
+    }
+    
+    @Test
+    public void quotesInsideUnquotedCellsAreText() {
+        assertRows("5\" disk,ab\"c\"\n", row("5\" disk", "ab\"c\""));
+        // Text after a closing quote is kept too
+        assertRows("\"ab\"cd,e\n", row("abcd", "e"));
+    }
+    
+    @Test
+    public void recordsSplitAcrossReadsParseTheSame() throws IOException {
+        String csv = "id,\"name, full\",note\r\n1,\"Ana \"\"A\"\"\",\"two\nlines\"\r\n2,Bo,\n3,\"\",x";
+        List<List<String>> expected = Arrays.asList(
+                row("id", "name, full", "note"),
+                row("1", "Ana \"A\"", "two\nlines"),
+                row("2", "Bo", ""),
+                row("3", "", "x"));
+        assertEquals(expected, parse(csv));
+        for (int step = 1; step <= 7; step++) {
+            assertEquals("read " + step + " at a time", expected, parse(new TrickleReader(csv, step)));
+        }
+    }
+    
+    @Test
+    public void appendedCellsReadBackUnchanged() {
+        String[] values = {"plain", "a,b", "say \"hi\"", "two\nlines", "cr\rend", ""};
+        StringBuilder csv = new StringBuilder();
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) csv.append(',');
+            CsvTokenizer.appendCell(csv, values[i]);
+        }
+        assertRows(csv.toString(), row(values));
+    }
+    
+    private static void assertRows(String csv, List<?>... rows) {
+        assertEquals(Arrays.asList(rows), parse(csv));
+    }
+    
+    private static List<String> row(String... cells) {
+        return Arrays.asList(cells);
+    }
+    
+    private static List<List<String>> parse(String csv) {
+        Collector rows = new Collector();
+        new CsvTokenizer(rows).parse(csv);
+        return rows.rows;
+    }
+    
+    private static List<List<String>> parse(Reader reader) throws IOException {
+        Collector rows = new Collector();
+        new CsvTokenizer(rows).parse(reader);
+        return rows.rows;
+    }
+    
+    private static final class Collector implements CsvTokenizer.Handler {
+        final List<List<String>> rows = new ArrayList<>();
+        
+        @Override
+        public void onCell(int row, int column, CharSequence value) {
+            while (rows.size() <= row) {
+                rows.add(new ArrayList<>());
+            }
+            assertEquals(column, rows.get(row).size());
+            rows.get(row).add(value.toString());
+        }
+        
+        @Override
+        public void onRowEnd(int row, int columnCount) {
+            assertEquals(columnCount, rows.get(row).size());
+        }
+    }
+    
+    // Hands out at most step characters per read()
+    private static final class TrickleReader extends StringReader {
+        private final int step;
+        
+        TrickleReader(String text, int step) {
+            super(text);
+            this.step = step;
+        }
+        
+        @Override
+        public int read(char[] buffer, int offset, int length) throws IOException {
+            return super.read(buffer, offset, Math.min(length, step));
+        }
+    }
+}
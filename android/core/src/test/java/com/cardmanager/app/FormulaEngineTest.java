@@ -0,0 +1,147 @@
+package com.cardmanager.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import org.junit.Test;
+
+/**
+ * Formula evaluation and recalculation. Cells are held in a map that stands in for
+ * the sheet, and every edit goes to the map before the engine, as in ExcelActivity.
+ */
+public class FormulaEngineTest {
+    
+    private final Map<Long, String> inputs = new HashMap<>();
+    private final FormulaEngine engine = new FormulaEngine(
+            (row, column) -> inputs.get(FormulaEngine.key(row, column)));
+    
+    @Test
+    public void arithmeticFollowsOperatorPrecedence() {
+        set("A1", "=1+2*3");
+        set("A2", "=(1+2)*3");
+        set("A3", "=2^3*2");
+        set("A4", "=10-4-3");
+        set("A5", "=8/2/2");
+        set("A6", "=-3+5");
+        set("A7", "=\"n\"&1+1");
+        
+        assertEquals(7.0, value("A1"));
+        assertEquals(9.0, value("A2"));
+        assertEquals(16.0, value("A3"));
+        assertEquals(3.0, value("A4"));
+        assertEquals(2.0, value("A5"));
+        assertEquals(2.0, value("A6"));
+        assertEquals("n2", value("A7"));
+    }
+    
+    @Test
+    public void sumRecalculatesAfterAnEdit() {
+        for (int row = 1; row <= 10; row++) {
+            set("A" + row, String.valueOf(row));
+        }
+        set("B1", "=SUM(A1:A10)");
+        assertEquals(55.0, value("B1"));
+        
+        Set<Long> changed = set("A4", "40");
+        assertEquals(91.0, value("B1"));
+        assertTrue(changed.contains(key("B1")));
+        
+        // Clearing a cell leaves it out of the sum
+        set("A10", null);
+        assertEquals(81.0, value("B1"));
+    }
+    
+    @Test
+    public void vlookupFindsExactAndApproximateMatches() {
+        set("A1", "apple");
+        set("B1", "3");
+        set("A2", "banana");
+        set("B2", "5");
+        set("A3", "cherry");
+        set("B3", "7");
+        set("D1", "=VLOOKUP(\"banana\",A1:B3,2,FALSE)");
+        set("D2", "=VLOOKUP(\"blueberry\",A1:B3,2)");
+        set("D3", "=VLOOKUP(\"kiwi\",A1:B3,2,FALSE)");
+        set("D4", "=VLOOKUP(\"apple\",A1:B3,3,FALSE)");
+        
+        assertEquals(5.0, value("D1"));
+        assertEquals(5.0, value("D2"));
+        assertEquals(FormulaEngine.Error.NOT_AVAILABLE, value("D3"));
+        assertEquals(FormulaEngine.Error.REF, value("D4"));
+        
+        set("B2", "6");
+        assertEquals(6.0, value("D1"));
+    }
+    
+    @Test
+    public void errorsShowAsSpreadsheetCodes() {
+        set("A1", "=1/0");
+        set("A2", "=A1+1");
+        set("A3", "=1+");
+        set("A4", "=NOSUCH(1)");
+        
+        assertEquals(FormulaEngine.Error.DIV_ZERO, value("A1"));
+        assertEquals("#DIV/0!", engine.getDisplayValue(0, 0));
+        // Errors carry through to the formulas that read them
+        assertEquals(FormulaEngine.Error.DIV_ZERO, value("A2"));
+        assertEquals("#NAME?", engine.getDisplayValue(2, 0));
+        assertEquals("#NAME?", engine.getDisplayValue(3, 0));
+    }
+    
+    @Test
+    public void cyclesAreReportedUntilBroken() {
+        set("D1", "=E1+1");
+        set("E1", "=D1+1");
+        assertEquals(FormulaEngine.Error.CYCLE, value("D1"));
+        assertEquals(FormulaEngine.Error.CYCLE, value("E1"));
+        
+        // Breaking the cycle recalculates both cells
+        set("E1", "=A1+5");
+        assertEquals(5.0, value("E1"));
+        assertEquals(6.0, value("D1"));
+    }
+    
+    @Test
+    public void dependentsUpdateAfterAnUpstreamEdit() {
+        set("A1", "2");
+        set("B1", "=A1*10");
+        set("C1", "=B1+1");
+        set("D1", "=SUM(B1:C1)");
+        assertEquals(41.0, value("D1"));
+        
+        set("A1", "3");
+        assertEquals(30.0, value("B1"));
+        assertEquals(31.0, value("C1"));
+        assertEquals(61.0, value("D1"));
+        
+        // A formula replaced by a value is read as that value
+        set("B1", "100");
+        assertEquals(101.0, value("C1"));
+        assertEquals(201.0, value("D1"));
+        assertNull(engine.getValue(5, 5));
+    }
+    
+    private Set<Long> set(String cell, String input) {
+        long key = key(cell);
+        if (input == null) {
+            inputs.remove(key);
+        } else {
+            inputs.put(key, input);
+        }
+        return engine.setCell(FormulaEngine.rowOf(key), FormulaEngine.columnOf(key), input);
+    }
+    
+    private Object value(String cell) {
+        long key = key(cell);
+        return engine.getValue(FormulaEngine.rowOf(key), FormulaEngine.columnOf(key));
+    }
+    
+    // A1-style reference with a single column letter
+    private static long key(String cell) {
+        return FormulaEngine.key(Integer.parseInt(cell.substring(1)) - 1, cell.charAt(0) - 'A');
+    }
+}
@@ -0,0 +1,89 @@
+package com.cardmanager.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+
+/**
+ * Counting, the slow log and the reports of QueryMetrics, fed with made-up timings.
+ */
+public class QueryMetricsTest {
+    
+    private static final long MS = 1000000;
+    
+    private final QueryMetrics metrics = new QueryMetrics();
+    
+    @Test
+    public void operationsAreCountedByName() {
+        metrics.record("getCard", "SELECT 1", 2 * MS, 1, 40, null);
+        metrics.record("getCard", "SELECT 1", 3 * MS, 0, 0, null);
+        metrics.record("addCard", null, MS, 1, 0, null);
+        
+        assertEquals(2, metrics.getCount("getCard"));
+        assertEquals(1, metrics.getCount("addCard"));
+        assertEquals(0, metrics.getCount("deleteCard"));
+        assertTrue(metrics.slowQueries().isEmpty());
+        assertTrue(metrics.report().startsWith("addCard  n=1  mean=1.00ms"));
+    }
+    
+    @Test
+    public void onlySlowOperationsAreExplained() {
+        int[] explained = {0};
+        QueryMetrics.PlanSource plan = () -> {
+            explained[0]++;
+            return Collections.singletonList("SCAN cards");
+        };
+        metrics.setSlowThresholdMillis(10);
+        metrics.record("fast", "SELECT 1", 9 * MS, 1, 8, plan);
+        metrics.record("slow", "SELECT 2", 10 * MS, 3, 24, plan);
+        metrics.record("write", null, 20 * MS, 1, 0, null);
+        
+        assertEquals(1, explained[0]);
+        List<QueryMetrics.SlowQuery> slow = metrics.slowQueries();
+        assertEquals(2, slow.size());
+        // Newest first
+        assertEquals("write", slow.get(0).operation);
+        assertNull(slow.get(0).plan);
+        assertEquals("slow", slow.get(1).operation);
+        assertEquals("SELECT 2", slow.get(1).sql);
+        assertEquals(3, slow.get(1).rows);
+        assertEquals(Collections.singletonList("SCAN cards"), slow.get(1).plan);
+    }
+    
+    @Test
+    public void slowLogKeepsTheNewestEntries() {
+        metrics.setSlowThresholdMillis(0);
+        for (int i = 0; i < QueryMetrics.SLOW_LOG_SIZE + 5; i++) {
+            metrics.record("op" + i, null, MS, 0, 0, null);
+        }
+        
+        List<QueryMetrics.SlowQuery> slow = metrics.slowQueries();
+        assertEquals(QueryMetrics.SLOW_LOG_SIZE, slow.size());
+        assertEquals("op" + (QueryMetrics.SLOW_LOG_SIZE + 4), slow.get(0).operation);
+        assertEquals("op5", slow.get(slow.size() - 1).operation);
+        
+        metrics.reset();
+        assertTrue(metrics.slowQueries().isEmpty());
+        assertEquals(0, metrics.getCount("op0"));
+    }
+    
+    @Test
+    public void jsonHoldsCountsHistogramsAndEscapedSql() {
+        metrics.setSlowThresholdMillis(1);
+        metrics.record("search", "SELECT * FROM cards WHERE name = \"x\"\n", 2 * MS, 4, 100,
+                () -> Collections.singletonList("SEARCH cards"));
+        
+        String json = metrics.toJson();
+        assertTrue(json, json.startsWith("{\"slowThresholdMs\":1,\"bucketBoundsUs\":[100,"));
+        assertTrue(json, json.contains("\"search\":{\"count\":1,\"totalUs\":2000,\"maxUs\":2000,\"rows\":4,"
+                + "\"bytes\":100,\"histogram\":[0,0,0,0,1,"));
+        assertTrue(json, json.contains("\"sql\":\"SELECT * FROM cards WHERE name = \\\"x\\\"\\n\""));
+        assertTrue(json, json.contains("\"plan\":[\"SEARCH cards\"]"));
+        assertFalse(json, json.contains("\n"));
+    }
+}